@@ -0,0 +1,56 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logging for the request handlers that does not slow them down.
+ *
+ * `System.out.println` takes a lock on stdout, with a message per call all handler
+ * threads end up waiting for each other. Here a handler only counts the call, every
+ * Nth call builds a line and hands it to a queue. One background thread does the
+ * printing. If the queue is full the line is dropped instead of blocking the handler.
+ */
+class AsyncLog {
+  private static final BlockingQueue<String> lines = new ArrayBlockingQueue<>(1024);
+  private static final AtomicLong calls = new AtomicLong();
+  private static final AtomicLong dropped = new AtomicLong();
+  private static volatile int sampleRate = 1000;
+
+  static {
+    Thread printer = new Thread(() -> {
+      try {
+        while (true) {
+          System.out.println(lines.take());
+        }
+      } catch (InterruptedException e) {
+        // JVM is going down
+      }
+    }, "async-log");
+    printer.setDaemon(true);
+    printer.start();
+  }
+
+  /** Log every rate-th call, 1 logs every call. */
+  static void setSampleRate(int rate) {
+    sampleRate = Math.max(1, rate);
+  }
+
+  /** Counts the call and logs prefix + message if it is one of the sampled ones. */
+  static void sample(String prefix, String message) {
+    long call = calls.getAndIncrement();
+    if (call % sampleRate == 0) {
+      String line = prefix + message + (sampleRate > 1 ? " (call " + (call + 1) + ")" : "");
+      if (!lines.offer(line)) {
+        dropped.incrementAndGet();
+      }
+    }
+  }
+
+  static long calls() {
+    return calls.get();
+  }
+
+  static long dropped() {
+    return dropped.get();
+  }
+}
@@ -0,0 +1,153 @@
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientInterceptors;
+import io.grpc.ClientStreamTracer;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import echo.ClientRequest;
+import echo.EchoGrpc;
+
+/**
+ * What gzip costs and saves on `parrot` calls with text messages from 64 B to 1 MB.
+ *
+ * Starts the `EchoServer` in this JVM, once without and once with compression, and
+ * makes the same calls against both. The bytes on the wire (request and response,
+ * after compression) are counted with a `ClientStreamTracer`, the CPU time is the
+ * time of the whole process per call, so it includes compressing and decompressing
+ * on both sides. Both are printed next to each other for every message size.
+ */
+public class CompressionBenchmark {
+  private static final int[] SIZES = {64, 256, 1024, 4096, 16384, 65536, 262144, 1048576};
+  // bytes to send per size and encoding, small messages need more calls
+  private static final long BYTES_PER_ROW = 32L * 1024 * 1024;
+  private static final String[] WORDS = {
+    "the", "server", "client", "message", "echo", "parrot", "stream", "call", "channel",
+    "request", "response", "compression", "gzip", "bytes", "latency", "throughput",
+    "and", "of", "to", "a", "is", "for", "with", "on", "every", "network"
+  };
+
+  private static final com.sun.management.OperatingSystemMXBean os =
+      (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+
+  // bytes the client sent and received per call, as they went over the wire
+  private final LongAdder wireBytes = new LongAdder();
+
+  /** Counts the wire size of every message of the calls made through the channel. */
+  private ClientInterceptor wireCounter() {
+    final ClientStreamTracer.Factory tracers = new ClientStreamTracer.Factory() {
+      @Override
+      public ClientStreamTracer newClientStreamTracer(ClientStreamTracer.StreamInfo info, Metadata headers) {
+        return new ClientStreamTracer() {
+          @Override
+          public void outboundWireSize(long bytes) {
+            wireBytes.add(bytes);
+          }
+
+          @Override
+          public void inboundWireSize(long bytes) {
+            wireBytes.add(bytes);
+          }
+        };
+      }
+    };
+    return new ClientInterceptor() {
+      @Override
+      public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> descriptor,
+          CallOptions callOptions, Channel next) {
+        return next.newCall(descriptor, callOptions.withStreamTracerFactory(tracers));
+      }
+    };
+  }
+
+  /** Runs all sizes with the encoding (null for none), returns {wire bytes, CPU ns} per call and size. */
+  private long[][] run(int port, String encoding) throws Exception {
+    // no call logging, a sampled 1 MB message would end up on the console
+    String[] config = encoding == null
+        ? new String[] {"logSample=" + Integer.MAX_VALUE}
+        : new String[] {"logSample=" + Integer.MAX_VALUE, "compression=" + encoding, "compressMin=0"};
+    EchoServerOptions options = EchoServerOptions.parse(config, 0);
+    options.maxInboundMessageSize = 4 * SIZES[SIZES.length - 1];
+    EchoServer server = new EchoServer(port, options);
+    server.start();
+    ManagedChannel channel = ManagedChannelBuilder.forTarget("localhost:" + port)
+        .usePlaintext()
+        .maxInboundMessageSize(4 * SIZES[SIZES.length - 1])
+        .build();
+    Channel calls = ClientInterceptors.intercept(channel, wireCounter());
+    if (encoding != null) {
+      // minSize 0: compress everything, the table shows where it stops paying off
+      calls = ClientInterceptors.intercept(calls, new CompressionClientInterceptor(encoding, 0));
+    }
+    EchoGrpc.EchoBlockingStub stub = EchoGrpc.newBlockingStub(calls);
+
+    long[][] results = new long[SIZES.length][];
+    try {
+      for (int i = 0; i < SIZES.length; i++) {
+        ClientRequest request = ClientRequest.newBuilder().setMessage(text(SIZES[i])).build();
+        int count = (int) Math.max(20, Math.min(20000, BYTES_PER_ROW / SIZES[i]));
+        // warm up, then measure
+        for (int call = 0; call < count / 4; call++) {
+          stub.parrot(request);
+        }
+        wireBytes.reset();
+        long cpu = os.getProcessCpuTime();
+        for (int call = 0; call < count; call++) {
+          stub.parrot(request);
+        }
+        results[i] = new long[] {wireBytes.sum() / count, (os.getProcessCpuTime() - cpu) / count};
+      }
+    } finally {
+      channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+      server.stop();
+    }
+    return results;
+  }
+
+  /** Random words, compresses about like normal English text. */
+  private static String text(int size) {
+    Random random = new Random(42);
+    StringBuilder text = new StringBuilder(size + 16);
+    while (text.length() < size) {
+      text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+    }
+    text.setLength(size);
+    return text.toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 1) {
+      System.out.println("Expected arguments: <port(int)>");
+      System.exit(1);
+    }
+    int port = 9099;
+    try {
+      port = Integer.parseInt(args[0]);
+    } catch (NumberFormatException nfe) {
+      System.out.println("[port] must be an integer");
+      System.exit(2);
+    }
+    CompressionBenchmark benchmark = new CompressionBenchmark();
+    // the first run would also pay for the JIT warm up
+    benchmark.run(port, null);
+    long[][] plain = benchmark.run(port, null);
+    long[][] gzip = benchmark.run(port, "gzip");
+
+    System.out.println();
+    System.out.println("Bytes on the wire and process CPU time per call (request + response)");
+    System.out.println(String.format("%8s | %12s | %12s | %6s | %11s | %11s",
+        "message", "wire (none)", "wire (gzip)", "saved", "CPU us none", "CPU us gzip"));
+    for (int i = 0; i < SIZES.length; i++) {
+      System.out.println(String.format("%8d | %12d | %12d | %5.1f%% | %11.1f | %11.1f", SIZES[i],
+          plain[i][0], gzip[i][0], 100.0 * (plain[i][0] - gzip[i][0]) / plain[i][0],
+          plain[i][1] / 1e3, gzip[i][1] / 1e3));
+    }
+  }
+}
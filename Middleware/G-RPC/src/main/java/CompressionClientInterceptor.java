@@ -0,0 +1,41 @@
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.CompressorRegistry;
+import io.grpc.ForwardingClientCall;
+import io.grpc.MethodDescriptor;
+
+/**
+ * Client side of `CompressionServerInterceptor`: compresses the requests of every
+ * call made through the channel with the encoding, messages smaller than minSize
+ * are sent uncompressed. Compressed responses are decompressed by gRPC on its own.
+ */
+class CompressionClientInterceptor implements ClientInterceptor {
+  /** Smaller messages are not worth it, see `CompressionBenchmark`. */
+  static final int DEFAULT_MIN_SIZE = 1024;
+
+  private final String encoding;
+  private final int minSize;
+
+  CompressionClientInterceptor(String encoding, int minSize) {
+    if (CompressorRegistry.getDefaultInstance().lookupCompressor(encoding) == null) {
+      throw new IllegalArgumentException("Unknown compression: " + encoding);
+    }
+    this.encoding = encoding;
+    this.minSize = minSize;
+  }
+
+  @Override
+  public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> descriptor,
+      CallOptions callOptions, Channel next) {
+    return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(
+        next.newCall(descriptor, callOptions.withCompression(encoding))) {
+      @Override
+      public void sendMessage(ReqT message) {
+        setMessageCompression(MetricsServerInterceptor.size(message) >= minSize);
+        super.sendMessage(message);
+      }
+    };
+  }
+}
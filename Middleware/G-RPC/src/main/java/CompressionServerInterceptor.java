@@ -0,0 +1,44 @@
+import io.grpc.CompressorRegistry;
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+/**
+ * Compresses the responses of the service it is added to, but only messages of at
+ * least minSize bytes. Smaller ones are sent as they are, compressing them costs
+ * CPU and saves next to nothing.
+ *
+ * gRPC negotiates the encoding per call: the client lists what it can decompress in
+ * the `grpc-accept-encoding` header, if the encoding is not in there the server sends
+ * the call uncompressed. Requests the client compressed are decompressed by gRPC
+ * itself with the codecs of the `DecompressorRegistry`, that needs no interceptor.
+ */
+class CompressionServerInterceptor implements ServerInterceptor {
+  private final String encoding;
+  private final int minSize;
+
+  /** encoding is a name of the CompressorRegistry, gzip is the one gRPC comes with. */
+  CompressionServerInterceptor(String encoding, int minSize) {
+    if (CompressorRegistry.getDefaultInstance().lookupCompressor(encoding) == null) {
+      throw new IllegalArgumentException("Unknown compression: " + encoding);
+    }
+    this.encoding = encoding;
+    this.minSize = minSize;
+  }
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+      Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+    // has to happen before the response headers are sent
+    call.setCompression(encoding);
+    return next.startCall(new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+      @Override
+      public void sendMessage(RespT message) {
+        setMessageCompression(MetricsServerInterceptor.size(message) >= minSize);
+        super.sendMessage(message);
+      }
+    }, headers);
+  }
+}
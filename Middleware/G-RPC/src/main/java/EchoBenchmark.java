@@ -0,0 +1,201 @@
+import io.grpc.Channel;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import echo.ServerResponse;
+import echo.ClientRequest;
+import echo.EchoGrpc;
+
+/**
+ * Sends the same number of messages with every RPC shape of the `Echo` service and
+ * prints messages/sec and latency for each, so the streaming calls can be compared
+ * to the unary `parrot` baseline.
+ *
+ * Latency means:
+ * - unary: round trip of one call
+ * - server streaming: time between two messages of the stream
+ * - client streaming: the whole call, from the first message to the answer
+ * - bidirectional: round trip of one message in the stream
+ *
+ * The streaming senders only send while `isReady()` is true, so they respect flow
+ * control the same way the server does.
+ */
+public class EchoBenchmark {
+  private final EchoGrpc.EchoBlockingStub blockingStub;
+  private final EchoGrpc.EchoStub asyncStub;
+  private final ClientRequest request;
+  private final int count;
+
+  public EchoBenchmark(Channel channel, String message, int count) {
+    this.blockingStub = EchoGrpc.newBlockingStub(channel);
+    this.asyncStub = EchoGrpc.newStub(channel);
+    this.request = ClientRequest.newBuilder().setMessage(message).build();
+    this.count = count;
+  }
+
+  public void run() throws InterruptedException {
+    System.out.println("shape            | messages |  msgs/sec |   p50 (us) |   p99 (us)");
+    // once without printing so the JIT and the connection are warmed up
+    unary();
+
+    long start = System.nanoTime();
+    long[] latencies = unary();
+    report("unary", latencies, System.nanoTime() - start);
+
+    start = System.nanoTime();
+    latencies = serverStreaming();
+    report("server streaming", latencies, System.nanoTime() - start);
+
+    start = System.nanoTime();
+    latencies = clientStreaming();
+    report("client streaming", latencies, System.nanoTime() - start);
+
+    start = System.nanoTime();
+    latencies = bidirectional();
+    report("bidirectional", latencies, System.nanoTime() - start);
+  }
+
+  /** One blocking call after the other, returns the round trip of each call. */
+  private long[] unary() {
+    long[] latencies = new long[count];
+    for (int i = 0; i < count; i++) {
+      long start = System.nanoTime();
+      blockingStub.parrot(request);
+      latencies[i] = System.nanoTime() - start;
+    }
+    return latencies;
+  }
+
+  /** One call, the server sends count messages. Returns the gaps between them. */
+  private long[] serverStreaming() {
+    long[] gaps = new long[count];
+    long last = System.nanoTime();
+    // the blocking iterator only asks for more once we took the next message
+    Iterator<ServerResponse> responses =
+        blockingStub.parrotStream(request.toBuilder().setRepeat(count).build());
+    int i = 0;
+    while (responses.hasNext()) {
+      responses.next();
+      long now = System.nanoTime();
+      gaps[i++] = now - last;
+      last = now;
+    }
+    return Arrays.copyOf(gaps, i);
+  }
+
+  /** Sends count messages in one call. Returns the time of the whole call. */
+  private long[] clientStreaming() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    final long start = System.nanoTime();
+    final long[] latency = new long[1];
+
+    asyncStub.parrotCollect(new ClientResponseObserver<ClientRequest, ServerResponse>() {
+      @Override
+      public void beforeStart(final ClientCallStreamObserver<ClientRequest> requestStream) {
+        requestStream.setOnReadyHandler(new Runnable() {
+          private int sent = 0;
+
+          @Override
+          public void run() {
+            while (requestStream.isReady() && sent < count) {
+              requestStream.onNext(request);
+              sent++;
+            }
+            if (sent == count) {
+              sent++; // only complete once
+              requestStream.onCompleted();
+            }
+          }
+        });
+      }
+
+      @Override
+      public void onNext(ServerResponse response) {
+        if (response.getCount() != count) {
+          System.out.println("Server got " + response.getCount() + " of " + count + " messages");
+        }
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        System.err.println("RPC failed: " + t.getMessage());
+        done.countDown();
+      }
+
+      @Override
+      public void onCompleted() {
+        latency[0] = System.nanoTime() - start;
+        done.countDown();
+      }
+    });
+    done.await();
+    return latency;
+  }
+
+  /** Sends count messages in one call and times every echo. */
+  private long[] bidirectional() throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(1);
+    final long[] sent = new long[count];
+    final long[] latencies = new long[count];
+
+    asyncStub.parrotChat(new ClientResponseObserver<ClientRequest, ServerResponse>() {
+      private int received = 0;
+
+      @Override
+      public void beforeStart(final ClientCallStreamObserver<ClientRequest> requestStream) {
+        requestStream.setOnReadyHandler(new Runnable() {
+          private int next = 0;
+
+          @Override
+          public void run() {
+            while (requestStream.isReady() && next < count) {
+              sent[next++] = System.nanoTime();
+              requestStream.onNext(request);
+            }
+            if (next == count) {
+              next++; // only complete once
+              requestStream.onCompleted();
+            }
+          }
+        });
+      }
+
+      @Override
+      public void onNext(ServerResponse response) {
+        // answers come back in the order we sent them
+        latencies[received] = System.nanoTime() - sent[received];
+        received++;
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        System.err.println("RPC failed: " + t.getMessage());
+        done.countDown();
+      }
+
+      @Override
+      public void onCompleted() {
+        done.countDown();
+      }
+    });
+    done.await();
+    return latencies;
+  }
+
+  private void report(String shape, long[] latencies, long elapsed) {
+    Arrays.sort(latencies);
+    System.out.printf("%-16s | %8d | %9.0f | %10.1f | %10.1f%n", shape, count,
+        count / (elapsed / 1e9), percentile(latencies, 50) / 1e3, percentile(latencies, 99) / 1e3);
+  }
+
+  // nearest-rank percentile on an already sorted array
+  static long percentile(long[] sorted, double p) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+    return sorted[Math.min(sorted.length, Math.max(1, rank)) - 1];
+  }
+}
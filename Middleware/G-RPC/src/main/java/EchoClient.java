@@ -1,4 +1,6 @@
 import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
+import io.grpc.CompressorRegistry;
 import io.grpc.ManagedChannel;
 import io.grpc.ManagedChannelBuilder;
 import java.util.concurrent.TimeUnit;
@@ -34,17 +36,27 @@ public class EchoClient {
   }
 
   public static void main(String[] args) throws Exception {
-    if (args.length != 3) {
-      System.out.println("Expected arguments: <host(String)> <port(int)> <message(String)>");
+    if (args.length < 3 || args.length > 5) {
+      System.out.println("Expected arguments: <host(String)> <port(int)> <message(String)> "
+          + "[<benchmark count(int), 0 for one call> [<compression(String), e.g. gzip>]]");
       System.exit(1);
     }
+    int count = 0; // no benchmark
+    String compression = args.length == 5 ? args[4] : null;
+    if (compression != null && CompressorRegistry.getDefaultInstance().lookupCompressor(compression) == null) {
+      System.out.println("Unknown compression " + compression + ", gRPC comes with gzip");
+      System.exit(2);
+    }
     int port = 9099;
     String host = args[0];
     String message = args[2];
     try {
       port = Integer.parseInt(args[1]);
+      if (args.length >= 4) {
+        count = Integer.parseInt(args[3]);
+      }
     } catch (NumberFormatException nfe) {
-      System.out.println("[Port] must be an integer");
+      System.out.println("[Port|count] must be an integer");
       System.exit(2);
     }
     
@@ -58,9 +70,20 @@ public class EchoClient {
         // needing certificates.
         .usePlaintext()
         .build();
+    Channel calls = channel;
+    if (compression != null) {
+      // requests from DEFAULT_MIN_SIZE bytes on are compressed
+      calls = ClientInterceptors.intercept(channel,
+          new CompressionClientInterceptor(compression, CompressionClientInterceptor.DEFAULT_MIN_SIZE));
+    }
     try {
-      EchoClient client = new EchoClient(channel);
-      client.askServerToParrot(message);
+      if (count > 0) {
+        // compare all RPC shapes with count messages each
+        new EchoBenchmark(calls, message, count).run();
+      } else {
+        EchoClient client = new EchoClient(calls);
+        client.askServerToParrot(message);
+      }
     } finally {
       // ManagedChannels use resources like threads and TCP connections. To prevent leaking these
       // resources the channel should be shut down when it will no longer be used. If it may be used
@@ -0,0 +1,128 @@
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import java.util.concurrent.atomic.AtomicBoolean;
+import echo.ServerResponse;
+import echo.ClientRequest;
+import echo.EchoGrpc;
+
+/**
+ * Implementation of the `Echo` service.
+ *
+ * The streaming calls use gRPC flow control instead of pushing messages as fast as
+ * they come. `isReady()` is false while the transport buffer to the other side is
+ * full, the handler then stops and continues in the `onReadyHandler` once there is
+ * room again. Incoming streams are only read with `request(1)` once the previous
+ * message was handled, so a fast sender cannot make the server buffer without limit.
+ */
+public class EchoImpl extends EchoGrpc.EchoImplBase {
+
+  @Override
+  public void parrot(ClientRequest req, StreamObserver<ServerResponse> responseObserver) {
+    // not println, that would make all handler threads wait on the stdout lock
+    AsyncLog.sample("Received from client: ", req.getMessage());
+    ServerResponse response = ServerResponse.newBuilder().setMessage(req.getMessage()).build();
+    responseObserver.onNext(response);
+    responseObserver.onCompleted();
+  }
+
+  @Override
+  public void parrotStream(ClientRequest req, StreamObserver<ServerResponse> responseObserver) {
+    final ServerCallStreamObserver<ServerResponse> observer =
+        (ServerCallStreamObserver<ServerResponse>) responseObserver;
+    final ServerResponse response = ServerResponse.newBuilder().setMessage(req.getMessage()).build();
+    final int repeat = req.getRepeat();
+
+    // runs now and every time the client can take more; sends until the buffer is full
+    observer.setOnReadyHandler(new Runnable() {
+      private int sent = 0;
+      private boolean done = false;
+
+      @Override
+      public void run() {
+        while (!done && observer.isReady() && sent < repeat) {
+          observer.onNext(response);
+          sent++;
+        }
+        if (!done && sent >= repeat) {
+          done = true;
+          observer.onCompleted();
+        }
+      }
+    });
+    observer.setOnCancelHandler(() -> System.out.println("parrotStream cancelled by client"));
+  }
+
+  @Override
+  public StreamObserver<ClientRequest> parrotCollect(StreamObserver<ServerResponse> responseObserver) {
+    final ServerCallStreamObserver<ServerResponse> observer =
+        (ServerCallStreamObserver<ServerResponse>) responseObserver;
+    // we ask for every message ourselves
+    observer.disableAutoInboundFlowControl();
+    observer.request(1);
+
+    return new StreamObserver<ClientRequest>() {
+      private int count = 0;
+      private String last = "";
+
+      @Override
+      public void onNext(ClientRequest req) {
+        count++;
+        last = req.getMessage();
+        observer.request(1);
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        System.out.println("parrotCollect failed: " + t.getMessage());
+      }
+
+      @Override
+      public void onCompleted() {
+        System.out.println("Received " + count + " messages from client");
+        observer.onNext(ServerResponse.newBuilder().setMessage(last).setCount(count).build());
+        observer.onCompleted();
+      }
+    };
+  }
+
+  @Override
+  public StreamObserver<ClientRequest> parrotChat(StreamObserver<ServerResponse> responseObserver) {
+    final ServerCallStreamObserver<ServerResponse> observer =
+        (ServerCallStreamObserver<ServerResponse>) responseObserver;
+    observer.disableAutoInboundFlowControl();
+
+    // Only read the next message when the answer to the last one can be sent.
+    // The flag makes sure we do not request twice for the same message, once in
+    // onNext and once in the ready handler.
+    final AtomicBoolean wasReady = new AtomicBoolean(false);
+    observer.setOnReadyHandler(() -> {
+      if (observer.isReady() && wasReady.compareAndSet(false, true)) {
+        observer.request(1);
+      }
+    });
+
+    return new StreamObserver<ClientRequest>() {
+      @Override
+      public void onNext(ClientRequest req) {
+        observer.onNext(ServerResponse.newBuilder().setMessage(req.getMessage()).build());
+        if (observer.isReady()) {
+          observer.request(1);
+        } else {
+          // the client is slow, the ready handler asks for more once it caught up
+          wasReady.set(false);
+        }
+      }
+
+      @Override
+      public void onError(Throwable t) {
+        // the call is cancelled or failed already, completing it would throw
+        System.out.println("parrotChat failed: " + t.getMessage());
+      }
+
+      @Override
+      public void onCompleted() {
+        observer.onCompleted();
+      }
+    };
+  }
+}
@@ -0,0 +1,216 @@
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import echo.ServerResponse;
+import echo.ClientRequest;
+import echo.EchoGrpc;
+
+/**
+ * Puts load on the `EchoServer` with `parrot` calls and reports throughput and
+ * latency percentiles.
+ *
+ * The calls go through future stubs, spread round robin over a pool of channels
+ * (every channel is its own TCP connection). Two ways to generate load:
+ * - closed loop (qps = 0): always `concurrency` calls in flight, a new call starts
+ *   as soon as one finishes. Shows the best throughput the server can do.
+ * - open loop (qps > 0): calls start on a fixed schedule no matter how fast the
+ *   server answers. The latency is measured from the time the call should have
+ *   started, so a slow server cannot hide its delay by slowing down the client.
+ *   At most `concurrency` calls are in flight, if that limit is hit the schedule
+ *   falls behind and the waiting time shows up in the latency.
+ *
+ * Latencies are recorded in an HdrHistogram, once per second the interval is
+ * printed, at the end the whole run.
+ */
+public class EchoLoadGenerator {
+  // highest latency the histogram can hold, 1 minute in microseconds
+  private static final long MAX_LATENCY_US = TimeUnit.MINUTES.toMicros(1);
+
+  private final ManagedChannel[] channels;
+  private final EchoGrpc.EchoFutureStub[] stubs;
+  private final ClientRequest request;
+  private final int concurrency;
+  private final int qps;
+
+  private final Recorder recorder = new Recorder(MAX_LATENCY_US, 3);
+  private final AtomicLong errors = new AtomicLong();
+  private final Semaphore inFlight;
+  private volatile boolean running = true;
+  private int next = 0;
+  private boolean printIntervals = true;
+  private double throughput;
+
+  public EchoLoadGenerator(String target, int channelCount, String message, int concurrency, int qps) {
+    this(target, channelCount, message, concurrency, qps, null);
+  }
+
+  /** interceptor, if not null, sees every call (e.g. MetricsClientInterceptor). */
+  public EchoLoadGenerator(String target, int channelCount, String message, int concurrency, int qps,
+      ClientInterceptor interceptor) {
+    this.channels = new ManagedChannel[channelCount];
+    this.stubs = new EchoGrpc.EchoFutureStub[channelCount];
+    for (int i = 0; i < channelCount; i++) {
+      channels[i] = ManagedChannelBuilder.forTarget(target).usePlaintext().build();
+      stubs[i] = interceptor == null
+          ? EchoGrpc.newFutureStub(channels[i])
+          : EchoGrpc.newFutureStub(ClientInterceptors.intercept(channels[i], interceptor));
+    }
+    this.request = ClientRequest.newBuilder().setMessage(message).build();
+    this.concurrency = concurrency;
+    this.qps = qps;
+    this.inFlight = new Semaphore(concurrency);
+  }
+
+  /** Round robin over the channels. */
+  private synchronized EchoGrpc.EchoFutureStub nextStub() {
+    next = (next + 1) % stubs.length;
+    return stubs[next];
+  }
+
+  /**
+   * Starts one call. startNanos is when the call was supposed to start, the
+   * latency is counted from there.
+   */
+  private void call(final long startNanos, final boolean closedLoop) {
+    Futures.addCallback(nextStub().parrot(request), new FutureCallback<ServerResponse>() {
+      @Override
+      public void onSuccess(ServerResponse response) {
+        done();
+      }
+
+      @Override
+      public void onFailure(Throwable t) {
+        errors.incrementAndGet();
+        done();
+      }
+
+      private void done() {
+        long now = System.nanoTime();
+        recorder.recordValue(Math.min(MAX_LATENCY_US, (now - startNanos) / 1000));
+        if (closedLoop && running) {
+          call(now, true);
+        } else {
+          inFlight.release();
+        }
+      }
+    }, MoreExecutors.directExecutor());
+  }
+
+  /** Only the totals at the end, no line per second. */
+  public void setPrintIntervals(boolean printIntervals) {
+    this.printIntervals = printIntervals;
+  }
+
+  /** Calls per second of the last run. */
+  public double getThroughput() {
+    return throughput;
+  }
+
+  /** Runs the load for the given time, returns the latencies of all calls in microseconds. */
+  public Histogram run(int seconds) throws InterruptedException {
+    System.out.println((qps > 0 ? "Open loop, " + qps + " calls/sec" : "Closed loop")
+        + ", " + concurrency + " concurrent calls over " + channels.length + " channels, "
+        + seconds + " seconds");
+    Histogram total = new Histogram(MAX_LATENCY_US, 3);
+    Thread generator = new Thread(qps > 0 ? this::openLoop : this::closedLoop, "load-generator");
+    long start = System.nanoTime();
+    generator.start();
+
+    Histogram interval = null;
+    for (int second = 1; second <= seconds; second++) {
+      Thread.sleep(1000);
+      interval = recorder.getIntervalHistogram(interval);
+      total.add(interval);
+      if (!printIntervals) {
+        continue;
+      }
+      System.out.printf("%3ds: %8d calls/sec, p50=%6d us, p99=%6d us, errors=%d%n", second,
+          interval.getTotalCount(), interval.getValueAtPercentile(50),
+          interval.getValueAtPercentile(99), errors.get());
+    }
+    running = false;
+    generator.join();
+    // let the last calls finish, they still count
+    inFlight.tryAcquire(concurrency, 10, TimeUnit.SECONDS);
+    long elapsed = System.nanoTime() - start;
+    total.add(recorder.getIntervalHistogram());
+    throughput = total.getTotalCount() / (elapsed / 1e9);
+
+    System.out.printf("Total: %d calls, %.0f calls/sec, %d errors%n", total.getTotalCount(),
+        throughput, errors.get());
+    System.out.printf("Latency (us): p50=%d p99=%d p99.9=%d max=%d%n",
+        total.getValueAtPercentile(50), total.getValueAtPercentile(99),
+        total.getValueAtPercentile(99.9), total.getMaxValue());
+    return total;
+  }
+
+  private void closedLoop() {
+    // every call starts the next one itself when it is done
+    inFlight.acquireUninterruptibly(concurrency);
+    for (int i = 0; i < concurrency; i++) {
+      call(System.nanoTime(), true);
+    }
+  }
+
+  private void openLoop() {
+    long interval = TimeUnit.SECONDS.toNanos(1) / qps;
+    long scheduled = System.nanoTime();
+    while (running) {
+      long wait = scheduled - System.nanoTime();
+      if (wait > 0) {
+        LockSupport.parkNanos(wait);
+        continue;
+      }
+      inFlight.acquireUninterruptibly();
+      call(scheduled, false);
+      scheduled += interval;
+    }
+  }
+
+  public void shutdown() throws InterruptedException {
+    for (ManagedChannel channel : channels) {
+      channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 7) {
+      System.out.println("Expected arguments: <host(String)> <port(int)> <message(String)> "
+          + "<channels(int)> <concurrency(int)> <qps(int), 0 for closed loop> <seconds(int)>");
+      System.exit(1);
+    }
+    int port = 9099;
+    int channels = 4;
+    int concurrency = 64;
+    int qps = 0;
+    int seconds = 10;
+    try {
+      port = Integer.parseInt(args[1]);
+      channels = Integer.parseInt(args[3]);
+      concurrency = Integer.parseInt(args[4]);
+      qps = Integer.parseInt(args[5]);
+      seconds = Integer.parseInt(args[6]);
+    } catch (NumberFormatException nfe) {
+      System.out.println("[port|channels|concurrency|qps|seconds] must be an integer");
+      System.exit(2);
+    }
+
+    EchoLoadGenerator generator = new EchoLoadGenerator(args[0] + ":" + port,
+        Math.max(1, channels), args[2], Math.max(1, concurrency), qps);
+    try {
+      generator.run(seconds);
+    } finally {
+      generator.shutdown();
+    }
+  }
+}
@@ -1,11 +1,11 @@
 import io.grpc.Server;
-import io.grpc.ServerBuilder;
-import io.grpc.stub.StreamObserver;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerInterceptors;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
-import echo.ServerResponse;
-import echo.ClientRequest;
-import echo.EchoGrpc;
 
 /**
  * Server that manages startup/shutdown of the `EchoServer`.
@@ -13,37 +13,43 @@ import echo.EchoGrpc;
 public class EchoServer {
   private Server server;
   int port;
+  EchoServerOptions options;
+  private MetricsEndpoint metricsEndpoint;
 
-  EchoServer(int port) {
+  EchoServer(int port, EchoServerOptions options) {
     this.port = port;
+    this.options = options;
   }
 
-  private void start() throws IOException {
+  void start() throws IOException {
     /* The port on which the server should run */
-    server = ServerBuilder.forPort(port)
-        .addService(new EchoImpl())
+    NettyServerBuilder builder = NettyServerBuilder.forPort(port);
+    options.apply(builder);
+    List<ServerInterceptor> interceptors = new ArrayList<>();
+    if (options.compression != null) {
+      interceptors.add(new CompressionServerInterceptor(options.compression, options.compressMin));
+    }
+    if (options.metricsPort > 0) {
+      // every call goes through the interceptor, which fills the metrics
+      RpcMetrics metrics = new RpcMetrics("grpc_server");
+      interceptors.add(new MetricsServerInterceptor(metrics));
+      metricsEndpoint = new MetricsEndpoint(options.metricsPort, metrics);
+    }
+    builder.addService(ServerInterceptors.intercept(new EchoImpl(), interceptors));
+    server = builder
         .build()
         .start();
 
-    System.out.println("Server running ...");
-    Runtime.getRuntime().addShutdownHook(new Thread() {
-      @Override
-      public void run() {
-        // Use stderr here since the logger may have been reset by its JVM shutdown hook.
-        System.err.println("*** shutting down gRPC server since JVM is shutting down");
-        try {
-          EchoServer.this.stop();
-        } catch (InterruptedException e) {
-          e.printStackTrace(System.err);
-        }
-        System.err.println("*** server shut down");
-      }
-    });
+    System.out.println("Server running with " + options + " ...");
   }
 
-  private void stop() throws InterruptedException {
+  void stop() throws InterruptedException {
     if (server != null) {
       server.shutdown().awaitTermination(30, TimeUnit.SECONDS);
+      options.shutdown();
+      if (metricsEndpoint != null) {
+        metricsEndpoint.stop();
+      }
     }
   }
 
@@ -60,30 +66,40 @@ public class EchoServer {
    * Main launches the server from the command line.
    */
   public static void main(String[] args) throws IOException, InterruptedException {
-    if (args.length != 1) {
-      System.out.println("Expected arguments: <port(int)>");
+    if (args.length < 1) {
+      System.out.println("Expected arguments: <port(int)> [<option>=<value> ...]");
+      System.out.println("Options: executor=default|direct|fixed:N|virtual boss=N workers=N "
+          + "maxInbound=BYTES keepAlive=SECONDS keepAliveTimeout=SECONDS maxCalls=N logSample=N "
+          + "metricsPort=PORT compression=gzip compressMin=BYTES");
       System.exit(1);
     }
     int port = 9099;
+    EchoServerOptions options = null;
     try {
       port = Integer.parseInt(args[0]);
+      options = EchoServerOptions.parse(args, 1);
     } catch (NumberFormatException nfe) {
-      System.out.println("[Port] must be an integer");
+      System.out.println("[Port] and option values must be integers");
+      System.exit(2);
+    } catch (IllegalArgumentException e) {
+      System.out.println(e.getMessage());
       System.exit(2);
     }
-    final EchoServer server = new EchoServer(port);
+    final EchoServer server = new EchoServer(port, options);
     server.start();
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        // Use stderr here since the logger may have been reset by its JVM shutdown hook.
+        System.err.println("*** shutting down gRPC server since JVM is shutting down");
+        try {
+          server.stop();
+        } catch (InterruptedException e) {
+          e.printStackTrace(System.err);
+        }
+        System.err.println("*** server shut down");
+      }
+    });
     server.blockUntilShutdown();
   }
-
-  static class EchoImpl extends EchoGrpc.EchoImplBase {
-
-    @Override
-    public void parrot(ClientRequest req, StreamObserver<ServerResponse> responseObserver) {
-      System.out.println("Received from client: " + req.getMessage());
-      ServerResponse response = ServerResponse.newBuilder().setMessage(req.getMessage()).build();
-      responseObserver.onNext(response);
-      responseObserver.onCompleted();
-    }
-  }
 }
@@ -0,0 +1,79 @@
+import org.HdrHistogram.Histogram;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark matrix for the `EchoServer` options. Starts the server in this JVM once
+ * per configuration, puts the same closed loop load on it with the
+ * `EchoLoadGenerator` and prints one table row per configuration, so the effect of
+ * every option can be compared to the defaults in the first row.
+ */
+public class EchoServerBenchmark {
+  // one configuration per row, every row changes one thing compared to the defaults
+  private static final String[][] MATRIX = {
+    {},
+    {"executor=direct"},
+    {"executor=fixed:4"},
+    {"executor=fixed:32"},
+    {"executor=virtual"},
+    {"boss=1", "workers=1"},
+    {"boss=1", "workers=4"},
+    {"maxCalls=8"},
+    {"maxInbound=1024"},
+    {"keepAlive=1", "keepAliveTimeout=1"},
+    {"logSample=1"},
+    {"metricsPort=9465"},
+  };
+
+  public static void main(String[] args) throws Exception {
+    if (args.length != 4) {
+      System.out.println("Expected arguments: <port(int)> <channels(int)> <concurrency(int)> <seconds(int)>");
+      System.exit(1);
+    }
+    int port = 9099;
+    int channels = 4;
+    int concurrency = 64;
+    int seconds = 5;
+    try {
+      port = Integer.parseInt(args[0]);
+      channels = Integer.parseInt(args[1]);
+      concurrency = Integer.parseInt(args[2]);
+      seconds = Integer.parseInt(args[3]);
+    } catch (NumberFormatException nfe) {
+      System.out.println("[port|channels|concurrency|seconds] must be an integer");
+      System.exit(2);
+    }
+
+    // the first configuration would also pay for the JIT warm up, so run it once before
+    List<String> rows = new ArrayList<>();
+    for (int i = -1; i < MATRIX.length; i++) {
+      String[] config = MATRIX[Math.max(0, i)];
+      EchoServerOptions options = EchoServerOptions.parse(config, 0);
+      EchoServer server = new EchoServer(port, options);
+      server.start();
+      EchoLoadGenerator generator = new EchoLoadGenerator("localhost:" + port, channels,
+          "Hello there Server", concurrency, 0);
+      generator.setPrintIntervals(false);
+      try {
+        Histogram latencies = generator.run(seconds);
+        if (i < 0) {
+          continue;
+        }
+        rows.add(String.format("%-40s | %9.0f | %8d | %8d | %8d",
+            config.length == 0 ? "(defaults)" : String.join(" ", config), generator.getThroughput(),
+            latencies.getValueAtPercentile(50), latencies.getValueAtPercentile(99),
+            latencies.getValueAtPercentile(99.9)));
+      } finally {
+        generator.shutdown();
+        server.stop();
+      }
+    }
+
+    System.out.println();
+    System.out.println(String.format("%-40s | %9s | %8s | %8s | %8s",
+        "options", "calls/sec", "p50 us", "p99 us", "p99.9 us"));
+    for (String row : rows) {
+      System.out.println(row);
+    }
+  }
+}
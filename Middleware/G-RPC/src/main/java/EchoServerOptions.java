@@ -0,0 +1,149 @@
+import io.grpc.CompressorRegistry;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tuning options of the `EchoServer`, given as `name=value` arguments. Options
+ * that are not given keep the gRPC default.
+ *
+ * - executor=default|direct|fixed:N|virtual  where the service methods run. direct
+ *   runs them on the Netty event loop (fine for handlers that never block), fixed:N
+ *   uses a pool of N threads, virtual a new virtual thread per call (Java 21+)
+ * - boss=N, workers=N     Netty event loop threads accepting / serving connections
+ * - maxInbound=BYTES      largest request message the server accepts
+ * - keepAlive=SECONDS     ping idle connections after this time
+ * - keepAliveTimeout=SECONDS  close the connection if the ping is not answered
+ * - maxCalls=N            max concurrent calls per connection
+ * - logSample=N           log only every Nth call (see AsyncLog)
+ * - metricsPort=PORT      record call metrics and serve them on http://localhost:PORT/metrics
+ * - compression=gzip      compress responses to clients that accept it (see CompressionServerInterceptor)
+ * - compressMin=BYTES     only compress responses of at least this size
+ */
+class EchoServerOptions {
+  String executor = "default";
+  int bossThreads = 0; // 0 means gRPC default
+  int workerThreads = 0;
+  int maxInboundMessageSize = 0;
+  int keepAliveSeconds = 0;
+  int keepAliveTimeoutSeconds = 0;
+  int maxCallsPerConnection = 0;
+  int logSample = 1000;
+  int metricsPort = 0; // 0 means no metrics
+  String compression = null; // null means no compression
+  int compressMin = CompressionClientInterceptor.DEFAULT_MIN_SIZE;
+
+  // created in apply, the server has to shut them down again
+  private ExecutorService executorService;
+  private EventLoopGroup bossGroup;
+  private EventLoopGroup workerGroup;
+
+  static EchoServerOptions parse(String[] args, int from) {
+    EchoServerOptions options = new EchoServerOptions();
+    for (int i = from; i < args.length; i++) {
+      String[] option = args[i].split("=", 2);
+      if (option.length != 2) {
+        throw new IllegalArgumentException("Options must look like name=value: " + args[i]);
+      }
+      String value = option[1];
+      switch (option[0]) {
+        case "executor": options.executor = value; break;
+        case "boss": options.bossThreads = Integer.parseInt(value); break;
+        case "workers": options.workerThreads = Integer.parseInt(value); break;
+        case "maxInbound": options.maxInboundMessageSize = Integer.parseInt(value); break;
+        case "keepAlive": options.keepAliveSeconds = Integer.parseInt(value); break;
+        case "keepAliveTimeout": options.keepAliveTimeoutSeconds = Integer.parseInt(value); break;
+        case "maxCalls": options.maxCallsPerConnection = Integer.parseInt(value); break;
+        case "logSample": options.logSample = Integer.parseInt(value); break;
+        case "metricsPort": options.metricsPort = Integer.parseInt(value); break;
+        case "compression":
+          if (CompressorRegistry.getDefaultInstance().lookupCompressor(value) == null) {
+            throw new IllegalArgumentException("Unknown compression: " + value);
+          }
+          options.compression = value;
+          break;
+        case "compressMin": options.compressMin = Integer.parseInt(value); break;
+        default: throw new IllegalArgumentException("Unknown option: " + option[0]);
+      }
+    }
+    return options;
+  }
+
+  /** Sets all given options on the builder. */
+  void apply(NettyServerBuilder builder) {
+    if (executor.equals("direct")) {
+      builder.directExecutor();
+    } else if (executor.startsWith("fixed:")) {
+      executorService = Executors.newFixedThreadPool(Integer.parseInt(executor.substring(6)));
+      builder.executor(executorService);
+    } else if (executor.equals("virtual")) {
+      executorService = newVirtualThreadExecutor();
+      if (executorService != null) {
+        builder.executor(executorService);
+      }
+    } else if (!executor.equals("default")) {
+      throw new IllegalArgumentException("Unknown executor: " + executor);
+    }
+
+    // Netty wants boss group, worker group and channel type all set or none
+    if (bossThreads > 0 || workerThreads > 0) {
+      bossGroup = new NioEventLoopGroup(Math.max(1, bossThreads));
+      workerGroup = new NioEventLoopGroup(workerThreads); // 0 is Netty's default of 2 * cores
+      builder.bossEventLoopGroup(bossGroup)
+          .workerEventLoopGroup(workerGroup)
+          .channelType(NioServerSocketChannel.class);
+    }
+    if (maxInboundMessageSize > 0) {
+      builder.maxInboundMessageSize(maxInboundMessageSize);
+    }
+    if (keepAliveSeconds > 0) {
+      builder.keepAliveTime(keepAliveSeconds, TimeUnit.SECONDS);
+    }
+    if (keepAliveTimeoutSeconds > 0) {
+      builder.keepAliveTimeout(keepAliveTimeoutSeconds, TimeUnit.SECONDS);
+    }
+    if (maxCallsPerConnection > 0) {
+      builder.maxConcurrentCallsPerConnection(maxCallsPerConnection);
+    }
+    AsyncLog.setSampleRate(logSample);
+  }
+
+  /* Executors.newVirtualThreadPerTaskExecutor only exists on Java 21+ */
+  private static ExecutorService newVirtualThreadExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    } catch (ReflectiveOperationException e) {
+      System.out.println("Virtual threads need Java 21, using the default executor");
+      return null;
+    }
+  }
+
+  void shutdown() {
+    if (executorService != null) {
+      executorService.shutdown();
+    }
+    if (bossGroup != null) {
+      bossGroup.shutdownGracefully();
+      workerGroup.shutdownGracefully();
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder text = new StringBuilder("executor=" + executor);
+    if (bossThreads > 0) text.append(" boss=").append(bossThreads);
+    if (workerThreads > 0) text.append(" workers=").append(workerThreads);
+    if (maxInboundMessageSize > 0) text.append(" maxInbound=").append(maxInboundMessageSize);
+    if (keepAliveSeconds > 0) text.append(" keepAlive=").append(keepAliveSeconds);
+    if (keepAliveTimeoutSeconds > 0) text.append(" keepAliveTimeout=").append(keepAliveTimeoutSeconds);
+    if (maxCallsPerConnection > 0) text.append(" maxCalls=").append(maxCallsPerConnection);
+    text.append(" logSample=").append(logSample);
+    if (metricsPort > 0) text.append(" metricsPort=").append(metricsPort);
+    if (compression != null) text.append(" compression=").append(compression).append(" compressMin=").append(compressMin);
+    return text.toString();
+  }
+}
@@ -0,0 +1,58 @@
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * Client side of `MetricsServerInterceptor`: records every call made through the
+ * channel in `RpcMetrics`, with the latency as the client sees it.
+ */
+class MetricsClientInterceptor implements ClientInterceptor {
+  private final RpcMetrics metrics;
+
+  MetricsClientInterceptor(RpcMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> descriptor,
+      CallOptions callOptions, Channel next) {
+    final RpcMetrics.MethodMetrics method = metrics.method(descriptor.getFullMethodName());
+
+    return new ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT>(
+        next.newCall(descriptor, callOptions)) {
+      private long start;
+
+      @Override
+      public void start(Listener<RespT> responseListener, Metadata headers) {
+        start = System.nanoTime();
+        method.start();
+        super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(responseListener) {
+          @Override
+          public void onMessage(RespT message) {
+            method.received.record(MetricsServerInterceptor.size(message));
+            super.onMessage(message);
+          }
+
+          @Override
+          public void onClose(Status status, Metadata trailers) {
+            // gRPC calls onClose exactly once, also for cancelled calls
+            method.finish(status.getCode(), System.nanoTime() - start);
+            super.onClose(status, trailers);
+          }
+        }, headers);
+      }
+
+      @Override
+      public void sendMessage(ReqT message) {
+        method.sent.record(MetricsServerInterceptor.size(message));
+        super.sendMessage(message);
+      }
+    };
+  }
+}
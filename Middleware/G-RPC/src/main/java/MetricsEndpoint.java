@@ -0,0 +1,35 @@
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves `RpcMetrics` at http://localhost:PORT/metrics in the Prometheus text
+ * format, with the HTTP server that comes with the JDK.
+ */
+class MetricsEndpoint {
+  private final HttpServer server;
+
+  MetricsEndpoint(int port, RpcMetrics... metrics) throws IOException {
+    server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+    server.createContext("/metrics", exchange -> {
+      StringBuilder text = new StringBuilder();
+      for (RpcMetrics m : metrics) {
+        text.append(m.toPrometheus());
+      }
+      byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+    System.out.println("Metrics on http://localhost:" + port + "/metrics");
+  }
+
+  void stop() {
+    server.stop(0);
+  }
+}
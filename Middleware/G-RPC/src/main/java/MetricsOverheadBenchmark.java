@@ -0,0 +1,70 @@
+import java.util.Arrays;
+
+/**
+ * Measures what the metrics interceptors cost. The same closed loop load runs
+ * against the server without interceptors and with the server and the client
+ * interceptor, several rounds in turns so that noise on the machine hits both the
+ * same. Prints the median throughput of both and the difference in percent, plus
+ * the metrics the client side collected.
+ */
+public class MetricsOverheadBenchmark {
+  public static void main(String[] args) throws Exception {
+    if (args.length != 5) {
+      System.out.println("Expected arguments: <port(int)> <channels(int)> <concurrency(int)> <seconds(int)> <rounds(int)>");
+      System.exit(1);
+    }
+    int port = 9099;
+    int channels = 4;
+    int concurrency = 64;
+    int seconds = 5;
+    int rounds = 3;
+    try {
+      port = Integer.parseInt(args[0]);
+      channels = Integer.parseInt(args[1]);
+      concurrency = Integer.parseInt(args[2]);
+      seconds = Integer.parseInt(args[3]);
+      rounds = Integer.parseInt(args[4]);
+    } catch (NumberFormatException nfe) {
+      System.out.println("[port|channels|concurrency|seconds|rounds] must be an integer");
+      System.exit(2);
+    }
+
+    RpcMetrics clientMetrics = new RpcMetrics("grpc_client");
+    // warm up once, then take turns
+    run(port, channels, concurrency, seconds, false, clientMetrics);
+    double[] plain = new double[rounds];
+    double[] metered = new double[rounds];
+    for (int i = 0; i < rounds; i++) {
+      plain[i] = run(port, channels, concurrency, seconds, false, clientMetrics);
+      metered[i] = run(port, channels, concurrency, seconds, true, clientMetrics);
+    }
+    Arrays.sort(plain);
+    Arrays.sort(metered);
+    double without = plain[rounds / 2];
+    double with = metered[rounds / 2];
+
+    System.out.println();
+    System.out.println(clientMetrics.toPrometheus());
+    System.out.printf("Median throughput without interceptors: %.0f calls/sec%n", without);
+    System.out.printf("Median throughput with interceptors:    %.0f calls/sec%n", with);
+    System.out.printf("Overhead: %.1f%%%n", (without - with) / without * 100);
+  }
+
+  private static double run(int port, int channels, int concurrency, int seconds, boolean metrics,
+      RpcMetrics clientMetrics) throws Exception {
+    EchoServerOptions options = EchoServerOptions.parse(
+        metrics ? new String[] {"metricsPort=" + (port + 1)} : new String[0], 0);
+    EchoServer server = new EchoServer(port, options);
+    server.start();
+    EchoLoadGenerator generator = new EchoLoadGenerator("localhost:" + port, channels,
+        "Hello there Server", concurrency, 0, metrics ? new MetricsClientInterceptor(clientMetrics) : null);
+    generator.setPrintIntervals(false);
+    try {
+      generator.run(seconds);
+      return generator.getThroughput();
+    } finally {
+      generator.shutdown();
+      server.stop();
+    }
+  }
+}
@@ -0,0 +1,89 @@
+import io.grpc.ForwardingServerCall;
+import io.grpc.ForwardingServerCallListener;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import com.google.protobuf.MessageLite;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Records every call of the service it is added to in `RpcMetrics`: started and
+ * in-flight calls, latency, message sizes and the status code it ended with.
+ *
+ * Per call there is one wrapper for the call and one for its listener, per message
+ * only counters are updated. The message size is the protobuf serialized size,
+ * which protobuf calculates for sending anyway and caches in the message.
+ */
+class MetricsServerInterceptor implements ServerInterceptor {
+  private final RpcMetrics metrics;
+
+  MetricsServerInterceptor(RpcMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  @Override
+  public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+      Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+    final RpcMetrics.MethodMetrics method =
+        metrics.method(call.getMethodDescriptor().getFullMethodName());
+    final MetricsCall<ReqT, RespT> metricsCall = new MetricsCall<>(call, method);
+    method.start();
+
+    return new ForwardingServerCallListener.SimpleForwardingServerCallListener<ReqT>(
+        next.startCall(metricsCall, headers)) {
+      @Override
+      public void onMessage(ReqT message) {
+        method.received.record(size(message));
+        super.onMessage(message);
+      }
+
+      @Override
+      public void onCancel() {
+        // the client gave up or the deadline passed, close is not called then
+        metricsCall.finish(Status.Code.CANCELLED);
+        super.onCancel();
+      }
+    };
+  }
+
+  static long size(Object message) {
+    return message instanceof MessageLite ? ((MessageLite) message).getSerializedSize() : 0;
+  }
+
+  private static class MetricsCall<ReqT, RespT> extends ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT> {
+    // MetricsCall.class has no type arguments, the cast gives the updater its type
+    @SuppressWarnings("unchecked")
+    private static final AtomicIntegerFieldUpdater<MetricsCall<?, ?>> FINISHED =
+        AtomicIntegerFieldUpdater.newUpdater((Class<MetricsCall<?, ?>>) (Class<?>) MetricsCall.class, "finished");
+
+    private final RpcMetrics.MethodMetrics method;
+    private final long start = System.nanoTime();
+    private volatile int finished = 0;
+
+    MetricsCall(ServerCall<ReqT, RespT> call, RpcMetrics.MethodMetrics method) {
+      super(call);
+      this.method = method;
+    }
+
+    @Override
+    public void sendMessage(RespT message) {
+      method.sent.record(size(message));
+      super.sendMessage(message);
+    }
+
+    @Override
+    public void close(Status status, Metadata trailers) {
+      finish(status.getCode());
+      super.close(status, trailers);
+    }
+
+    /* close and cancel can both happen, only count the first one */
+    void finish(Status.Code code) {
+      if (FINISHED.compareAndSet(this, 0, 1)) {
+        method.finish(code, System.nanoTime() - start);
+      }
+    }
+  }
+}
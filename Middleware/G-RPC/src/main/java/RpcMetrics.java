@@ -0,0 +1,159 @@
+import io.grpc.Status;
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-method call metrics, filled by `MetricsServerInterceptor` and
+ * `MetricsClientInterceptor` and printed in the Prometheus text format.
+ *
+ * Everything the interceptors touch while a call runs is a plain counter
+ * (`LongAdder`/`AtomicLong`) in arrays that are created once per method, so
+ * recording is lock free and does not allocate. The only map lookup is by the method
+ * name string gRPC already has.
+ */
+class RpcMetrics {
+  // upper bounds of the latency buckets in microseconds, the last bucket is +Inf
+  static final long[] LATENCY_BOUNDS_US = {
+    50, 100, 250, 500, 1_000, 2_500, 5_000, 10_000, 25_000, 50_000,
+    100_000, 250_000, 500_000, 1_000_000, 2_500_000, 5_000_000, 10_000_000
+  };
+  // upper bounds of the message size buckets in bytes
+  static final long[] SIZE_BOUNDS = {
+    16, 64, 256, 1_024, 4_096, 16_384, 65_536, 262_144, 1_048_576, 4_194_304
+  };
+  private static final Status.Code[] CODES = Status.Code.values();
+
+  private final String prefix;
+  private final Map<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+
+  /** prefix is the start of every metric name, e.g. grpc_server. */
+  RpcMetrics(String prefix) {
+    this.prefix = prefix;
+  }
+
+  /** The metrics of one method, created on its first call. */
+  MethodMetrics method(String fullMethodName) {
+    MethodMetrics metrics = methods.get(fullMethodName);
+    if (metrics == null) {
+      methods.putIfAbsent(fullMethodName, new MethodMetrics());
+      metrics = methods.get(fullMethodName);
+    }
+    return metrics;
+  }
+
+  static class MethodMetrics {
+    final LongAdder started = new LongAdder();
+    final AtomicLong inFlight = new AtomicLong();
+    final LongAdder[] handled = counters(CODES.length);
+    final Buckets latency = new Buckets(LATENCY_BOUNDS_US);
+    final Buckets received = new Buckets(SIZE_BOUNDS);
+    final Buckets sent = new Buckets(SIZE_BOUNDS);
+
+    void start() {
+      started.increment();
+      inFlight.incrementAndGet();
+    }
+
+    void finish(Status.Code code, long nanos) {
+      inFlight.decrementAndGet();
+      handled[code.value()].increment();
+      latency.record(nanos / 1000);
+    }
+  }
+
+  /** A histogram with fixed buckets like Prometheus uses them. */
+  static class Buckets {
+    final long[] bounds;
+    final LongAdder[] counts; // counts[i] is for values <= bounds[i], the last one for the rest
+    final LongAdder sum = new LongAdder();
+
+    Buckets(long[] bounds) {
+      this.bounds = bounds;
+      this.counts = counters(bounds.length + 1);
+    }
+
+    void record(long value) {
+      int i = 0;
+      while (i < bounds.length && value > bounds[i]) {
+        i++;
+      }
+      counts[i].increment();
+      sum.add(value);
+    }
+  }
+
+  private static LongAdder[] counters(int size) {
+    LongAdder[] counters = new LongAdder[size];
+    for (int i = 0; i < size; i++) {
+      counters[i] = new LongAdder();
+    }
+    return counters;
+  }
+
+  /** All metrics in the Prometheus text exposition format. */
+  String toPrometheus() {
+    StringBuilder out = new StringBuilder();
+    out.append("# TYPE ").append(prefix).append("_started_total counter\n");
+    for (Map.Entry<String, MethodMetrics> entry : methods.entrySet()) {
+      line(out, "_started_total", labels(entry.getKey()), entry.getValue().started.sum());
+    }
+    out.append("# TYPE ").append(prefix).append("_in_flight gauge\n");
+    for (Map.Entry<String, MethodMetrics> entry : methods.entrySet()) {
+      line(out, "_in_flight", labels(entry.getKey()), entry.getValue().inFlight.get());
+    }
+    out.append("# TYPE ").append(prefix).append("_handled_total counter\n");
+    for (Map.Entry<String, MethodMetrics> entry : methods.entrySet()) {
+      LongAdder[] handled = entry.getValue().handled;
+      for (int i = 0; i < handled.length; i++) {
+        long count = handled[i].sum();
+        if (count > 0) {
+          line(out, "_handled_total", labels(entry.getKey()) + ",grpc_code=\"" + CODES[i] + "\"", count);
+        }
+      }
+    }
+    histogram(out, "_handling_seconds", 6, m -> m.latency);
+    histogram(out, "_msg_received_bytes", 0, m -> m.received);
+    histogram(out, "_msg_sent_bytes", 0, m -> m.sent);
+    return out.toString();
+  }
+
+  private interface Select {
+    Buckets of(MethodMetrics metrics);
+  }
+
+  /* shift moves the decimal point from the recorded unit to the exported one, 6 for microseconds to seconds */
+  private void histogram(StringBuilder out, String name, int shift, Select select) {
+    out.append("# TYPE ").append(prefix).append(name).append(" histogram\n");
+    for (Map.Entry<String, MethodMetrics> entry : methods.entrySet()) {
+      Buckets buckets = select.of(entry.getValue());
+      String labels = labels(entry.getKey());
+      long cumulative = 0;
+      for (int i = 0; i < buckets.counts.length; i++) {
+        cumulative += buckets.counts[i].sum();
+        String le = i < buckets.bounds.length ? format(buckets.bounds[i], shift) : "+Inf";
+        line(out, name + "_bucket", labels + ",le=\"" + le + "\"", cumulative);
+      }
+      out.append(prefix).append(name).append("_sum{").append(labels).append("} ")
+          .append(format(buckets.sum.sum(), shift)).append('\n');
+      line(out, name + "_count", labels, cumulative);
+    }
+  }
+
+  private void line(StringBuilder out, String name, String labels, long value) {
+    out.append(prefix).append(name).append('{').append(labels).append("} ").append(value).append('\n');
+  }
+
+  /* echomessage.Echo/parrot -> grpc_service="echomessage.Echo",grpc_method="parrot" */
+  private static String labels(String fullMethodName) {
+    int slash = fullMethodName.lastIndexOf('/');
+    return "grpc_service=\"" + fullMethodName.substring(0, slash)
+        + "\",grpc_method=\"" + fullMethodName.substring(slash + 1) + "\"";
+  }
+
+  private static String format(long value, int shift) {
+    return BigDecimal.valueOf(value).movePointLeft(shift).stripTrailingZeros().toPlainString();
+  }
+}
@@ -15,6 +15,23 @@ class Echoer(rpc.EchoServicer):
         print("Received from client: " + request.message)
         return em.ServerResponse(message='%s' % request.message)
 
+    def parrotStream(self, request, context):
+        for _ in range(request.repeat):
+            yield em.ServerResponse(message=request.message)
+
+    def parrotCollect(self, request_iterator, context):
+        count = 0
+        last = ''
+        for request in request_iterator:
+            count += 1
+            last = request.message
+        print("Received {} messages from client".format(count))
+        return em.ServerResponse(message=last, count=count)
+
+    def parrotChat(self, request_iterator, context):
+        for request in request_iterator:
+            yield em.ServerResponse(message=request.message)
+
 
 class EchoServer(object):
     def __init__(self, port):
@@ -1,4 +1,5 @@
-import org.apache.activemq.ActiveMQConnectionFactory;
+import java.util.ArrayList;
+import java.util.List;
  
 import javax.jms.Connection;
 import javax.jms.DeliveryMode;
@@ -13,8 +14,13 @@ import javax.jms.TextMessage;
  
 /**
  * Hello world!
+ *
+ * All producer and consumer threads take their connection from one pool
+ * (JMSHelperActiveMQ.getPooledConnection), so the dozens of threads share a few
+ * real connections instead of opening and closing one each.
  */
 public class App {
+    private static final List<Thread> threads = new ArrayList<>();
  
     public static void main(String[] args) throws Exception {
         if (args.length != 3) {
@@ -59,12 +65,20 @@ public class App {
         thread(new HelloWorldConsumer(jmsURL, queueName, sleepDelay), false);
         thread(new HelloWorldConsumer(jmsURL, queueName, sleepDelay), false);
         thread(new HelloWorldProducer(jmsURL, queueName), false);
+
+        // the pool keeps its connections open, close it once all threads are done
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        System.out.println("Pool: " + JMSHelperActiveMQ.getPool(jmsURL).stats());
+        JMSHelperActiveMQ.closePools();
     }
  
     public static void thread(Runnable runnable, boolean daemon) {
         Thread brokerThread = new Thread(runnable);
         brokerThread.setDaemon(daemon);
         brokerThread.start();
+        threads.add(brokerThread);
     }
  
     public static class HelloWorldProducer implements Runnable {
@@ -76,11 +90,8 @@ public class App {
         }
         public void run() {
             try {
-                // Create a ConnectionFactory
-                ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(jmsURL);
- 
-                // Create a Connection
-                Connection connection = connectionFactory.createConnection();
+                // Take a Connection from the pool
+                Connection connection = JMSHelperActiveMQ.getPooledConnection(jmsURL);
                 connection.start();
  
                 // Create a Session
@@ -101,7 +112,7 @@ public class App {
                 System.out.println("Sent message: "+ message.hashCode() + " : " + Thread.currentThread().getName());
                 producer.send(message);
  
-                // Clean up
+                // Clean up, closing gives session and connection back to the pool
                 session.close();
                 connection.close();
             }
@@ -124,11 +135,8 @@ public class App {
         public void run() {
             try {
  
-                // Create a ConnectionFactory
-                ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory("vm://localhost");
- 
-                // Create a Connection
-                Connection connection = connectionFactory.createConnection();
+                // Take a Connection from the pool
+                Connection connection = JMSHelperActiveMQ.getPooledConnection(jmsURL);
                 connection.start();
  
                 connection.setExceptionListener(this);
@@ -0,0 +1,84 @@
+import java.nio.charset.StandardCharsets;
+import javax.jms.*;
+
+/**
+   Reads what BinaryWriter wrote. Like the writer it keeps its array and reuses it
+   for the next message. Reading past the end or a broken varint throws a
+   MessageFormatException, the JMS exception for a body that cannot be read.
+ */
+public class BinaryReader {
+    // reused by read(), wrap() reads from the array of the caller instead
+    private byte[] own;
+    private byte[] buffer;
+    private int position = 0;
+    private int limit = 0;
+
+    public BinaryReader(int capacity) {
+        own = new byte[Math.max(16, capacity)];
+        buffer = own;
+    }
+
+    /** Copies the body of the message into the buffer and starts reading at its beginning. */
+    public BinaryReader read(BytesMessage message) throws JMSException {
+        int length = (int) message.getBodyLength();
+        if (length > own.length) {
+            own = new byte[Math.max(length, own.length * 2)];
+        }
+        message.readBytes(own, length);
+        buffer = own;
+        position = 0;
+        limit = length;
+        return this;
+    }
+
+    /** Reads the first length bytes of data (without copying them). */
+    public BinaryReader wrap(byte[] data, int length) {
+        buffer = data;
+        position = 0;
+        limit = length;
+        return this;
+    }
+
+    private void need(int bytes) throws MessageFormatException {
+        if (limit - position < bytes) {
+            throw new MessageFormatException("Message too short, need " + bytes + " more bytes at " + position);
+        }
+    }
+
+    public long readVarint() throws MessageFormatException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            need(1);
+            byte b = buffer[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new MessageFormatException("Varint longer than 10 bytes at " + position);
+    }
+
+    public long readSigned() throws MessageFormatException {
+        long value = readVarint();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public double readDouble() throws MessageFormatException {
+        need(8);
+        long bits = 0;
+        for (int i = 0; i < 8; i++) {
+            bits |= (long) (buffer[position++] & 0xFF) << (8 * i);
+        }
+        return Double.longBitsToDouble(bits);
+    }
+
+    public String readString() throws MessageFormatException {
+        long length = readVarint();
+        if (length < 0 || length > limit - position) {
+            throw new MessageFormatException("String of " + length + " bytes does not fit at " + position);
+        }
+        String value = new String(buffer, position, (int) length, StandardCharsets.UTF_8);
+        position += (int) length;
+        return value;
+    }
+}
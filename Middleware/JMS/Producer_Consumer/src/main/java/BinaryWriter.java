@@ -0,0 +1,105 @@
+/**
+   Writes values in a compact binary format into a byte array that is reused for
+   every message: reset() only sets the size back to 0, the array stays and only
+   grows when a message does not fit.
+
+   - integers are varints: 7 bits per byte, the high bit says "more bytes follow",
+     so small numbers take 1 byte instead of 4 or 8
+   - signed integers are zig-zag encoded first (0, -1, 1, -2 ... become 0, 1, 2, 3 ...)
+     so small negative numbers are small too
+   - strings are their UTF-8 length as varint followed by the UTF-8 bytes
+   - doubles are 8 bytes, little endian
+ */
+public class BinaryWriter {
+    private byte[] buffer;
+    private int size = 0;
+
+    public BinaryWriter(int capacity) {
+        buffer = new byte[Math.max(16, capacity)];
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** The array with the data, only the first size() bytes are valid. */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    private void ensure(int more) {
+        if (size + more > buffer.length) {
+            byte[] bigger = new byte[Math.max(size + more, buffer.length * 2)];
+            System.arraycopy(buffer, 0, bigger, 0, size);
+            buffer = bigger;
+        }
+    }
+
+    public BinaryWriter writeVarint(long value) {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+        return this;
+    }
+
+    public BinaryWriter writeSigned(long value) {
+        return writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    public BinaryWriter writeDouble(double value) {
+        ensure(8);
+        long bits = Double.doubleToLongBits(value);
+        for (int i = 0; i < 8; i++) {
+            buffer[size++] = (byte) (bits >>> (8 * i));
+        }
+        return this;
+    }
+
+    // encodes straight into the buffer, String.getBytes would create a new array every time
+    public BinaryWriter writeString(String value) {
+        int length = value.length();
+        int utf8Length = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                utf8Length += 1;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                utf8Length += 4;
+                i++;
+            } else {
+                utf8Length += 3;
+            }
+        }
+        writeVarint(utf8Length);
+        ensure(utf8Length);
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buffer[size++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[size++] = (byte) (0xC0 | (c >> 6));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[size++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else {
+                buffer[size++] = (byte) (0xE0 | (c >> 12));
+                buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return this;
+    }
+}
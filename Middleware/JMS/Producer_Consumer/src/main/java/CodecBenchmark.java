@@ -0,0 +1,182 @@
+import java.util.Arrays;
+import javax.jms.*;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.TransportConnector;
+
+/**
+   Event as JSON in a TextMessage compared to binary in a BytesMessage (TypedMessages).
+
+   1. CPU: encode and decode cost per event and the size of the payload, no broker.
+   2. Broker: a producer sends the events to a broker inside this JVM over TCP (so
+      the messages really get marshalled) and a consumer thread receives and
+      decodes them. Prints the msgs/sec from the first send to the last decode.
+ */
+public class CodecBenchmark {
+    private static final int SAMPLES = 1000;
+
+    interface Format {
+        Message encode(Session session, Event event) throws JMSException;
+        Event decode(Message message) throws JMSException;
+    }
+
+    private static final Format JSON = new Format() {
+        public Message encode(Session session, Event event) throws JMSException {
+            return session.createTextMessage(event.toJSON());
+        }
+
+        public Event decode(Message message) throws JMSException {
+            return Event.fromJSON(((TextMessage) message).getText());
+        }
+    };
+
+    // one per thread, see TypedMessages
+    private static Format binary() {
+        TypedMessages typed = new TypedMessages().register(new EventCodec());
+        return new Format() {
+            public Message encode(Session session, Event event) throws JMSException {
+                return typed.toMessage(session, event);
+            }
+
+            public Event decode(Message message) throws JMSException {
+                return typed.fromMessage((BytesMessage) message, Event.class);
+            }
+        };
+    }
+
+    private static void cpu(int count, boolean print) throws JMSException {
+        Event[] events = new Event[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++) {
+            events[i] = Event.sample(i);
+        }
+
+        // JSON
+        String[] texts = new String[SAMPLES];
+        long bytes = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            texts[i % SAMPLES] = events[i % SAMPLES].toJSON();
+        }
+        double jsonEncode = (System.nanoTime() - start) / (double) count;
+        int checked = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            checked += Event.fromJSON(texts[i % SAMPLES]).tags.size();
+        }
+        double jsonDecode = (System.nanoTime() - start) / (double) count;
+        for (String text : texts) {
+            bytes += text.length(); // ASCII only, so characters = UTF-8 bytes
+        }
+        double jsonSize = bytes / (double) SAMPLES;
+
+        // binary, the writer is reused, so every encoded event is copied out for decoding
+        TypedMessages typed = new TypedMessages().register(new EventCodec());
+        byte[][] encoded = new byte[SAMPLES][];
+        for (int i = 0; i < SAMPLES; i++) {
+            BinaryWriter out = typed.encode(events[i]);
+            encoded[i] = Arrays.copyOf(out.buffer(), out.size());
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            checked += typed.encode(events[i % SAMPLES]).size();
+        }
+        double binaryEncode = (System.nanoTime() - start) / (double) count;
+        BinaryReader reader = new BinaryReader(256);
+        start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            byte[] data = encoded[i % SAMPLES];
+            checked += ((Event) typed.decode(reader.wrap(data, data.length))).tags.size();
+        }
+        double binaryDecode = (System.nanoTime() - start) / (double) count;
+        bytes = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            bytes += encoded[i].length;
+            if (!typed.decode(reader.wrap(encoded[i], encoded[i].length)).equals(events[i])) {
+                throw new MessageFormatException("Binary round trip changed " + events[i]);
+            }
+        }
+        double binarySize = bytes / (double) SAMPLES;
+
+        if (print) {
+            System.out.printf("json   %6.0f bytes, encode %6.0f ns, decode %6.0f ns%n", jsonSize, jsonEncode, jsonDecode);
+            System.out.printf("binary %6.0f bytes, encode %6.0f ns, decode %6.0f ns%n", binarySize, binaryEncode, binaryDecode);
+            System.out.printf("binary is %.1f times smaller, encodes %.1f and decodes %.1f times faster (check %d)%n",
+                jsonSize / binarySize, jsonEncode / binaryEncode, jsonDecode / binaryDecode, checked);
+        }
+    }
+
+    private static double broker(String label, String jmsURL, String queueName, int count,
+                                 Format producerFormat, Format consumerFormat) throws Exception {
+        Connection connection = JMSHelperActiveMQ.getJMSConnection(jmsURL);
+        connection.start();
+        Session consumerSession = connection.createSession(false, Session.DUPS_OK_ACKNOWLEDGE);
+        MessageConsumer consumer = consumerSession.createConsumer(consumerSession.createQueue(queueName));
+        long[] received = {0};
+        Thread receiver = new Thread(() -> {
+            try {
+                while (received[0] < count) {
+                    Message message = consumer.receive(5000);
+                    if (message == null) {
+                        break;
+                    }
+                    consumerFormat.decode(message);
+                    received[0]++;
+                }
+            } catch (JMSException e) {
+                System.out.println("Caught: " + e);
+            }
+        });
+        receiver.start();
+
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageProducer producer = session.createProducer(session.createQueue(queueName));
+        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            producer.send(producerFormat.encode(session, Event.sample(i)));
+        }
+        receiver.join();
+        double rate = received[0] / ((System.nanoTime() - start) / 1e9);
+        connection.close();
+        if (label != null) {
+            System.out.printf("%-6s %8d messages: %8.0f msgs/sec%n", label, received[0], rate);
+        }
+        return rate;
+    }
+
+    public static void main(String args[]) throws Exception {
+      if (args.length != 1) {
+        System.out.println("Expected arguments: <messages(int)>");
+        System.exit(1);
+      }
+      int messages = 10000;
+      try {
+        messages = Integer.parseInt(args[0]);
+      } catch (NumberFormatException nfe) {
+        System.out.println("[messages] must be an integer");
+        System.exit(2);
+      }
+
+      System.out.println("Encode/decode of one event:");
+      cpu(Math.max(SAMPLES, 10 * messages), false); // warm up the JIT
+      cpu(Math.max(SAMPLES, 10 * messages), true);
+
+      BrokerService broker = new BrokerService();
+      broker.setBrokerName("codec");
+      broker.setPersistent(false);
+      broker.setUseJmx(false);
+      TransportConnector connector = broker.addConnector("tcp://localhost:0"); // any free port
+      broker.start();
+      String jmsURL = connector.getPublishableConnectString();
+      try {
+          System.out.println("Through the broker:");
+          int warmUp = Math.max(1000, messages / 10);
+          broker(null, jmsURL, "CodecJSON", warmUp, JSON, JSON);
+          broker(null, jmsURL, "CodecBinary", warmUp, binary(), binary());
+          double json = broker("json", jmsURL, "CodecJSON", messages, JSON, JSON);
+          double bin = broker("binary", jmsURL, "CodecBinary", messages, binary(), binary());
+          System.out.printf("binary is %.2f times faster through the broker%n", bin / json);
+      } finally {
+          broker.stop();
+      }
+    }
+}
@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+   A structured event as example payload. It can be sent as JSON text in a
+   TextMessage (toJSON/fromJSON) or binary in a BytesMessage (EventCodec).
+ */
+public class Event {
+    public final long id;
+    public final long timestamp;
+    public final String type;
+    public final String user;
+    public final double amount;
+    public final List<String> tags;
+
+    public Event(long id, long timestamp, String type, String user, double amount, List<String> tags) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.type = type;
+        this.user = user;
+        this.amount = amount;
+        this.tags = tags;
+    }
+
+    /** An event with some made up values, e.g. for benchmarks. */
+    public static Event sample(long id) {
+        return new Event(id, System.currentTimeMillis(), id % 3 == 0 ? "order" : "payment", "user" + id % 1000,
+            (id % 10000) / 100.0, Arrays.asList("web", id % 2 == 0 ? "mobile" : "desktop"));
+    }
+
+    public String toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("id", id);
+        json.put("timestamp", timestamp);
+        json.put("type", type);
+        json.put("user", user);
+        json.put("amount", amount);
+        json.put("tags", new JSONArray(tags));
+        return json.toString();
+    }
+
+    public static Event fromJSON(String text) {
+        JSONObject json = new JSONObject(text);
+        JSONArray array = json.getJSONArray("tags");
+        List<String> tags = new ArrayList<>(array.length());
+        for (int i = 0; i < array.length(); i++) {
+            tags.add(array.getString(i));
+        }
+        return new Event(json.getLong("id"), json.getLong("timestamp"), json.getString("type"),
+            json.getString("user"), json.getDouble("amount"), tags);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Event)) {
+            return false;
+        }
+        Event event = (Event) other;
+        return id == event.id && timestamp == event.timestamp && type.equals(event.type)
+            && user.equals(event.user) && amount == event.amount && tags.equals(event.tags);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(id, timestamp, type, user, amount, tags);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Event %d %s of %s: %.2f %s", id, type, user, amount, tags);
+    }
+}
@@ -0,0 +1,50 @@
+import java.util.ArrayList;
+import java.util.List;
+import javax.jms.*;
+
+/**
+   Binary layout of Event, schema id 1:
+   id (varint), timestamp (varint), type, user (strings), amount (double),
+   number of tags (varint) and the tags (strings).
+   No field names are sent, both sides know the order from the schema id.
+ */
+public class EventCodec implements MessageCodec<Event> {
+    public static final int SCHEMA_ID = 1;
+
+    public int schemaId() {
+        return SCHEMA_ID;
+    }
+
+    public Class<Event> type() {
+        return Event.class;
+    }
+
+    public void write(Event event, BinaryWriter out) {
+        out.writeVarint(event.id)
+            .writeVarint(event.timestamp)
+            .writeString(event.type)
+            .writeString(event.user)
+            .writeDouble(event.amount)
+            .writeVarint(event.tags.size());
+        for (String tag : event.tags) {
+            out.writeString(tag);
+        }
+    }
+
+    public Event read(BinaryReader in) throws JMSException {
+        long id = in.readVarint();
+        long timestamp = in.readVarint();
+        String type = in.readString();
+        String user = in.readString();
+        double amount = in.readDouble();
+        int count = (int) in.readVarint();
+        if (count < 0 || count > 1000) {
+            throw new MessageFormatException("Unexpected number of tags: " + count);
+        }
+        List<String> tags = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            tags.add(in.readString());
+        }
+        return new Event(id, timestamp, type, user, amount, tags);
+    }
+}
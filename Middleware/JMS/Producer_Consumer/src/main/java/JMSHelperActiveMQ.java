@@ -1,14 +1,63 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.apache.activemq.ActiveMQConnection;
 import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
 import javax.jms.*;
 
 // This is the ActiveMQ version
 public class JMSHelperActiveMQ {
+    // pool settings for getPooledConnection, change them before the first call
+    public static int maxConnections = 8;
+    public static int maxSessionsPerConnection = 500;
+    public static int idleTimeoutMillis = 30000;
 
+    // one pool per broker URL, shared by all threads
+    private static final Map<String, MeteredConnectionPool> pools = new ConcurrentHashMap<>();
+
+    /**
+     * A new connection every time, with its own TCP connection and handshake.
+     * Fine for a program that sends one message, expensive for many.
+     */
     public static Connection getJMSConnection(String jmsURL) throws Exception {
 	// Create a ConnectionFactory
 	ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(jmsURL);
 	return connectionFactory.createConnection();
     }
-}
 
+    /**
+     * A connection from the pool for jmsURL. Use it like any connection, close()
+     * gives it back to the pool instead of closing it, and so does closing its
+     * sessions and producers.
+     */
+    public static Connection getPooledConnection(String jmsURL) throws JMSException {
+	return getPool(jmsURL).createConnection();
+    }
+
+    public static MeteredConnectionPool getPool(String jmsURL) {
+	return pools.computeIfAbsent(jmsURL, url ->
+	    new MeteredConnectionPool(url, maxConnections, maxSessionsPerConnection, idleTimeoutMillis));
+    }
+
+    /** Closes all pooled connections, call it before the program ends. */
+    public static void closePools() {
+	for (MeteredConnectionPool pool : pools.values()) {
+	    pool.stop();
+	}
+	pools.clear();
+    }
+
+    /**
+     * Starts a broker inside this JVM that keeps the messages in memory, so the
+     * examples also run without an installed ActiveMQ. Connect to it with
+     * "vm://" + name, stop it with broker.stop().
+     */
+    public static BrokerService startEmbeddedBroker(String name) throws Exception {
+	BrokerService broker = new BrokerService();
+	broker.setBrokerName(name);
+	broker.setPersistent(false);
+	broker.setUseJmx(false);
+	broker.start();
+	return broker;
+    }
+}
@@ -0,0 +1,314 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.jms.*;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.apache.activemq.ActiveMQSession;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.TransportConnector;
+import org.apache.activemq.store.kahadb.KahaDBPersistenceAdapter;
+import org.apache.activemq.usage.SystemUsage;
+
+/**
+   Load test against a broker inside this JVM, no ActiveMQ installation needed.
+
+   - store: memory keeps everything in memory, kahadb writes persistent messages
+     to a KahaDB journal in build/loadtest-kahadb (deleted at every start)
+   - producers and consumers: threads with their own connection over TCP to the
+     broker, so the messages really get marshalled
+   - messages: how many the producers send together, messageSize bytes each
+   - persistent: delivery mode, persistent sends wait for the broker to store them
+   - ackMode: auto, dups, client, individual or transacted; client acknowledges and
+     transacted commits every ackBatch messages
+   - destination: queue (every message goes to one consumer) or topic (every
+     consumer gets every message)
+   - rate: messages per second of all producers together, 0 for as fast as possible
+
+   Every message carries the time it was (meant to be) sent in the property
+   sentNanos, the consumer records now minus that as end-to-end latency. That only
+   works because producers and consumers run in the same JVM, System.nanoTime is
+   not comparable between machines. With a rate the planned send time is used,
+   so a producer that falls behind shows up in the latency too.
+
+   Every second it prints sent and received msgs/sec, the latency percentiles of
+   that second and the broker memory (messages the broker holds) and store usage,
+   at the end the totals.
+ */
+public class LoadTest {
+    private static final long MAX_LATENCY_US = TimeUnit.MINUTES.toMicros(10);
+
+    private final String jmsURL;
+    private final int producers;
+    private final int consumers;
+    private final int messages;
+    private final int messageSize;
+    private final boolean persistent;
+    private final String ackMode;
+    private final int ackBatch;
+    private final boolean topic;
+    private final int rate;
+    private final Recorder recorder = new Recorder(MAX_LATENCY_US, 3);
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private volatile boolean running = true;
+
+    public LoadTest(String jmsURL, int producers, int consumers, int messages, int messageSize, boolean persistent,
+                    String ackMode, int ackBatch, boolean topic, int rate) {
+        this.jmsURL = jmsURL;
+        this.producers = Math.max(1, producers);
+        this.consumers = Math.max(1, consumers);
+        this.messages = messages;
+        this.messageSize = messageSize;
+        this.persistent = persistent;
+        this.ackMode = ackMode;
+        this.ackBatch = Math.max(1, ackBatch);
+        this.topic = topic;
+        this.rate = rate;
+    }
+
+    private Destination destination(Session session) throws JMSException {
+        return topic ? session.createTopic("LoadTest") : session.createQueue("LoadTest");
+    }
+
+    private void produce(int count) {
+        try {
+            Connection connection = JMSHelperActiveMQ.getJMSConnection(jmsURL);
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(destination(session));
+            producer.setDeliveryMode(persistent ? DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT);
+            byte[] payload = new byte[messageSize];
+            long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(producers) / rate : 0;
+            long scheduled = System.nanoTime();
+            for (int i = 0; i < count && running; i++) {
+                if (interval > 0) {
+                    scheduled += interval;
+                    long wait = scheduled - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                }
+                BytesMessage message = session.createBytesMessage();
+                message.writeBytes(payload);
+                message.setLongProperty("sentNanos", interval > 0 ? scheduled : System.nanoTime());
+                producer.send(message);
+                sent.increment();
+            }
+            connection.close();
+        } catch (Exception e) {
+            errors.increment();
+            System.out.println("Producer caught: " + e);
+        }
+    }
+
+    private Runnable consumer(CountDownLatch subscribed, long expected) throws Exception {
+        Connection connection = JMSHelperActiveMQ.getJMSConnection(jmsURL);
+        boolean transacted = ackMode.equals("transacted");
+        Session session = connection.createSession(transacted, acknowledgeMode(ackMode));
+        MessageConsumer consumer = session.createConsumer(destination(session));
+        connection.start();
+        subscribed.countDown();
+        return () -> {
+            try {
+                int unacknowledged = 0;
+                Message last = null;
+                while (running && received.sum() < expected) {
+                    Message message = consumer.receive(100);
+                    if (message == null) {
+                        continue;
+                    }
+                    long latency = (System.nanoTime() - message.getLongProperty("sentNanos")) / 1000;
+                    recorder.recordValue(Math.min(MAX_LATENCY_US, Math.max(0, latency)));
+                    received.increment();
+                    last = message;
+                    if (ackMode.equals("individual")) {
+                        message.acknowledge();
+                    } else if (++unacknowledged >= ackBatch) {
+                        acknowledge(session, message);
+                        unacknowledged = 0;
+                    }
+                }
+                if (unacknowledged > 0) {
+                    acknowledge(session, last);
+                }
+                connection.close();
+            } catch (Exception e) {
+                errors.increment();
+                System.out.println("Consumer caught: " + e);
+            }
+        };
+    }
+
+    private static int acknowledgeMode(String ackMode) {
+        switch (ackMode) {
+            case "auto": return Session.AUTO_ACKNOWLEDGE;
+            case "dups": return Session.DUPS_OK_ACKNOWLEDGE;
+            case "client": return Session.CLIENT_ACKNOWLEDGE;
+            case "individual": return ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE;
+            case "transacted": return Session.SESSION_TRANSACTED;
+            default: throw new IllegalArgumentException("Unknown ack mode " + ackMode);
+        }
+    }
+
+    private void acknowledge(Session session, Message message) throws JMSException {
+        if (ackMode.equals("transacted")) {
+            session.commit();
+        } else if (ackMode.equals("client")) {
+            message.acknowledge();
+        }
+    }
+
+    /** Runs the test, stops when all messages arrived or nothing arrived for timeout milliseconds. */
+    public Histogram run(BrokerService broker, int timeout) throws Exception {
+        System.out.printf("%d producers, %d consumers on a %s, %d messages of %d bytes, %s, ack %s%s%n",
+            producers, consumers, topic ? "topic" : "queue", messages, messageSize,
+            persistent ? "persistent" : "non persistent", ackMode,
+            rate > 0 ? ", " + rate + " msgs/sec" : ", as fast as possible");
+        long expected = topic ? (long) messages * consumers : messages;
+        List<Thread> threads = new ArrayList<>();
+        // subscribe first, a topic only delivers what is sent after the subscription
+        CountDownLatch subscribed = new CountDownLatch(consumers);
+        for (int i = 0; i < consumers; i++) {
+            threads.add(new Thread(consumer(subscribed, expected), "consumer-" + i));
+        }
+        subscribed.await();
+        for (int i = 0; i < producers; i++) {
+            // the first producers send one more if it does not divide evenly
+            int count = messages / producers + (i < messages % producers ? 1 : 0);
+            threads.add(new Thread(() -> produce(count), "producer-" + i));
+        }
+        Histogram total = new Histogram(MAX_LATENCY_US, 3);
+        Histogram interval = null;
+        SystemUsage usage = broker.getSystemUsage();
+        long peakMemory = 0;
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+
+        long lastSent = 0;
+        long lastReceived = 0;
+        long idleSince = System.currentTimeMillis();
+        for (int second = 1; received.sum() < expected; second++) {
+            Thread.sleep(1000);
+            interval = recorder.getIntervalHistogram(interval);
+            total.add(interval);
+            long nowSent = sent.sum();
+            long nowReceived = received.sum();
+            long memory = usage.getMemoryUsage().getUsage();
+            peakMemory = Math.max(peakMemory, memory);
+            System.out.printf("%3ds: sent %7d/s, received %7d/s, p50=%6d us, p99=%7d us, broker memory %s (%d%%), store %s%n",
+                second, nowSent - lastSent, nowReceived - lastReceived,
+                interval.getValueAtPercentile(50), interval.getValueAtPercentile(99),
+                megabytes(memory), usage.getMemoryUsage().getPercentUsage(), megabytes(usage.getStoreUsage().getUsage()));
+            if (nowReceived > lastReceived) {
+                idleSince = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - idleSince >= timeout) {
+                System.out.println("Nothing received for " + timeout + " ms, stopping");
+                break;
+            }
+            lastSent = nowSent;
+            lastReceived = nowReceived;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        running = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        total.add(recorder.getIntervalHistogram());
+
+        System.out.printf("Total: sent %d, received %d of %d in %.1f s, %.0f msgs/sec received, %d errors%n",
+            sent.sum(), received.sum(), expected, seconds, received.sum() / seconds, errors.sum());
+        System.out.printf("Latency (us): p50=%d p90=%d p99=%d p99.9=%d max=%d%n",
+            total.getValueAtPercentile(50), total.getValueAtPercentile(90), total.getValueAtPercentile(99),
+            total.getValueAtPercentile(99.9), total.getMaxValue());
+        Runtime runtime = Runtime.getRuntime();
+        System.out.printf("Broker memory peak %s of %s, JVM heap used %s%n", megabytes(peakMemory),
+            megabytes(usage.getMemoryUsage().getLimit()), megabytes(runtime.totalMemory() - runtime.freeMemory()));
+        return total;
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1f MB", bytes / 1048576.0);
+    }
+
+    /**
+     * A broker inside this JVM on a free TCP port, with the messages in memory or
+     * in a KahaDB journal in directory.
+     */
+    public static BrokerService startBroker(boolean kahadb, File directory) throws Exception {
+        BrokerService broker = new BrokerService();
+        broker.setBrokerName("loadtest");
+        broker.setUseJmx(false);
+        if (kahadb) {
+            KahaDBPersistenceAdapter store = new KahaDBPersistenceAdapter();
+            store.setDirectory(directory);
+            broker.setPersistenceAdapter(store);
+            broker.setDeleteAllMessagesOnStartup(true);
+        } else {
+            broker.setPersistent(false);
+        }
+        broker.addConnector("tcp://localhost:0"); // any free port
+        broker.start();
+        return broker;
+    }
+
+    public static void main(String args[]) throws Exception {
+      if (args.length != 10) {
+        System.out.println("Expected arguments: <store(memory|kahadb)> <producers(int)> <consumers(int)> <messages(int)> "
+            + "<message-size(int)> <persistent(true|false)> <ack-mode(auto|dups|client|individual|transacted)> "
+            + "<ack-batch(int)> <destination(queue|topic)> <rate(int)>");
+        System.exit(1);
+      }
+      String store = args[0];
+      int producers = 1;
+      int consumers = 1;
+      int messages = 10000;
+      int messageSize = 100;
+      boolean persistent = Boolean.parseBoolean(args[5]);
+      String ackMode = args[6];
+      int ackBatch = 100;
+      String destination = args[8];
+      int rate = 0;
+      try {
+        producers = Integer.parseInt(args[1]);
+        consumers = Integer.parseInt(args[2]);
+        messages = Integer.parseInt(args[3]);
+        messageSize = Integer.parseInt(args[4]);
+        ackBatch = Integer.parseInt(args[7]);
+        rate = Integer.parseInt(args[9]);
+      } catch (NumberFormatException nfe) {
+        System.out.println("[producers|consumers|messages|messageSize|ackBatch|rate] must be an integer");
+        System.exit(2);
+      }
+      if (!store.equals("memory") && !store.equals("kahadb")) {
+        System.out.println("[store] must be memory or kahadb");
+        System.exit(2);
+      }
+      if (!destination.equals("queue") && !destination.equals("topic")) {
+        System.out.println("[destination] must be queue or topic");
+        System.exit(2);
+      }
+      try {
+        acknowledgeMode(ackMode);
+      } catch (IllegalArgumentException e) {
+        System.out.println("[ackMode] must be auto, dups, client, individual or transacted");
+        System.exit(2);
+      }
+
+      BrokerService broker = startBroker(store.equals("kahadb"), new File("build/loadtest-kahadb"));
+      try {
+          TransportConnector connector = broker.getTransportConnectors().get(0);
+          LoadTest test = new LoadTest(connector.getPublishableConnectString(), producers, consumers, messages,
+              messageSize, persistent, ackMode, ackBatch, destination.equals("topic"), rate);
+          test.run(broker, 10000);
+      } finally {
+          broker.stop();
+      }
+    }
+}
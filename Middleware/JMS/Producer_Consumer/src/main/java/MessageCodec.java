@@ -0,0 +1,18 @@
+import javax.jms.*;
+
+/**
+   Turns one type of object into bytes and back, see TypedMessages.
+
+   The schema id names the layout of the bytes. If the layout changes (a field
+   more, another order) the new codec gets a new id, and the old codec stays
+   registered as long as old messages may still be in a queue.
+ */
+public interface MessageCodec<T> {
+    int schemaId();
+
+    Class<T> type();
+
+    void write(T value, BinaryWriter out);
+
+    T read(BinaryReader in) throws JMSException;
+}
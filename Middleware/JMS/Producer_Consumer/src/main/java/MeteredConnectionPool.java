@@ -0,0 +1,78 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.jms.*;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.jms.pool.ConnectionKey;
+import org.apache.activemq.jms.pool.ConnectionPool;
+import org.apache.activemq.pool.PooledConnectionFactory;
+
+/**
+ * ActiveMQ's PooledConnectionFactory plus numbers on how well the pool is used.
+ *
+ * The pooled factory keeps up to maxConnections real connections open and hands
+ * out wrappers for them. Closing a wrapper does not close the connection, it
+ * only gives it back. Sessions are pooled the same way per connection, and every
+ * pooled session keeps one producer that is reused for all destinations, so
+ * createSession/createProducer/close in a loop costs almost nothing after the
+ * first round. Connections that nobody used for idleTimeout milliseconds are
+ * closed by a background check.
+ */
+public class MeteredConnectionPool extends PooledConnectionFactory {
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder created = new LongAdder();
+    // the pools of all real connections, closed ones are skipped in stats()
+    private final Set<ConnectionPool> pools = ConcurrentHashMap.newKeySet();
+
+    public MeteredConnectionPool(String jmsURL, int maxConnections, int maxSessionsPerConnection,
+                                 int idleTimeoutMillis) {
+        super(new ActiveMQConnectionFactory(jmsURL));
+        setMaxConnections(maxConnections);
+        setMaximumActiveSessionPerConnection(maxSessionsPerConnection);
+        // wait for a session to come back instead of failing when all are in use
+        setBlockIfSessionPoolIsFull(true);
+        setIdleTimeout(idleTimeoutMillis);
+        // look for idle connections twice per timeout
+        setTimeBetweenExpirationCheckMillis(Math.max(1000, idleTimeoutMillis / 2));
+        setUseAnonymousProducers(true);
+    }
+
+    @Override
+    public Connection createConnection(String userName, String password) throws JMSException {
+        requests.increment();
+        return super.createConnection(userName, password);
+    }
+
+    // only called when the pool needs a new real connection
+    @Override
+    protected Connection createConnection(ConnectionKey key) throws JMSException {
+        created.increment();
+        return super.createConnection(key);
+    }
+
+    @Override
+    protected ConnectionPool createConnectionPool(Connection connection) {
+        ConnectionPool pool = super.createConnectionPool(connection);
+        pools.add(pool);
+        return pool;
+    }
+
+    /** e.g. "connections 2/8 (3 created for 1000 requests), sessions 5 active 3 idle (max 500 per connection)" */
+    public String stats() {
+        int open = 0;
+        int active = 0;
+        int idle = 0;
+        for (ConnectionPool pool : pools) {
+            if (pool.getConnection() == null) {
+                pools.remove(pool); // closed after the idle timeout
+                continue;
+            }
+            open++;
+            active += pool.getNumActiveSessions();
+            idle += pool.getNumIdleSessions();
+        }
+        return String.format("connections %d/%d (%d created for %d requests), sessions %d active %d idle "
+            + "(max %d per connection)", open, getMaxConnections(), created.sum(), requests.sum(),
+            active, idle, getMaximumActiveSessionPerConnection());
+    }
+}
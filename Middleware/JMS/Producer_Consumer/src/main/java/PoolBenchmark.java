@@ -0,0 +1,98 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.jms.*;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.TransportConnector;
+
+/**
+   Cost per message of opening a new connection for every message (like QProducer
+   and the HelloWorld threads do) compared to taking it from the pool.
+
+   Starts a broker in this JVM that listens on a free TCP port, so every new
+   connection really goes through a TCP and an ActiveMQ handshake. Both runs use
+   the same code: connection, session, producer, send one message, close. Only
+   where the connection comes from is different.
+ */
+public class PoolBenchmark {
+    interface ConnectionSource {
+        Connection get() throws Exception;
+    }
+
+    private static double run(String label, String queueName, int messages, int threads,
+                              ConnectionSource source) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            pool.submit(() -> {
+                try {
+                    Connection connection = source.get();
+                    Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                    MessageProducer producer = session.createProducer(session.createQueue(queueName));
+                    producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+                    producer.send(session.createTextMessage("Hello from " + Thread.currentThread().getName()));
+                    producer.close();
+                    session.close();
+                    connection.close();
+                } catch (Exception e) {
+                    System.out.println("Caught: " + e);
+                }
+                return null;
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.MINUTES);
+        double micros = (System.nanoTime() - start) / 1e3 / messages;
+        System.out.printf("%-8s %8d messages, %3d threads: %9.1f us per message, %8.0f msgs/sec%n",
+            label, messages, threads, micros, 1e6 / micros);
+        return micros;
+    }
+
+    public static void main(String args[]) throws Exception {
+      if (args.length != 2) {
+        System.out.println("Expected arguments: <messages(int)> <threads(int)>");
+        System.exit(1);
+      }
+      int messages = 10000;
+      int threads = 8;
+      try {
+        messages = Integer.parseInt(args[0]);
+        threads = Integer.parseInt(args[1]);
+      } catch (NumberFormatException nfe) {
+        System.out.println("[messages|threads] must be an integer");
+        System.exit(2);
+      }
+
+      BrokerService broker = new BrokerService();
+      broker.setBrokerName("pool");
+      broker.setPersistent(false);
+      broker.setUseJmx(false);
+      TransportConnector connector = broker.addConnector("tcp://localhost:0"); // any free port
+      broker.start();
+      String jmsURL = connector.getPublishableConnectString();
+      String queueName = "PoolQueue";
+
+      // empties the queue in the background so the broker does not fill up
+      QListenerConsumer consumer = new QListenerConsumer(jmsURL, queueName, 1, 1000, 1000);
+      consumer.start();
+      JMSHelperActiveMQ.maxConnections = Math.max(1, threads / 4);
+      try {
+          // the first round of each only warms up the JIT
+          for (int round = 0; round < 2; round++) {
+              int count = round == 0 ? Math.max(100, messages / 10) : messages;
+              double unpooled = run("new", queueName, count, threads,
+                  () -> JMSHelperActiveMQ.getJMSConnection(jmsURL));
+              double pooled = run("pooled", queueName, count, threads,
+                  () -> JMSHelperActiveMQ.getPooledConnection(jmsURL));
+              if (round == 1) {
+                  System.out.printf("The pool is %.1f times faster per message%n", unpooled / pooled);
+              }
+          }
+          System.out.println("Pool: " + JMSHelperActiveMQ.getPool(jmsURL).stats());
+      } finally {
+          JMSHelperActiveMQ.closePools();
+          consumer.close();
+          broker.stop();
+      }
+    }
+}
@@ -0,0 +1,92 @@
+import javax.jms.*;
+
+/**
+   Throughput version of QProducer. Instead of one message per session it sends
+   count messages in a transacted session and commits every batchSize messages.
+   The broker only has to confirm the commit, not every single send, so the
+   producer does not wait for a round trip per message.
+   A message is only visible to consumers once its batch was committed.
+ */
+public class QBatchProducer {
+    private final Connection connection;
+    private final Session session;
+    private final MessageProducer producer;
+    private final int batchSize;
+    private final String payload;
+
+    public QBatchProducer(String jmsURL, String queueName, int batchSize, int messageSize,
+                          boolean persistent) throws Exception {
+        this.batchSize = Math.max(1, batchSize);
+        this.payload = payload(messageSize);
+        connection = JMSHelperActiveMQ.getJMSConnection(jmsURL);
+        connection.start();
+        // true: transacted, the acknowledge mode is ignored then
+        session = connection.createSession(true, Session.SESSION_TRANSACTED);
+        producer = session.createProducer(session.createQueue(queueName));
+        producer.setDeliveryMode(persistent ? DeliveryMode.PERSISTENT : DeliveryMode.NON_PERSISTENT);
+    }
+
+    /** Sends count messages, returns the messages per second. */
+    public double send(int count) throws JMSException {
+        // the message object can be sent again, ActiveMQ copies it on send
+        TextMessage msg = session.createTextMessage(payload);
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            msg.setIntProperty("seq", i);
+            producer.send(msg);
+            if ((i + 1) % batchSize == 0) {
+                session.commit();
+            }
+        }
+        session.commit(); // the last, partial batch
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double rate = count / seconds;
+        System.out.printf("Sent %d messages in batches of %d: %.0f msgs/sec%n", count, batchSize, rate);
+        return rate;
+    }
+
+    public void close() throws JMSException {
+        session.close();
+        connection.close();
+    }
+
+    static String payload(int size) {
+        StringBuilder text = new StringBuilder(size);
+        while (text.length() < size) {
+            text.append((char) ('a' + text.length() % 26));
+        }
+        return text.toString();
+    }
+
+    public static void main(String args[]) throws Exception {
+      if (args.length != 7) {
+        System.out.println("Expected arguments: <jms-host(String)> <jms-port(int)> <queue-name(String)> "
+            + "<count(int)> <batch-size(int)> <message-size(int)> <persistent(true|false)>");
+        System.exit(1);
+      }
+      int jmsPort = 61616;
+      int count = 100000;
+      int batchSize = 100;
+      int messageSize = 100;
+      String jmsHost = args[0];
+      String queueName = args[2];
+      boolean persistent = Boolean.parseBoolean(args[6]);
+      try {
+        jmsPort = Integer.parseInt(args[1]);
+        count = Integer.parseInt(args[3]);
+        batchSize = Integer.parseInt(args[4]);
+        messageSize = Integer.parseInt(args[5]);
+      } catch (NumberFormatException nfe) {
+        System.out.println("[JMSPort|count|batchSize|messageSize] must be an integer");
+        System.exit(2);
+      }
+
+      String jmsURL = String.format("tcp://%s:%s", jmsHost, jmsPort);
+      QBatchProducer producer = new QBatchProducer(jmsURL, queueName, batchSize, messageSize, persistent);
+      try {
+          producer.send(count);
+      } finally {
+          producer.close();
+      }
+    }
+}
@@ -3,6 +3,7 @@ import javax.jms.*;
 /**
    This simple consumer consumes a single text message on a Queue. The Queue
    is command-line argument 0. Run the corresponding QProducer to send the message.
+   A BytesMessage is decoded with TypedMessages (QProducer with format binary).
  */
 public class QConsumer {
     public static void main(String args[]) throws Exception {
@@ -41,6 +42,9 @@ public class QConsumer {
           TextMessage textMessage = (TextMessage) message;
           String text = textMessage.getText();
           System.out.println("Received: " + text);
+	    } else if (message instanceof BytesMessage) {
+          Object value = new TypedMessages().register(new EventCodec()).fromMessage((BytesMessage) message);
+          System.out.println("Received: " + value);
 	    } else {
           System.out.println("Received: " + message);
 	    }
@@ -0,0 +1,157 @@
+import java.util.concurrent.atomic.LongAdder;
+import javax.jms.*;
+
+/**
+   Throughput version of QConsumer. Instead of asking for one message with
+   receive it registers a MessageListener on several sessions, ActiveMQ then
+   pushes the messages to the listeners as they come in.
+
+   - sessions: every session has its own delivery thread, so that many messages
+     are processed at the same time
+   - prefetch: how many messages the broker sends to a consumer before it waits
+     for acknowledgements. More prefetch means fewer waits, but the messages are
+     stuck at this consumer even if another one is idle
+   - ackBatch: the sessions use CLIENT_ACKNOWLEDGE, acknowledge() confirms all
+     messages of the session received so far, so we only call it every ackBatch
+     messages instead of once per message
+ */
+public class QListenerConsumer {
+    private final Connection connection;
+    private final Listener[] listeners;
+    private final LongAdder received = new LongAdder();
+    private volatile long firstNanos = 0;
+    private volatile long lastNanos = 0;
+
+    public QListenerConsumer(String jmsURL, String queueName, int sessions, int prefetch,
+                             int ackBatch) throws Exception {
+        connection = JMSHelperActiveMQ.getJMSConnection(jmsURL);
+        listeners = new Listener[Math.max(1, sessions)];
+        for (int i = 0; i < listeners.length; i++) {
+            Session session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+            // destination options are the ActiveMQ way to set the prefetch per consumer
+            Queue queue = session.createQueue(queueName + "?consumer.prefetchSize=" + prefetch);
+            listeners[i] = new Listener(Math.max(1, ackBatch));
+            session.createConsumer(queue).setMessageListener(listeners[i]);
+        }
+    }
+
+    /** Starts the delivery to the listeners. */
+    public void start() throws JMSException {
+        connection.start();
+    }
+
+    public long received() {
+        return received.sum();
+    }
+
+    /** Messages per second between the first and the last message. */
+    public double rate() {
+        long elapsed = lastNanos - firstNanos;
+        return elapsed <= 0 ? 0 : (received.sum() - 1) / (elapsed / 1e9);
+    }
+
+    /**
+     * Prints the rate every second until count messages were received (0 for no
+     * limit) or no message came in for timeout milliseconds.
+     */
+    public void report(long count, int timeout) throws InterruptedException {
+        long last = 0;
+        long idleSince = System.currentTimeMillis();
+        while (count == 0 || received() < count) {
+            Thread.sleep(1000);
+            long now = received();
+            if (now > last) {
+                System.out.printf("Received %d msgs/sec (total %d)%n", now - last, now);
+                idleSince = System.currentTimeMillis();
+            } else if (System.currentTimeMillis() - idleSince >= timeout) {
+                break;
+            }
+            last = now;
+        }
+        System.out.printf("Received %d messages with %d sessions: %.0f msgs/sec%n",
+            received(), listeners.length, rate());
+    }
+
+    /** Stops the delivery, acknowledges what is left of the batches and closes. */
+    public void close() throws JMSException {
+        // after stop no listener runs anymore, so we may use their sessions here
+        connection.stop();
+        for (Listener listener : listeners) {
+            listener.acknowledgeRest();
+        }
+        connection.close();
+    }
+
+    private class Listener implements MessageListener {
+        private final int ackBatch;
+        private int unacknowledged = 0;
+        private Message last;
+
+        Listener(int ackBatch) {
+            this.ackBatch = ackBatch;
+        }
+
+        // ActiveMQ calls this on the session thread, one message at a time per session
+        public void onMessage(Message message) {
+            try {
+                if (message instanceof TextMessage) {
+                    ((TextMessage) message).getText(); // here the real work would happen
+                }
+                last = message;
+                if (++unacknowledged >= ackBatch) {
+                    message.acknowledge();
+                    unacknowledged = 0;
+                }
+            } catch (JMSException e) {
+                System.out.println("Caught: " + e);
+            }
+            lastNanos = System.nanoTime();
+            if (firstNanos == 0) {
+                firstNanos = lastNanos;
+            }
+            received.increment();
+        }
+
+        void acknowledgeRest() throws JMSException {
+            if (unacknowledged > 0) {
+                last.acknowledge();
+                unacknowledged = 0;
+            }
+        }
+    }
+
+    public static void main(String args[]) throws Exception {
+      if (args.length != 7) {
+          System.out.println("Expected arguments: <jms-host(String)> <jms-port(int)> <queue-name(String)> "
+              + "<sessions(int)> <prefetch(int)> <ack-batch(int)> <timeout(int)>");
+          System.exit(1);
+        }
+      int jmsPort = 61616;
+      int sessions = 4;
+      int prefetch = 1000;
+      int ackBatch = 100;
+      int timeout = 5000;
+      String jmsHost = args[0];
+      String queueName = args[2];
+      try {
+        jmsPort = Integer.parseInt(args[1]);
+        sessions = Integer.parseInt(args[3]);
+        prefetch = Integer.parseInt(args[4]);
+        ackBatch = Integer.parseInt(args[5]);
+        timeout = Integer.parseInt(args[6]);
+      } catch (NumberFormatException nfe) {
+        System.out.println("[JMSPort|sessions|prefetch|ackBatch|timeout] must be an integer");
+        System.exit(2);
+      }
+
+      String jmsURL = String.format("tcp://%s:%s", jmsHost, jmsPort);
+      QListenerConsumer consumer = new QListenerConsumer(jmsURL, queueName, sessions, prefetch, ackBatch);
+      consumer.start();
+      try {
+          // runs until the queue stays empty for timeout milliseconds
+          consumer.report(0, timeout);
+      } finally {
+          consumer.close();
+      }
+    }
+}
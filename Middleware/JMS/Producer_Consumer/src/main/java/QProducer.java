@@ -1,21 +1,30 @@
+import java.util.Arrays;
 import javax.jms.*;
 
 /**
    This simple producer pushes a single text message to a Queue. The Queue
    is command-line argument 0 and the text message is command-line argument 1.
    Run the corresponding QConsumer to consume the message.
+   The optional format (argument 4) sends the text inside an Event instead:
+   json as TextMessage, binary as BytesMessage (see TypedMessages).
  */
 public class QProducer {
 
     public static void main(String args[]) throws Exception {
-      if (args.length != 4) {
-        System.out.println("Expected arguments: <jms-host(String)> <jms-port(int)> <queue-name(String)> <message(String)>");
+      if (args.length != 4 && args.length != 5) {
+        System.out.println("Expected arguments: <jms-host(String)> <jms-port(int)> <queue-name(String)> <message(String)> "
+            + "[<format(text|json|binary)>]");
         System.exit(1);
       }
       int jmsPort = 61616;
       String jmsHost = args[0];
       String queueName = args[2];
       String message = args[3];
+      String format = args.length == 5 ? args[4] : "text";
+      if (!Arrays.asList("text", "json", "binary").contains(format)) {
+        System.out.println("[format] must be text, json or binary");
+        System.exit(2);
+      }
       try {
         jmsPort = Integer.parseInt(args[1]);
       } catch (NumberFormatException nfe) {
@@ -37,8 +46,19 @@ public class QProducer {
 	    MessageProducer producer = session.createProducer(destination);
 	    //producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
 
-	    TextMessage msg = session.createTextMessage(message);
-	    System.out.println("Sent message '" + msg.getText() + "' to queue: " + queueName);
+	    Event event = new Event(1, System.currentTimeMillis(), "message", System.getProperty("user.name"), 0,
+	        Arrays.asList(message));
+	    Message msg;
+	    if (format.equals("binary")) {
+	        msg = new TypedMessages().register(new EventCodec()).toMessage(session, event);
+	        message = event.toString();
+	    } else if (format.equals("json")) {
+	        message = event.toJSON();
+	        msg = session.createTextMessage(message);
+	    } else {
+	        msg = session.createTextMessage(message);
+	    }
+	    System.out.println("Sent message '" + message + "' to queue: " + queueName);
 	    producer.send(msg);
 	
 	    session.close();
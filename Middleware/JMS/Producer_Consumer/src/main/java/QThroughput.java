@@ -0,0 +1,60 @@
+import org.apache.activemq.broker.BrokerService;
+
+/**
+   Runs QBatchProducer and QListenerConsumer against a broker inside this JVM
+   (vm:// transport), so the throughput can be tried without an ActiveMQ
+   installation. The producer sends in its own thread while the consumer prints
+   the msgs/sec it receives every second.
+ */
+public class QThroughput {
+    public static void main(String args[]) throws Exception {
+      if (args.length != 7) {
+        System.out.println("Expected arguments: <count(int)> <batch-size(int)> <message-size(int)> "
+            + "<persistent(true|false)> <sessions(int)> <prefetch(int)> <ack-batch(int)>");
+        System.exit(1);
+      }
+      int count = 100000;
+      int batchSize = 100;
+      int messageSize = 100;
+      int sessions = 4;
+      int prefetch = 1000;
+      int ackBatch = 100;
+      boolean persistent = Boolean.parseBoolean(args[3]);
+      try {
+        count = Integer.parseInt(args[0]);
+        batchSize = Integer.parseInt(args[1]);
+        messageSize = Integer.parseInt(args[2]);
+        sessions = Integer.parseInt(args[4]);
+        prefetch = Integer.parseInt(args[5]);
+        ackBatch = Integer.parseInt(args[6]);
+      } catch (NumberFormatException nfe) {
+        System.out.println("[count|batchSize|messageSize|sessions|prefetch|ackBatch] must be an integer");
+        System.exit(2);
+      }
+
+      BrokerService broker = JMSHelperActiveMQ.startEmbeddedBroker("throughput");
+      String jmsURL = "vm://throughput";
+      String queueName = "ThroughputQueue";
+      QListenerConsumer consumer = new QListenerConsumer(jmsURL, queueName, sessions, prefetch, ackBatch);
+      QBatchProducer producer = new QBatchProducer(jmsURL, queueName, batchSize, messageSize, persistent);
+      try {
+          consumer.start();
+          final int messages = count;
+          Thread sender = new Thread(() -> {
+              try {
+                  producer.send(messages);
+              } catch (Exception e) {
+                  e.printStackTrace();
+              }
+          });
+          sender.start();
+          // stops when all messages are there, or nothing came for 5 seconds
+          consumer.report(count, 5000);
+          sender.join();
+      } finally {
+          producer.close();
+          consumer.close();
+          broker.stop();
+      }
+    }
+}
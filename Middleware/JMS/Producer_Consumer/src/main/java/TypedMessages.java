@@ -0,0 +1,70 @@
+import java.util.HashMap;
+import java.util.Map;
+import javax.jms.*;
+
+/**
+   Sends objects as BytesMessage instead of JSON in a TextMessage.
+
+   The body starts with the schema id of the codec (a varint, 1 byte for ids up
+   to 127), the rest is written by the codec. The receiver looks up the codec by
+   that id, so one queue can carry several types and old and new layouts at the
+   same time. An unknown id is a MessageFormatException.
+
+   Encoding goes into one BinaryWriter and decoding reads from one BinaryReader,
+   both are reused for every message. Like a JMS Session an instance must only
+   be used by one thread at a time, give every producer or consumer thread its own.
+ */
+public class TypedMessages {
+    private final Map<Integer, MessageCodec<?>> bySchemaId = new HashMap<>();
+    private final Map<Class<?>, MessageCodec<?>> byType = new HashMap<>();
+    private final BinaryWriter writer = new BinaryWriter(256);
+    private final BinaryReader reader = new BinaryReader(256);
+
+    public TypedMessages register(MessageCodec<?> codec) {
+        bySchemaId.put(codec.schemaId(), codec);
+        // the last registered codec of a type is the one used for sending
+        byType.put(codec.type(), codec);
+        return this;
+    }
+
+    /** Schema id and value in the reused writer, valid until the next call. */
+    @SuppressWarnings("unchecked")
+    public BinaryWriter encode(Object value) {
+        MessageCodec<Object> codec = (MessageCodec<Object>) byType.get(value.getClass());
+        if (codec == null) {
+            throw new IllegalArgumentException("No codec registered for " + value.getClass().getName());
+        }
+        writer.reset();
+        writer.writeVarint(codec.schemaId());
+        codec.write(value, writer);
+        return writer;
+    }
+
+    public Object decode(BinaryReader in) throws JMSException {
+        int schemaId = (int) in.readVarint();
+        MessageCodec<?> codec = bySchemaId.get(schemaId);
+        if (codec == null) {
+            throw new MessageFormatException("Unknown schema id " + schemaId);
+        }
+        return codec.read(in);
+    }
+
+    public BytesMessage toMessage(Session session, Object value) throws JMSException {
+        BinaryWriter out = encode(value);
+        BytesMessage message = session.createBytesMessage();
+        message.writeBytes(out.buffer(), 0, out.size());
+        return message;
+    }
+
+    public Object fromMessage(BytesMessage message) throws JMSException {
+        return decode(reader.read(message));
+    }
+
+    public <T> T fromMessage(BytesMessage message, Class<T> type) throws JMSException {
+        Object value = fromMessage(message);
+        if (!type.isInstance(value)) {
+            throw new MessageFormatException("Expected " + type.getName() + " but got " + value.getClass().getName());
+        }
+        return type.cast(value);
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.jms.*;
+import org.apache.activemq.broker.BrokerService;
+
+/**
+   How WorkerPoolConsumer scales with the number of workers.
+
+   Fills a queue of a broker inside this JVM with messages of several message
+   groups, then lets a WorkerPoolConsumer with 1, 2, 4, ... workers empty it. Every
+   message costs workMicros of CPU, so with enough work per message the rate
+   grows about linearly until there are as many workers as cores, after that it
+   stays flat. Each message carries a sequence number per group, the processor
+   counts every message that came out of order (should always be 0).
+ */
+public class WorkerPoolBenchmark {
+    private static void fill(String jmsURL, String queueName, int messages, int groups) throws Exception {
+        Connection connection = JMSHelperActiveMQ.getJMSConnection(jmsURL);
+        Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+        MessageProducer producer = session.createProducer(session.createQueue(queueName));
+        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        for (int i = 0; i < messages; i++) {
+            TextMessage message = session.createTextMessage("Message " + i);
+            message.setStringProperty("JMSXGroupID", "group-" + i % groups);
+            message.setIntProperty("seq", i / groups);
+            producer.send(message);
+            if (i % 100 == 99) {
+                session.commit();
+            }
+        }
+        session.commit();
+        connection.close();
+    }
+
+    private static double run(String jmsURL, String queueName, int messages, int groups, int workers,
+                              int maxInFlight, int workMicros) throws Exception {
+        fill(jmsURL, queueName, messages, groups);
+        Map<String, Integer> lastSeq = new ConcurrentHashMap<>();
+        LongAdder outOfOrder = new LongAdder();
+        WorkerPoolConsumer consumer = new WorkerPoolConsumer(jmsURL, queueName, workers, maxInFlight, message -> {
+            WorkerPoolConsumer.work(workMicros);
+            // only one worker sees a group, so there is no race between get and put
+            String group = message.getStringProperty("JMSXGroupID");
+            int seq = message.getIntProperty("seq");
+            if (seq != lastSeq.getOrDefault(group, -1) + 1) {
+                outOfOrder.increment();
+            }
+            lastSeq.put(group, seq);
+        });
+        long start = System.nanoTime();
+        consumer.start();
+        while (consumer.processed() < messages) {
+            Thread.sleep(1);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        String stats = consumer.stats();
+        consumer.drain(10000);
+        double rate = messages / seconds;
+        System.out.printf("%3d workers: %8.0f msgs/sec, %d out of order, %s%n",
+            workers, rate, outOfOrder.sum(), stats);
+        return rate;
+    }
+
+    public static void main(String args[]) throws Exception {
+      if (args.length != 4) {
+        System.out.println("Expected arguments: <messages(int)> <groups(int)> <max-in-flight(int)> <work-micros(int)>");
+        System.exit(1);
+      }
+      int messages = 10000;
+      int groups = 64;
+      int maxInFlight = 64;
+      int workMicros = 200;
+      try {
+        messages = Integer.parseInt(args[0]);
+        groups = Integer.parseInt(args[1]);
+        maxInFlight = Integer.parseInt(args[2]);
+        workMicros = Integer.parseInt(args[3]);
+      } catch (NumberFormatException nfe) {
+        System.out.println("[messages|groups|maxInFlight|workMicros] must be an integer");
+        System.exit(2);
+      }
+
+      int cores = Runtime.getRuntime().availableProcessors();
+      BrokerService broker = JMSHelperActiveMQ.startEmbeddedBroker("workers");
+      String jmsURL = "vm://workers";
+      String queueName = "WorkerQueue";
+      try {
+          System.out.printf("%d cores, %d messages in %d groups, %d us work per message%n",
+              cores, messages, groups, workMicros);
+          // warm up the JIT
+          run(jmsURL, queueName, Math.max(100, messages / 10), groups, 1, maxInFlight, workMicros);
+          double single = 0;
+          // up to twice the cores to show where it stops scaling
+          for (int workers = 1; workers <= Math.max(4, 2 * cores); workers *= 2) {
+              double rate = run(jmsURL, queueName, messages, groups, workers, maxInFlight, workMicros);
+              if (workers == 1) {
+                  single = rate;
+              } else {
+                  System.out.printf("             speedup %.2f (ideal %d)%n", rate / single, Math.min(workers, cores));
+              }
+          }
+      } finally {
+          broker.stop();
+      }
+    }
+}
@@ -0,0 +1,210 @@
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.jms.*;
+import org.apache.activemq.ActiveMQSession;
+
+/**
+   A consumer that processes the messages of a queue on several worker threads
+   (competing consumers inside one program).
+
+   - One fetch thread takes the messages from the queue with receive() and hands
+     them to the workers. Only this thread uses the JMS session.
+   - Ordering: every worker has its own queue and messages with the same
+     JMSXGroupID always go to the same worker, so they are processed in the order
+     they were sent. ActiveMQ does the same between programs: all messages of a
+     group go to the same consumer. Messages without a group go round robin.
+   - Backpressure: at most maxInFlight messages are fetched and not done yet. If
+     the workers are that far behind the fetch thread stops calling receive, the
+     prefetch buffer fills up and the broker stops sending to us, the rest stays
+     in the queue for other consumers.
+   - Acknowledgement: with INDIVIDUAL_ACKNOWLEDGE (ActiveMQ only) each message is
+     acknowledged on its own once a worker finished it, no matter in which order
+     the workers finish. A message whose processing failed is not acknowledged and
+     is delivered again after this consumer closed.
+   - drain() stops fetching, waits for the workers to finish what they have and
+     acknowledges it, so nothing is processed twice after a normal shutdown.
+ */
+public class WorkerPoolConsumer {
+    public interface Processor {
+        void process(Message message) throws Exception;
+    }
+
+    private final Connection connection;
+    private final Session session;
+    private final MessageConsumer consumer;
+    private final ExecutorService[] workers;
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final Processor processor;
+    // finished by a worker, acknowledged by the fetch thread
+    private final BlockingQueue<Message> done = new LinkedBlockingQueue<>();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder waits = new LongAdder();
+    private volatile boolean running = true;
+    private Thread fetcher;
+    private int next = 0;
+
+    public WorkerPoolConsumer(String jmsURL, String queueName, int workerCount, int maxInFlight,
+                              Processor processor) throws Exception {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.inFlight = new Semaphore(this.maxInFlight);
+        this.processor = processor;
+        workers = new ExecutorService[Math.max(1, workerCount)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = Executors.newSingleThreadExecutor();
+        }
+        connection = JMSHelperActiveMQ.getJMSConnection(jmsURL);
+        session = connection.createSession(false, ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE);
+        // no point in the broker sending more than we take
+        Queue queue = session.createQueue(queueName + "?consumer.prefetchSize=" + this.maxInFlight);
+        consumer = session.createConsumer(queue);
+    }
+
+    public void start() throws JMSException {
+        connection.start();
+        fetcher = new Thread(this::fetch, "fetcher");
+        fetcher.start();
+    }
+
+    private void fetch() {
+        try {
+            while (running) {
+                // wait for a free place, keep acknowledging in the meantime
+                if (!inFlight.tryAcquire()) {
+                    waits.increment();
+                    boolean acquired = false;
+                    while (running && !(acquired = inFlight.tryAcquire(10, TimeUnit.MILLISECONDS))) {
+                        acknowledgeDone();
+                    }
+                    if (!running) {
+                        if (acquired) {
+                            inFlight.release(); // drain() waits until it has every permit
+                        }
+                        break;
+                    }
+                }
+                acknowledgeDone();
+                Message message = consumer.receive(100);
+                if (message == null) {
+                    inFlight.release();
+                } else {
+                    dispatch(message);
+                }
+            }
+        } catch (Exception e) {
+            System.out.println("Caught: " + e);
+        }
+    }
+
+    private void dispatch(Message message) throws JMSException {
+        String group = message.getStringProperty("JMSXGroupID");
+        int worker = group == null ? next++ % workers.length : Math.floorMod(group.hashCode(), workers.length);
+        workers[worker].execute(() -> {
+            try {
+                processor.process(message);
+                done.add(message);
+                processed.increment();
+            } catch (Exception e) {
+                failed.increment();
+                System.out.println("Processing failed: " + e);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private void acknowledgeDone() throws JMSException {
+        Message message = done.poll();
+        while (message != null) {
+            message.acknowledge();
+            message = done.poll();
+        }
+    }
+
+    public long processed() {
+        return processed.sum();
+    }
+
+    /** e.g. "processed 1000, failed 0, in flight 12/64, fetch waited 3 times for the workers" */
+    public String stats() {
+        return String.format("processed %d, failed %d, in flight %d/%d, fetch waited %d times for the workers",
+            processed.sum(), failed.sum(), maxInFlight - inFlight.availablePermits(), maxInFlight, waits.sum());
+    }
+
+    /**
+     * Stops fetching and waits up to timeout milliseconds for the workers to finish.
+     * Returns false if they did not make it in time.
+     */
+    public boolean drain(long timeout) throws Exception {
+        running = false;
+        fetcher.join();
+        boolean drained = inFlight.tryAcquire(maxInFlight, timeout, TimeUnit.MILLISECONDS);
+        // the fetch thread is gone, its session is ours now
+        acknowledgeDone();
+        for (ExecutorService worker : workers) {
+            worker.shutdownNow();
+        }
+        // messages still in the prefetch buffer go back to the queue
+        connection.close();
+        return drained;
+    }
+
+    /** Simulated work: keeps the CPU busy for the given time. */
+    static void work(long micros) {
+        long end = System.nanoTime() + micros * 1000;
+        while (System.nanoTime() < end) {
+            // busy
+        }
+    }
+
+    public static void main(String args[]) throws Exception {
+      if (args.length != 6) {
+          System.out.println("Expected arguments: <jms-host(String)> <jms-port(int)> <queue-name(String)> "
+              + "<workers(int)> <max-in-flight(int)> <work-micros(int)>");
+          System.exit(1);
+        }
+      int jmsPort = 61616;
+      int workerCount = 4;
+      int maxInFlight = 64;
+      int workMicros = 1000;
+      String jmsHost = args[0];
+      String queueName = args[2];
+      try {
+        jmsPort = Integer.parseInt(args[1]);
+        workerCount = Integer.parseInt(args[3]);
+        maxInFlight = Integer.parseInt(args[4]);
+        workMicros = Integer.parseInt(args[5]);
+      } catch (NumberFormatException nfe) {
+        System.out.println("[JMSPort|workers|maxInFlight|workMicros] must be an integer");
+        System.exit(2);
+      }
+
+      String jmsURL = String.format("tcp://%s:%s", jmsHost, jmsPort);
+      final long micros = workMicros;
+      final WorkerPoolConsumer consumer = new WorkerPoolConsumer(jmsURL, queueName, workerCount, maxInFlight,
+          message -> work(micros));
+      // Ctrl-C finishes the messages we have before the program ends
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+          try {
+              System.out.println(consumer.drain(10000) ? "Drained" : "Workers did not finish in time");
+              System.out.println(consumer.stats());
+          } catch (Exception e) {
+              e.printStackTrace();
+          }
+      }));
+      consumer.start();
+      long last = 0;
+      while (true) {
+          Thread.sleep(1000);
+          long now = consumer.processed();
+          System.out.printf("%d msgs/sec, %s%n", now - last, consumer.stats());
+          last = now;
+      }
+    }
+}
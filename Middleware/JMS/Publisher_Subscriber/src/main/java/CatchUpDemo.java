@@ -0,0 +1,87 @@
+import javax.jms.*;
+import javax.naming.*;
+import org.apache.activemq.broker.BrokerService;
+
+/*
+ * Shows the catch-up mode of DemoSubscriberModelWithListener without a running
+ * ActiveMQ: starts a broker inside this JVM, registers the durable subscription
+ * and goes offline, publishes a backlog of messages, keeps publishing liveRate
+ * messages per second and then starts the subscriber again. It replays the
+ * backlog in catch-up mode and switches to live mode when it is drained.
+ */
+public class CatchUpDemo {
+    private static final String TOPIC = "MyTopic";
+    private static final String CLIENT = "CatchUpClient";
+
+    public static void main(String[] args) throws Exception {
+      if (args.length != 5) {
+        System.out.println("Expected arguments: <backlog(int)> <live-rate(int)> <catch-up-threads(int)> "
+                           + "<catch-up-prefetch(int)> <ack-batch(int)>");
+        System.exit(1);
+      }
+      int backlog = 20000;
+      int liveRate = 5;
+      int catchUpThreads = 4;
+      int catchUpPrefetch = 1000;
+      int ackBatch = 100;
+      try {
+          backlog = Integer.parseInt(args[0]);
+          liveRate = Integer.parseInt(args[1]);
+          catchUpThreads = Integer.parseInt(args[2]);
+          catchUpPrefetch = Integer.parseInt(args[3]);
+          ackBatch = Integer.parseInt(args[4]);
+      } catch (NumberFormatException nfe) {
+          System.out.println("[backlog|liveRate|catchUpThreads|catchUpPrefetch|ackBatch] must be integer");
+          System.exit(2);
+      }
+
+	BrokerService broker = new BrokerService();
+	broker.setBrokerName("catchup");
+	// durable subscriptions and their messages are kept in memory only
+	broker.setPersistent(false);
+	broker.setUseJmx(false);
+	broker.start();
+	// system properties come before jndi.properties, so the JNDI lookups find this broker
+	System.setProperty(Context.PROVIDER_URL, "vm://catchup?create=false");
+
+	// register the durable subscription and go offline
+	new DemoSubscriberModelWithListener(TOPIC, CLIENT, "", "").close();
+
+	InitialContext jndi = new InitialContext();
+	TopicConnectionFactory conFactory = (TopicConnectionFactory) jndi.lookup("topicConnectionFactry");
+	TopicConnection connection = conFactory.createTopicConnection();
+	TopicSession session = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+	TopicPublisher publisher = session.createPublisher((Topic) jndi.lookup(TOPIC));
+	publisher.setDeliveryMode(DeliveryMode.PERSISTENT);
+	for (int i = 0; i < backlog; i++) {
+	    publisher.publish(session.createTextMessage("Backlog message " + i));
+	}
+	System.out.println("Published " + backlog + " messages while the subscriber was offline.");
+
+	// new messages keep coming while it catches up
+	final int rate = Math.max(1, liveRate);
+	Thread live = new Thread(() -> {
+	    try {
+		for (int i = 0; !Thread.currentThread().isInterrupted(); i++) {
+		    publisher.publish(session.createTextMessage("Live message " + i));
+		    Thread.sleep(1000 / rate);
+		}
+	    } catch (InterruptedException e) {
+		// done
+	    } catch (JMSException e) {
+		e.printStackTrace();
+	    }
+	});
+	live.start();
+
+	DemoSubscriberModelWithListener subscriber = new DemoSubscriberModelWithListener(TOPIC, CLIENT, "", "",
+	    catchUpThreads, catchUpPrefetch, ackBatch);
+	// returns when it is live, watch some live messages
+	Thread.sleep(3000);
+	live.interrupt();
+	live.join();
+	subscriber.close();
+	connection.close();
+	broker.stop();
+    }
+}
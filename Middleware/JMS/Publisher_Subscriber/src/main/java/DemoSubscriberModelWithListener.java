@@ -3,14 +3,61 @@ import javax.naming.*;
 import org.apache.log4j.BasicConfigurator;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+/*
+ * A durable subscriber keeps the messages that were published while it was
+ * offline, after a long break thousands can be waiting. Printing them one by one
+ * in onMessage takes long, so the subscriber starts in catch-up mode:
+ *
+ * - a large prefetch, the broker sends catchUpPrefetch messages without waiting
+ * - the messages are taken in batches of ackBatch, printed like live messages
+ *   in parallel on catchUpThreads threads and acknowledged with one
+ *   CLIENT_ACKNOWLEDGE per batch (the order inside a batch is lost, the backlog
+ *   must not depend on it)
+ * - every second it prints how many messages it replayed, the drain rate and
+ *   the backlog: how far behind it is (age of the newest replayed message) and
+ *   about how many messages that is (publish rate seen in the timestamps times
+ *   the age; the clocks of publisher and subscriber must roughly agree)
+ *
+ * Once nothing is waiting anymore, or the prefetched messages ran out and it
+ * is less than a second behind, it subscribes again in live mode: the normal
+ * prefetch, onMessage prints every message right away and acknowledges it on
+ * its own. Catch-up threads 0 starts in live mode directly. If processing a
+ * message fails the batch is not acknowledged, session.recover() delivers it
+ * again (the messages of it that worked are printed twice) and catching up goes
+ * on. A message that keeps failing is moved to the dead letter queue by
+ * ActiveMQ's redelivery policy after 6 redeliveries.
+ */
 public class DemoSubscriberModelWithListener implements javax.jms.MessageListener {
+    private static final String SUBSCRIPTION = "DemoSubscriberModel";
+    private static final long LIVE_LAG = 1000;
+
     private TopicSession pubSession;
     private TopicConnection connection;
+    private final Topic chatTopic;
+    private final int catchUpThreads;
+    private final int catchUpPrefetch;
+    private final int ackBatch;
+    private long replayed = 0;
 
     /* Establish JMS subscriber */
     public DemoSubscriberModelWithListener(String topicName, String clientName, String username, String password)
 	throws Exception {
+	this(topicName, clientName, username, password, 0, 0, 0);
+    }
+
+    public DemoSubscriberModelWithListener(String topicName, String clientName, String username, String password,
+					   int catchUpThreads, int catchUpPrefetch, int ackBatch) throws Exception {
+	this.catchUpThreads = catchUpThreads;
+	this.catchUpPrefetch = Math.max(1, catchUpPrefetch);
+	this.ackBatch = Math.max(1, ackBatch);
 	// Obtain a JNDI connection
 	InitialContext jndi = new InitialContext();
 	// Look up a JMS connection factory
@@ -19,45 +66,165 @@ public class DemoSubscriberModelWithListener implements javax.jms.MessageListene
 	connection = conFactory.createTopicConnection();
 	connection.setClientID(clientName);  // this is normally done by configuration not programmatically
 	// Look up a JMS topic - see jndi.properties in the classes directory
-	Topic chatTopic = (Topic) jndi.lookup(topicName);
-	TopicSession subSession = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
-	TopicSubscriber subscriber = subSession.createDurableSubscriber(chatTopic, "DemoSubscriberModel");
-
-	subscriber.setMessageListener(this);  // so we will use onMessage
-	
+	chatTopic = (Topic) jndi.lookup(topicName);
 	// Start the JMS connection; allows messages to be delivered
 	connection.start();
+	if (catchUpThreads > 0) {
+	    catchUp();
+	}
+	goLive();
+    }
+
+    /* Replays the backlog in parallel batches until it is drained */
+    private void catchUp() throws Exception {
+	TopicSession session = connection.createTopicSession(false, Session.CLIENT_ACKNOWLEDGE);
+	// destination options only change how we consume, not which subscription it is
+	Topic topic = session.createTopic(chatTopic.getTopicName() + "?consumer.prefetchSize=" + catchUpPrefetch);
+	TopicSubscriber subscriber = session.createDurableSubscriber(topic, SUBSCRIPTION);
+	ExecutorService pool = Executors.newFixedThreadPool(catchUpThreads);
+	long start = System.currentTimeMillis();
+	long lastReport = start;
+	long reported = 0;
+	long firstTimestamp = 0;
+	long newestTimestamp = 0;
+	long wait = 500;
+	try {
+	    while (true) {
+		List<Callable<Object>> batch = new ArrayList<>(ackBatch);
+		Message last = null;
+		// wait a bit for the first message of a batch, the rest must already be here
+		Message message = subscriber.receive(wait);
+		wait = 500;
+		while (message != null) {
+		    final Message m = message;
+		    batch.add(() -> process(m));
+		    last = message;
+		    if (firstTimestamp == 0) {
+			firstTimestamp = message.getJMSTimestamp();
+		    }
+		    newestTimestamp = Math.max(newestTimestamp, message.getJMSTimestamp());
+		    message = batch.size() < ackBatch ? subscriber.receiveNoWait() : null;
+		}
+		if (last == null) {
+		    break; // nothing waiting anymore
+		}
+		if (!allProcessed(pool.invokeAll(batch))) {
+		    session.recover(); // the whole batch comes again
+		    wait = 2000; // after the redelivery delay of ActiveMQ, 1 s
+		    continue;
+		}
+		// acknowledges all messages received so far in this session
+		last.acknowledge();
+		replayed += batch.size();
+
+		long now = System.currentTimeMillis();
+		long behind = Math.max(0, now - newestTimestamp);
+		if (now - lastReport >= 1000) {
+		    System.out.printf("Catching up: %d messages replayed, %.0f msgs/sec, %s%n", replayed,
+				      (replayed - reported) * 1000.0 / (now - lastReport),
+				      backlog(behind, firstTimestamp, newestTimestamp));
+		    lastReport = now;
+		    reported = replayed;
+		}
+		// a batch that is not full means the prefetched messages ran out
+		if (batch.size() < ackBatch && behind < LIVE_LAG) {
+		    break;
+		}
+	    }
+	} finally {
+	    pool.shutdown();
+	    // prefetched messages we did not take yet go to the live subscriber
+	    subscriber.close();
+	    session.close();
+	}
+	long elapsed = Math.max(1, System.currentTimeMillis() - start);
+	System.out.printf("Caught up: %d messages replayed in %.1f s, %.0f msgs/sec%n", replayed, elapsed / 1000.0,
+			  replayed * 1000.0 / elapsed);
+    }
+
+    // false if processing one of the messages failed
+    private boolean allProcessed(List<Future<Object>> results) throws InterruptedException {
+	boolean ok = true;
+	for (Future<Object> result : results) {
+	    try {
+		result.get();
+	    } catch (ExecutionException e) {
+		System.out.println("Processing failed, the batch is delivered again: " + e.getCause());
+		ok = false;
+	    }
+	}
+	return ok;
+    }
+
+    // e.g. "backlog 3.2 s behind, about 6400 messages"
+    private String backlog(long behind, long firstTimestamp, long newestTimestamp) {
+	if (newestTimestamp <= firstTimestamp) {
+	    return String.format("backlog %.1f s behind", behind / 1000.0);
+	}
+	double publishRate = replayed * 1000.0 / (newestTimestamp - firstTimestamp);
+	return String.format("backlog %.1f s behind, about %.0f messages", behind / 1000.0, publishRate * behind / 1000.0);
+    }
+
+    private void goLive() throws JMSException {
+	TopicSession subSession = connection.createTopicSession(false, Session.AUTO_ACKNOWLEDGE);
+	TopicSubscriber subscriber = subSession.createDurableSubscriber(chatTopic, SUBSCRIPTION);
+	subscriber.setMessageListener(this);  // so we will use onMessage
+	System.out.println("Live: receiving new messages as they come.");
+    }
+
+    public void close() throws JMSException {
+	connection.close();
+    }
+
+    // live and backlog messages alike
+    private Object process(Message message) throws JMSException {
+	if (message instanceof TextMessage) {
+	    String text = ((TextMessage) message).getText();
+	    System.out.println("Message received: " + text);
+	} else {
+	    System.out.println("Invalid message received.");
+	}
+	return null;
     }
 
    public void onMessage(Message message) {
         try {
-            if (message instanceof TextMessage) {
-                TextMessage txtMessage = (TextMessage) message;
-                System.out.println("Message received: " + txtMessage.getText());
-            } else {
-                System.out.println("Invalid message received.");
-            }
+            process(message);
         } catch (JMSException e1) {
 	    e1.printStackTrace();
 	}
    }
-    
+
     public static void main(String[] args) {
 	// uncomment this line for verbose logging to the screen
 	// BasicConfigurator.configure();
-    if (args.length != 4) {
-        System.out.println("Expected arguments: <topic-name(String)> <client-name(String)> <username(String)> <password(String)>");
+    if (args.length != 4 && args.length != 7) {
+        System.out.println("Expected arguments: <topic-name(String)> <client-name(String)> <username(String)> <password(String)> "
+                           + "[<catch-up-threads(int)> <catch-up-prefetch(int)> <ack-batch(int)>]");
         System.exit(1);
       }
       String topicName = args[0];
       String clientName = args[1];
       String userName = args[2];
       String password = args[3];
+      int catchUpThreads = 4;
+      int catchUpPrefetch = 1000;
+      int ackBatch = 100;
+      if (args.length == 7) {
+        try {
+            catchUpThreads = Integer.parseInt(args[4]);
+            catchUpPrefetch = Integer.parseInt(args[5]);
+            ackBatch = Integer.parseInt(args[6]);
+        } catch (NumberFormatException nfe) {
+            System.out.println("[catchUpThreads|catchUpPrefetch|ackBatch] must be integer");
+            System.exit(2);
+        }
+      }
 	try {
-	    DemoSubscriberModelWithListener demo =
-		new DemoSubscriberModelWithListener(topicName, clientName, userName, password);
+	    DemoSubscriberModelWithListener demo = new DemoSubscriberModelWithListener(topicName, clientName,
+		userName, password, catchUpThreads, catchUpPrefetch, ackBatch);
 	    BufferedReader commandLine = new java.io.BufferedReader(new InputStreamReader(System.in));
-	    
+
 	    // closes the connection and exit the system when 'exit' enters in
 	    // the command line
         System.out.println("Enter 'exit' to close the program.");
@@ -0,0 +1,90 @@
+package server;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of the Base operations for operands with 10, 1,000 and 100,000 digits.
+ *
+ * Run with: gradle jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BaseBenchmark {
+
+  @Param({"10", "1000", "100000"})
+  int digits;
+
+  @Param({"10", "16"})
+  int base;
+
+  private Base calc;
+  private String num1;
+  private String num2;
+  private String small;
+
+  @Setup
+  public void setup() {
+    Random random = new Random(42);
+    calc = new Base();
+    num1 = randomNumber(random, digits);
+    num2 = randomNumber(random, digits);
+    // divisor with half the digits so the quotient is not trivial
+    small = randomNumber(random, Math.max(1, digits / 2));
+  }
+
+  private String randomNumber(Random random, int length) {
+    char[] chars = new char[length];
+    for (int i = 0; i < length; i++) {
+      int digit = (i == 0) ? 1 + random.nextInt(base - 1) : random.nextInt(base);
+      chars[i] = Character.toUpperCase(Character.forDigit(digit, base));
+    }
+    return new String(chars);
+  }
+
+  @Benchmark
+  public String add() {
+    return calc.add(num1, num2, base);
+  }
+
+  @Benchmark
+  public String substract() {
+    return calc.substract(num2, num1, base);
+  }
+
+  @Benchmark
+  public String multiply() {
+    return calc.multiply(num1, num2, base);
+  }
+
+  @Benchmark
+  public String divide() {
+    return calc.divide(num1, small, base);
+  }
+
+  @Benchmark
+  public String mod() {
+    return calc.mod(num1, small, base);
+  }
+
+  @Benchmark
+  public String convertToBinary() {
+    return calc.convert(num1, base, 2);
+  }
+}
@@ -0,0 +1,108 @@
+package client;
+
+import java.net.*;
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+
+import org.json.*;
+
+import buffers.OperationProtos.Operation;
+import buffers.OperationProtos.OperationBatch;
+import buffers.ResponseProtos.Response;
+import buffers.ResponseProtos.ResponseBatch;
+
+/**
+ * Measures the server throughput when the same number of operations is sent as
+ * batches of 1, 100 and 10,000 operations. Every batch size gets its own
+ * connection, the batches are pipelined with about WINDOW_OPS operations in flight.
+ */
+class BatchBenchmark {
+    private static final int[] BATCH_SIZES = { 1, 100, 10000 };
+    private static final int WINDOW_OPS = 20000;
+
+    public static void main (String args[]) throws Exception {
+        int port = 9099; // default port
+        int total = 1000000; // default number of operations per batch size
+
+        if (args.length != 4) {
+            System.out.println("Expected arguments: <host(String)> <port(int)> <data(json file)> <operations(int)>");
+            System.exit(1);
+        }
+        String host = args[0];
+        try {
+            port = Integer.parseInt(args[1]);
+            total = Integer.parseInt(args[3]);
+        } catch (NumberFormatException nfe) {
+            System.out.println("[port|operations] must be integer");
+            System.exit(2);
+        }
+        Operation op = SockBaseClient.generateObjectFromPB(SockBaseClient.readJson(args[2]));
+
+        System.out.println("batch size | operations | ops/sec | batch p50 (ms) | batch p99 (ms)");
+        for (int size : BATCH_SIZES) {
+            run(host, port, op, size, Math.max(size, total / size * size));
+        }
+    }
+
+    private static void run(String host, int port, Operation op, int size, int total) throws Exception {
+        OperationBatch.Builder builder = OperationBatch.newBuilder();
+        for (int i = 0; i < size; i++) {
+            builder.addOperations(op);
+        }
+        final Operation request = Operation.newBuilder().setBatch(builder).build();
+        final int batches = total / size;
+        final long[] sent = new long[batches];
+        long[] latencies = new long[batches];
+        final Semaphore inFlight = new Semaphore(Math.max(1, WINDOW_OPS / size));
+
+        try (Socket sock = new Socket(host, port)) {
+            sock.setTcpNoDelay(true);
+            final OutputStream out = new BufferedOutputStream(sock.getOutputStream());
+            InputStream in = new BufferedInputStream(sock.getInputStream());
+
+            Thread sender = new Thread(() -> {
+                try {
+                    for (int i = 0; i < batches; i++) {
+                        inFlight.acquire();
+                        sent[i] = System.nanoTime();
+                        request.writeDelimitedTo(out);
+                        if (inFlight.availablePermits() == 0 || i == batches - 1) {
+                            out.flush();
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            sender.setDaemon(true);
+
+            long start = System.nanoTime();
+            sender.start();
+            int results = 0;
+            for (int i = 0; i < batches; i++) {
+                // a batch can come back in several parts, the last one is marked
+                ResponseBatch part;
+                do {
+                    Response response = Response.parseDelimitedFrom(in);
+                    if (response == null) {
+                        throw new EOFException("Server closed the connection");
+                    }
+                    part = response.getBatch();
+                    results += part.getResultsCount();
+                } while (!part.getLast());
+                latencies[i] = System.nanoTime() - sent[i];
+                inFlight.release();
+            }
+            long elapsed = System.nanoTime() - start;
+
+            if (results != total) {
+                System.out.println("Expected " + total + " results but got " + results);
+            }
+            Arrays.sort(latencies);
+            System.out.printf("%10d | %10d | %7.0f | %14.2f | %14.2f%n", size, total,
+                total / (elapsed / 1e9), latencies[batches / 2] / 1e6,
+                latencies[Math.min(batches - 1, (int)(batches * 0.99))] / 1e6);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import buffers.ResponseProtos.Response;
+import buffers.ResponseProtos.ResponseBatch;
+import compression.Codec;
+import compression.Framing;
+import compression.Lz4Codec;
+
+/**
+ * Compares the CPU time a codec needs per message with the bytes it saves, for
+ * messages from 64 bytes to 1 MB. No server needed, this only runs the framing.
+ *
+ * The messages are batch answers like the server sends them: a ResponseBatch with
+ * JSON results of random numbers, as many as fit in the size.
+ * Times are CPU time of this thread, so they do not depend on what else runs.
+ */
+class CompressionBenchmark {
+  private static final int[] SIZES = {64, 256, 1024, 4096, 16384, 65536, 262144, 1048576};
+  // bytes to push through every codec per size, small messages need many rounds
+  private static final long BYTES_PER_ROW = 16L * 1024 * 1024;
+
+  private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+  public static void main(String[] args) throws Exception {
+    List<Framing> framings = new ArrayList<>();
+    // the uncompressed row: minSize so large that nothing is compressed
+    framings.add(new Framing(new Lz4Codec(), Integer.MAX_VALUE));
+    for (Codec codec : Codec.all()) {
+      framings.add(new Framing(codec, 0));
+    }
+
+    // the first round only warms up the JIT
+    for (int round = 0; round < 2; round++) {
+      if (round == 1) {
+        System.out.println(String.format("%8s | %-7s | %9s | %6s | %13s | %13s",
+            "size", "codec", "wire size", "saved", "frame us/msg", "read us/msg"));
+      }
+      for (int size : SIZES) {
+        byte[] message = message(size);
+        for (int i = 0; i < framings.size(); i++) {
+          String row = run(message, framings.get(i), i == 0 ? "none" : framings.get(i).codec().name());
+          if (round == 1) {
+            System.out.println(row);
+          }
+        }
+      }
+    }
+  }
+
+  private static String run(byte[] message, Framing framing, String name) throws Exception {
+    int rounds = (int)Math.max(20, Math.min(200000, BYTES_PER_ROW / message.length));
+    byte[] frame = null;
+    long start = threads.getCurrentThreadCpuTime();
+    for (int i = 0; i < rounds; i++) {
+      frame = framing.frame(message);
+    }
+    long framed = threads.getCurrentThreadCpuTime();
+    for (int i = 0; i < rounds; i++) {
+      byte[] read = Framing.read(new ByteArrayInputStream(frame));
+      if (read.length != message.length) {
+        throw new IllegalStateException(name + " returned " + read.length + " bytes instead of " + message.length);
+      }
+    }
+    long done = threads.getCurrentThreadCpuTime();
+
+    return String.format("%8d | %-7s | %9d | %5.1f%% | %13.2f | %13.2f", message.length, name, frame.length,
+        100.0 * (message.length - frame.length) / message.length,
+        (framed - start) / 1e3 / rounds, (done - framed) / 1e3 / rounds);
+  }
+
+  /** A delimited batch Response of about size bytes. */
+  private static byte[] message(int size) throws IOException {
+    Random random = new Random(42);
+    ResponseBatch.Builder batch = ResponseBatch.newBuilder().setOffset(0).setLast(true);
+    int bytes = 10; // offset, last and the batch header
+    while (bytes < size) {
+      String result = Integer.toString(random.nextInt(Integer.MAX_VALUE));
+      Response entry = Response.newBuilder().setResultString("{'result':'" + result + "'}").build();
+      batch.addResults(entry);
+      bytes += entry.getSerializedSize() + 2;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream(size + 16);
+    Response.newBuilder().setBatch(batch).build().writeDelimitedTo(out);
+    return out.toByteArray();
+  }
+}
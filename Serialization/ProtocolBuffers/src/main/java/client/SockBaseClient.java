@@ -2,14 +2,19 @@ package client;
 
 import java.net.*;
 import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
 
 // import org.json.JSONObject;
 // import org.json.parser.JSONParser;
 // import org.json.JSONTokener;
 import org.json.*;
 
+import buffers.OperationProtos.CompressionRequest;
 import buffers.OperationProtos.Operation;
 import buffers.ResponseProtos.Response;
+import compression.Codec;
+import compression.Framing;
 
 class SockBaseClient {
      
@@ -21,8 +26,8 @@ class SockBaseClient {
         int i1=0, i2=0;
         int port = 9099; // default port
 
-        if (args.length != 3) {
-            System.out.println("Expected arguments: <host(String)> <port(int)> <data(json file)>");
+        if (args.length != 3 && args.length != 5 && args.length != 6) {
+            System.out.println("Expected arguments: <host(String)> <port(int)> <data(json file)> [<count(int)> <window(int)> [<compression(none|lz4|deflate)>]]");
             System.exit(1);
         }
         String host = args[0];
@@ -46,6 +51,26 @@ class SockBaseClient {
           ex.printStackTrace();
         }
 
+        if (args.length >= 5) {
+            // load mode: pipeline count operations over one connection
+            int count = 0;
+            int window = 0;
+            try {
+                count = Integer.parseInt(args[3]);
+                window = Integer.parseInt(args[4]);
+            } catch (NumberFormatException nfe) {
+                System.out.println("[count|window] must be integer");
+                System.exit(2);
+            }
+            String compression = args.length == 6 ? args[5] : "none";
+            if (!compression.equals("none") && Codec.forName(compression) == null) {
+                System.out.println("Unknown compression " + compression + ", use none, lz4 or deflate");
+                System.exit(2);
+            }
+            runLoad(host, port, op, count, window, compression);
+            return;
+        }
+
         try {
             // connect to the server
             serverSock = new Socket(host, port);
@@ -68,7 +93,130 @@ class SockBaseClient {
         }
     }
 
-    private static JSONObject readJson(String filename) throws IOException, JSONException {
+    /**
+     * Sends the same operation count times over a single connection without
+     * waiting for each answer. At most window operations are in flight at any
+     * time. A separate thread writes while this thread reads the responses, which
+     * come back in request order, so the i-th response belongs to the i-th send.
+     *
+     * With a compression other than none the client first asks the server for it
+     * and then sends and reads compressed frames.
+     */
+    private static void runLoad(String host, int port, Operation op, int count, int window,
+                                String compression) throws Exception {
+        final long[] sent = new long[count];
+        long[] latencies = new long[count];
+        final Semaphore inFlight = new Semaphore(Math.max(1, window));
+        String expected = null;
+        int mismatches = 0;
+        int received = count;
+
+        try (Socket sock = new Socket(host, port)) {
+            sock.setTcpNoDelay(true);
+            final OutputStream out = new BufferedOutputStream(sock.getOutputStream());
+            InputStream in = new BufferedInputStream(sock.getInputStream());
+            final Framing framing = compression.equals("none") ? null : negotiate(compression, out, in);
+
+            Thread sender = new Thread(() -> {
+                try {
+                    for (int i = 0; i < count; i++) {
+                        inFlight.acquire();
+                        sent[i] = System.nanoTime();
+                        if (framing == null) {
+                            op.writeDelimitedTo(out);
+                        } else {
+                            framing.write(op, out);
+                        }
+                        // only flush when we would have to wait anyway
+                        if (inFlight.availablePermits() == 0 || i == count - 1) {
+                            out.flush();
+                        }
+                    }
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+
+            // do not keep the JVM alive if the server hangs up early
+            sender.setDaemon(true);
+            long start = System.nanoTime();
+            sender.start();
+            for (int i = 0; i < count; i++) {
+                Response response = read(in, framing);
+                long now = System.nanoTime();
+                inFlight.release();
+                if (response == null) {
+                    System.out.println("Server closed the connection after " + i + " responses");
+                    received = i;
+                    break;
+                }
+                latencies[i] = now - sent[i];
+                if (expected == null) {
+                    expected = response.getResultString();
+                    System.out.println("Result is " + expected);
+                } else if (!expected.equals(response.getResultString())) {
+                    mismatches++;
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            if (received == count) {
+                sender.join();
+            }
+
+            latencies = Arrays.copyOf(latencies, received);
+            Arrays.sort(latencies);
+            System.out.println("Operations: " + received + ", window: " + window);
+            System.out.printf("Throughput: %.0f ops/sec%n", received / (elapsed / 1e9));
+            System.out.printf("Latency (us): p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f%n",
+                percentile(latencies, 50) / 1e3, percentile(latencies, 90) / 1e3,
+                percentile(latencies, 99) / 1e3, percentile(latencies, 99.9) / 1e3,
+                percentile(latencies, 100) / 1e3);
+            if (mismatches > 0) {
+                System.out.println("Unexpected results: " + mismatches);
+            }
+            if (framing != null) {
+                System.out.println("Sent " + framing.stats());
+            }
+        }
+    }
+
+    /**
+     * Asks the server for the codec. Returns the framing to use from now on, null
+     * if the server does not know the codec and we stay uncompressed.
+     */
+    private static Framing negotiate(String codec, OutputStream out, InputStream in) throws IOException {
+        CompressionRequest request = CompressionRequest.newBuilder()
+            .addCodecs(codec)
+            .setMinSize(Framing.DEFAULT_MIN_SIZE)
+            .build();
+        Operation.newBuilder().setCompression(request).build().writeDelimitedTo(out);
+        out.flush();
+        Response answer = Response.parseDelimitedFrom(in);
+        if (answer == null || !answer.getCompression().equals(codec)) {
+            System.out.println("Server does not support " + codec + ", sending uncompressed");
+            return null;
+        }
+        return new Framing(Codec.forName(codec), request.getMinSize());
+    }
+
+    private static Response read(InputStream in, Framing framing) throws IOException {
+        if (framing == null) {
+            return Response.parseDelimitedFrom(in);
+        }
+        byte[] message = Framing.read(in);
+        return message == null ? null : Response.parseDelimitedFrom(new ByteArrayInputStream(message));
+    }
+
+    // nearest-rank percentile on an already sorted array
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int)Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.min(sorted.length, Math.max(1, rank)) - 1];
+    }
+
+    static JSONObject readJson(String filename) throws IOException, JSONException {
       // read json from build directory, so the getResource is needed
       File file = new File(
         SockBaseClient.class.getResource("/"+filename).getFile()
@@ -78,7 +226,7 @@ class SockBaseClient {
       return new JSONObject(jsonTokener);
     }
 
-    private static Operation generateObjectFromPB(JSONObject data) {
+    static Operation generateObjectFromPB(JSONObject data) {
       JSONObject header = (JSONObject)data.get("header");
       JSONObject payload = (JSONObject)data.get("payload");
 
@@ -101,6 +249,8 @@ class SockBaseClient {
         return Operation.OperationType.MUL;
       else if (_type.toLowerCase().equals("div"))
         return Operation.OperationType.DIV;
+      else if (_type.toLowerCase().equals("mod"))
+        return Operation.OperationType.MOD;
       else
         throw new java.lang.RuntimeException("Operation type not found");
     }
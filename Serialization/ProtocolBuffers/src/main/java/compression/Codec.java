@@ -0,0 +1,45 @@
+package compression;
+
+/**
+ * A compression algorithm for the frames of `Framing`. Every codec has a one byte
+ * id that is written in front of each frame, so the reader knows how to unpack it.
+ *
+ * Implementations have to be thread safe, the server uses one codec from all workers.
+ */
+public interface Codec {
+  /** Id 0 is reserved for frames that are not compressed. */
+  byte id();
+
+  /** Name used in the CompressionRequest, e.g. "lz4". */
+  String name();
+
+  byte[] compress(byte[] data);
+
+  /** originalLength is the length of the data before it was compressed. */
+  byte[] decompress(byte[] data, int originalLength);
+
+  /** All codecs we support, the best trade-off of speed and size first. */
+  static Codec[] all() {
+    return new Codec[] { new Lz4Codec(), new DeflateCodec() };
+  }
+
+  /** The codec with that name, null if there is none. */
+  static Codec forName(String name) {
+    for (Codec codec : all()) {
+      if (codec.name().equals(name)) {
+        return codec;
+      }
+    }
+    return null;
+  }
+
+  /** The codec with that id, null if there is none. */
+  static Codec forId(byte id) {
+    for (Codec codec : all()) {
+      if (codec.id() == id) {
+        return codec;
+      }
+    }
+    return null;
+  }
+}
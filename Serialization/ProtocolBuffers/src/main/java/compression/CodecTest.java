@@ -0,0 +1,103 @@
+package compression;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.Deflater;
+
+/**
+ * Broken frames must be rejected quickly, whatever the other side sends.
+ *
+ * Every codec gets a good frame (it has to come back unchanged) and frames that
+ * are broken: cut off, wrong original length, garbage. Deflate also gets a stream
+ * that asks for a preset dictionary, which used to make decompress spin forever.
+ * Each case must end with an IllegalArgumentException within a second.
+ */
+class CodecTest {
+  // a new thread whenever the last one is still busy, a case that spins only loses its own
+  private static final ExecutorService runner = Executors.newCachedThreadPool(r -> {
+    Thread t = new Thread(r, "codec-test");
+    t.setDaemon(true); // a case that spins must not keep us alive
+    return t;
+  });
+  private static int failed = 0;
+
+  public static void main(String[] args) throws Exception {
+    byte[] data = new byte[10000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) ("0123456789ABCDEF".charAt(i * 7 % 16));
+    }
+    for (Codec codec : Codec.all()) {
+      byte[] packed = codec.compress(data);
+      good(codec, "round trip", packed, data);
+      broken(codec, "cut off", Arrays.copyOf(packed, packed.length / 2), data.length);
+      broken(codec, "original length too big", packed, data.length + 1);
+      broken(codec, "original length too small", packed, data.length - 1);
+      broken(codec, "garbage", "not compressed at all".getBytes(StandardCharsets.UTF_8), data.length);
+    }
+    broken(new DeflateCodec(), "preset dictionary", withDictionary(data), data.length);
+
+    System.out.println(failed == 0 ? "All cases passed" : failed + " cases failed");
+    System.exit(failed == 0 ? 0 : 1);
+  }
+
+  // a zlib stream compressed with a preset dictionary, the reader has to know it
+  private static byte[] withDictionary(byte[] data) {
+    Deflater deflater = new Deflater();
+    deflater.setDictionary("0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII));
+    deflater.setInput(data);
+    deflater.finish();
+    byte[] out = new byte[data.length + 64];
+    int length = deflater.deflate(out);
+    deflater.end();
+    return Arrays.copyOf(out, length);
+  }
+
+  private static void good(Codec codec, String name, byte[] frame, byte[] expected) throws Exception {
+    try {
+      byte[] out = run(() -> codec.decompress(frame, expected.length));
+      report(codec, name, Arrays.equals(out, expected), Arrays.equals(out, expected) ? "ok" : "different bytes");
+    } catch (Exception ex) {
+      report(codec, name, false, ex.toString());
+    }
+  }
+
+  private static void broken(Codec codec, String name, byte[] frame, int originalLength) throws Exception {
+    try {
+      run(() -> codec.decompress(frame, originalLength));
+      report(codec, name, false, "accepted");
+    } catch (IllegalArgumentException ex) {
+      report(codec, name, true, "rejected: " + ex.getMessage());
+    } catch (TimeoutException ex) {
+      report(codec, name, false, "still running after 1 s");
+    } catch (Exception ex) {
+      report(codec, name, false, ex.toString());
+    }
+  }
+
+  // runs the case on a runner thread, so one that spins cannot hang the test
+  private static byte[] run(Callable<byte[]> call) throws Exception {
+    Future<byte[]> result = runner.submit(call);
+    try {
+      return result.get(1, TimeUnit.SECONDS);
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof Exception) {
+        throw (Exception) ex.getCause();
+      }
+      throw ex;
+    }
+  }
+
+  private static void report(Codec codec, String name, boolean ok, String what) {
+    if (!ok) {
+      failed++;
+    }
+    System.out.println(String.format("%-4s %-7s %-26s %s", ok ? "ok" : "FAIL", codec.name(), name, what));
+  }
+}
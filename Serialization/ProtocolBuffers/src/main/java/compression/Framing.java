@@ -0,0 +1,153 @@
+package compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.MessageLite;
+
+/**
+ * Compressed framing for protobuf messages, used instead of plain writeDelimitedTo
+ * once client and server agreed on a codec (see the CompressionRequest in
+ * operation.proto).
+ *
+ * Every message becomes one frame:
+ *
+ *   compressed:    [codec id, 1 byte][length of body, varint][original length, varint][body]
+ *   uncompressed:  [0][the message like writeDelimitedTo writes it]
+ *
+ * The body is the delimited message compressed with the codec. Messages smaller
+ * than minSize are not worth the CPU and go out uncompressed, and so does everything
+ * that would not get smaller. An uncompressed frame costs one byte more than plain
+ * writeDelimitedTo. Since every frame names its own codec the reader needs no state.
+ */
+public class Framing {
+  /** Below this many bytes compression rarely saves anything, see CompressionBenchmark. */
+  public static final int DEFAULT_MIN_SIZE = 512;
+  // a broken length must not make us allocate gigabytes, protobuf has the same limit
+  private static final int MAX_FRAME = 64 * 1024 * 1024;
+
+  private final Codec codec;
+  private final int minSize;
+  private final LongAdder messages = new LongAdder();
+  private final LongAdder compressed = new LongAdder();
+  private final LongAdder rawBytes = new LongAdder();
+  private final LongAdder wireBytes = new LongAdder();
+
+  public Framing(Codec codec, int minSize) {
+    this.codec = codec;
+    this.minSize = minSize;
+  }
+
+  public Codec codec() {
+    return codec;
+  }
+
+  /** Turns one delimited message into a frame, thread safe. */
+  public byte[] frame(byte[] message) {
+    byte id = 0;
+    byte[] body = message;
+    if (message.length >= minSize) {
+      byte[] packed = codec.compress(message);
+      if (packed.length < message.length) {
+        id = codec.id();
+        body = packed;
+      }
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(body.length + 11);
+    out.write(id);
+    if (id != 0) {
+      writeVarint(out, body.length);
+      writeVarint(out, message.length);
+      compressed.increment();
+    }
+    out.write(body, 0, body.length);
+    messages.increment();
+    rawBytes.add(message.length);
+    wireBytes.add(out.size());
+    return out.toByteArray();
+  }
+
+  /** Frames the message and writes it, the framed version of writeDelimitedTo. */
+  public void write(MessageLite message, OutputStream out) throws IOException {
+    ByteArrayOutputStream delimited = new ByteArrayOutputStream(message.getSerializedSize() + 5);
+    message.writeDelimitedTo(delimited);
+    out.write(frame(delimited.toByteArray()));
+  }
+
+  /**
+   * Reads the next frame and returns the delimited message in it, so it can be
+   * parsed with parseDelimitedFrom. Returns null if the stream ended before the frame.
+   */
+  public static byte[] read(InputStream in) throws IOException {
+    int id = in.read();
+    if (id == -1) {
+      return null;
+    }
+    int length = checkLength(readVarint(in));
+    if (id == 0) {
+      // the delimited message itself, put its length back in front
+      ByteArrayOutputStream message = new ByteArrayOutputStream(length + 5);
+      writeVarint(message, length);
+      message.write(readFully(in, length), 0, length);
+      return message.toByteArray();
+    }
+    Codec codec = Codec.forId((byte) id);
+    if (codec == null) {
+      throw new IOException("Unknown codec id " + id);
+    }
+    int original = checkLength(readVarint(in));
+    return codec.decompress(readFully(in, length), original);
+  }
+
+  // lengths come from the other side, before we allocate anything with them
+  private static int checkLength(int length) throws IOException {
+    if (length < 0 || length > MAX_FRAME) {
+      throw new IOException("Bad frame length: " + length + " bytes");
+    }
+    return length;
+  }
+
+  private static byte[] readFully(InputStream in, int length) throws IOException {
+    byte[] body = new byte[length];
+    int offset = 0;
+    while (offset < length) {
+      int read = in.read(body, offset, length - offset);
+      if (read == -1) {
+        throw new EOFException("Stream ended inside a frame");
+      }
+      offset += read;
+    }
+    return body;
+  }
+
+  private static int readVarint(InputStream in) throws IOException {
+    int first = in.read();
+    if (first == -1) {
+      throw new EOFException("Stream ended inside a frame header");
+    }
+    return CodedInputStream.readRawVarint32(first, in);
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  /** e.g. "lz4: 1000 messages, 800 compressed, 1200000 -> 500000 bytes (58% saved)" */
+  public String stats() {
+    long raw = rawBytes.sum();
+    long wire = wireBytes.sum();
+    return String.format("%s: %d messages, %d compressed, %d -> %d bytes (%.0f%% saved)",
+        codec.name(), messages.sum(), compressed.sum(), raw, wire,
+        raw == 0 ? 0.0 : 100.0 * (raw - wire) / raw);
+  }
+}
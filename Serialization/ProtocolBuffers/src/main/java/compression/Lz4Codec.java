@@ -0,0 +1,44 @@
+package compression;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+/**
+ * LZ4 block compression. Does not compress as well as deflate but is a lot faster,
+ * the cost per byte is close to a memory copy.
+ */
+public class Lz4Codec implements Codec {
+  // fastestInstance picks the native library if it can be loaded, pure Java otherwise
+  private static final LZ4Factory factory = LZ4Factory.fastestInstance();
+  private static final LZ4Compressor compressor = factory.fastCompressor();
+  // the frames come from the other side: the safe decompressor checks every read
+  // against the input, the fast one trusts the original length and the bytes
+  private static final LZ4SafeDecompressor decompressor = factory.safeDecompressor();
+
+  public byte id() {
+    return 2;
+  }
+
+  public String name() {
+    return "lz4";
+  }
+
+  public byte[] compress(byte[] data) {
+    return compressor.compress(data);
+  }
+
+  public byte[] decompress(byte[] data, int originalLength) {
+    try {
+      byte[] out = new byte[originalLength];
+      int length = decompressor.decompress(data, 0, data.length, out, 0, originalLength);
+      if (length != originalLength) {
+        throw new IllegalArgumentException("Lz4 frame has " + length + " bytes, expected " + originalLength);
+      }
+      return out;
+    } catch (LZ4Exception ex) {
+      throw new IllegalArgumentException("Broken lz4 frame: " + ex.getMessage());
+    }
+  }
+}
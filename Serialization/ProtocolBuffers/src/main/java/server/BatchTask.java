@@ -0,0 +1,65 @@
+package server;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import buffers.OperationProtos.OperationBatch;
+import buffers.ResponseProtos.Response;
+import buffers.ResponseProtos.ResponseBatch;
+
+/**
+ * Calculates one part [from, to) of an OperationBatch on the fork/join pool and
+ * returns it as one encoded, delimited Response. The range is split in halves until the pieces are
+ * small enough, so idle workers can steal the other half.
+ */
+class BatchTask extends RecursiveTask<byte[]> {
+  // below this many operations splitting costs more than it saves
+  private static final int THRESHOLD = 64;
+
+  private final OperationBatch batch;
+  private final int from;
+  private final int to;
+  private final boolean last;
+
+  public BatchTask(OperationBatch batch, int from, int to, boolean last) {
+    this.batch = batch;
+    this.from = from;
+    this.to = to;
+    this.last = last;
+  }
+
+  protected byte[] compute() {
+    Response[] results = new Response[to - from];
+    new Split(results, from, to).invoke();
+    ResponseBatch.Builder part = ResponseBatch.newBuilder()
+      .setOffset(from)
+      .addAllResults(Arrays.asList(results))
+      .setLast(last);
+    return ResultCache.encode(Response.newBuilder().setBatch(part).build());
+  }
+
+  /** Fills results[i - from] for every operation i in [start, end). */
+  private class Split extends RecursiveAction {
+    private final Response[] results;
+    private final int start;
+    private final int end;
+
+    Split(Response[] results, int start, int end) {
+      this.results = results;
+      this.start = start;
+      this.end = end;
+    }
+
+    protected void compute() {
+      if (end - start <= THRESHOLD) {
+        for (int i = start; i < end; i++) {
+          results[i - from] = SockBaseServer.handle(batch.getOperations(i));
+        }
+      } else {
+        int middle = (start + end) >>> 1;
+        invokeAll(new Split(results, start, middle), new Split(results, middle, end));
+      }
+    }
+  }
+}
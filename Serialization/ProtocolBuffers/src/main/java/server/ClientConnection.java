@@ -0,0 +1,215 @@
+package server;
+
+import java.net.*;
+import java.io.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import buffers.OperationProtos.CompressionRequest;
+import buffers.OperationProtos.Operation;
+import buffers.OperationProtos.OperationBatch;
+import buffers.ResponseProtos.Response;
+import compression.Codec;
+import compression.Framing;
+
+/**
+ * One persistent client connection of the SockBaseServer.
+ *
+ * This thread only reads: it parses delimited Operations until the client closes
+ * the socket and hands every operation to the shared worker pool. The returned
+ * futures are queued in arrival order and a second writer thread takes them from
+ * the queue one after the other, so the responses leave in the same order even
+ * if the workers finish them out of order.
+ *
+ * The queue is bounded, if the client sends faster than we can answer the reader
+ * blocks and TCP pushes back on the client.
+ *
+ * A batch is cut into parts of CHUNK_SIZE operations. Every part is its own fork/join
+ * task and its own Response, so the first results stream back while the rest of a
+ * large batch is still being calculated.
+ *
+ * A client can ask for compression with a CompressionRequest. The answer names the
+ * codec, from then on both sides send compressed frames (compression.Framing). The
+ * workers compress the responses, so this costs the writer nothing.
+ */
+class ClientConnection extends Thread {
+  // marks the end of the stream for the writer thread
+  private static final Future<byte[]> END = CompletableFuture.completedFuture(null);
+  private static final int MAX_PENDING = 1024;
+  private static final int CHUNK_SIZE = 1000;
+
+  private final Socket conn;
+  private final int id;
+  private final ForkJoinPool pool;
+  private final ResultCache cache;
+  // the encoded, delimited responses in request order
+  private final BlockingQueue<Future<byte[]>> pending = new ArrayBlockingQueue<>(MAX_PENDING);
+  // null until the client asked for compression, only used by the reader thread
+  private Framing framing;
+
+  public ClientConnection(Socket sock, int id, ForkJoinPool pool, ResultCache cache) {
+    this.conn = sock;
+    this.id = id;
+    this.pool = pool;
+    this.cache = cache;
+  }
+
+  public void run() {
+    Thread writer = new Thread(this::writeResponses, "writer-" + id);
+    writer.start();
+    int count = 0;
+    try {
+      InputStream in = new BufferedInputStream(conn.getInputStream());
+      // parseDelimitedFrom returns null once the client closed its side
+      Operation op = read(in);
+      while (op != null) {
+        final Operation current = op;
+        final Framing f = framing;
+        if (op.hasCompression()) {
+          if (!enqueue(CompletableFuture.completedFuture(negotiate(op.getCompression())), writer)) {
+            break;
+          }
+        } else if (op.hasBatch()) {
+          if (!enqueueBatch(op.getBatch(), writer)) {
+            break;
+          }
+          count += op.getBatch().getOperationsCount();
+        } else if (enqueue(pool.submit(() -> frame(f, answer(current))), writer)) {
+          count++;
+        } else {
+          break;
+        }
+        op = read(in);
+      }
+    } catch (Exception ex) {
+      System.out.println("Client " + id + " read failed: " + ex.getMessage());
+    } finally {
+      try {
+        enqueue(END, writer);
+        writer.join();
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+      close();
+      System.out.println("Client " + id + " closed connection after " + count + " operations");
+      if (cache != null) {
+        System.out.println(cache.stats());
+      }
+      if (framing != null) {
+        System.out.println(framing.stats());
+      }
+    }
+  }
+
+  /** The next operation, parseDelimitedFrom or from a frame. Null at the end of the stream. */
+  private Operation read(InputStream in) throws IOException {
+    if (framing == null) {
+      return Operation.parseDelimitedFrom(in);
+    }
+    byte[] message = Framing.read(in);
+    return message == null ? null : Operation.parseDelimitedFrom(new ByteArrayInputStream(message));
+  }
+
+  /**
+   * Picks the first codec of the request we know and switches the connection to
+   * frames. The answer itself still goes out unframed, the client is waiting for it
+   * before it starts sending frames.
+   */
+  private byte[] negotiate(CompressionRequest request) {
+    Codec codec = null;
+    for (String name : request.getCodecsList()) {
+      codec = Codec.forName(name);
+      if (codec != null) {
+        break;
+      }
+    }
+    if (codec == null) {
+      return ResultCache.encode(Response.newBuilder().setCompression("none").build());
+    }
+    framing = new Framing(codec, request.getMinSize());
+    System.out.println("Client " + id + " uses " + codec.name() + " for messages from "
+        + request.getMinSize() + " bytes");
+    return ResultCache.encode(Response.newBuilder().setCompression(codec.name()).build());
+  }
+
+  private static byte[] frame(Framing framing, byte[] response) {
+    return framing == null ? response : framing.frame(response);
+  }
+
+  /** Runs on the worker pool, the writer only has to copy the bytes. */
+  private byte[] answer(Operation op) {
+    if (cache != null) {
+      return cache.get(op);
+    }
+    return ResultCache.encode(SockBaseServer.handle(op));
+  }
+
+  /**
+   * Starts one fork/join task per part of the batch and queues them in order.
+   * An empty batch still gets one (empty) last part as answer.
+   */
+  private boolean enqueueBatch(OperationBatch batch, Thread writer) throws InterruptedException {
+    int size = batch.getOperationsCount();
+    int offset = 0;
+    do {
+      int end = Math.min(size, offset + CHUNK_SIZE);
+      final BatchTask part = new BatchTask(batch, offset, end, end == size);
+      final Framing f = framing;
+      // invoke runs the part right on the worker that compresses it afterwards
+      if (!enqueue(f == null ? pool.submit(part) : pool.submit(() -> f.frame(part.invoke())), writer)) {
+        return false;
+      }
+      offset = end;
+    } while (offset < size);
+    return true;
+  }
+
+  /**
+   * Queues a response for the writer, blocks while the queue is full. Gives up if
+   * the writer is gone after a write error so we never wait on it forever.
+   */
+  private boolean enqueue(Future<byte[]> response, Thread writer) throws InterruptedException {
+    while (writer.isAlive()) {
+      if (pending.offer(response, 100, TimeUnit.MILLISECONDS)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Writes the responses in request order. Only flushes when nothing else is
+   * waiting so pipelined responses go out in as few packets as possible.
+   */
+  private void writeResponses() {
+    try {
+      OutputStream out = new BufferedOutputStream(conn.getOutputStream());
+      Future<byte[]> next = pending.take();
+      while (next != END) {
+        out.write(next.get());
+        if (pending.isEmpty()) {
+          out.flush();
+        }
+        next = pending.take();
+      }
+      out.flush();
+    } catch (Exception ex) {
+      System.out.println("Client " + id + " write failed: " + ex.getMessage());
+      // unblock the reader, the client will not get any more answers anyway
+      close();
+      pending.clear();
+    }
+  }
+
+  private void close() {
+    try {
+      conn.close();
+    } catch (IOException ex) {
+      // already closed
+    }
+  }
+}
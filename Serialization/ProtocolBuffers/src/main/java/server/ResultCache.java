@@ -0,0 +1,120 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import buffers.OperationProtos.Operation;
+import buffers.ResponseProtos.Response;
+
+/**
+ * Remembers the answers to operations the server has already calculated.
+ *
+ * Clients tend to send the same operations over and over, so the cache stores the
+ * finished, already length-delimited Response bytes. On a hit the writer gets the
+ * bytes directly, neither Base nor the protobuf encoding runs again.
+ *
+ * The cache is bounded to maxBytes, not to a number of entries: operands can have
+ * any length, so one entry may hold a few bytes or megabytes. An entry weighs its
+ * key (which holds both operands) plus the encoded result plus a rough overhead for
+ * the objects around them. Caffeine decides what to keep with its
+ * W-TinyLFU policy: an LRU window for new entries and a frequency sketch that only
+ * lets them into the main area if they are asked for more often than what they
+ * would replace, so a burst of one-off operations does not flush the hot ones.
+ */
+class ResultCache {
+  private final Cache<String, byte[]> cache;
+  private final LongAdder bytesSaved = new LongAdder();
+
+  // String, byte[] and the node of the cache, about what they cost besides their content
+  private static final int ENTRY_OVERHEAD = 100;
+
+  public ResultCache(long maxBytes) {
+    cache = Caffeine.newBuilder()
+      .maximumWeight(maxBytes)
+      .weigher((String key, byte[] bytes) -> weight(key, bytes))
+      .recordStats()
+      .build();
+  }
+
+  /**
+   * Returns the delimited Response bytes for op, calculates them on a miss.
+   *
+   * The calculation runs outside of the cache: a mapping function passed to
+   * cache.get runs under the lock of the key's bin and would hold up every other
+   * lookup there while Base works. Two workers missing the same key at the same
+   * time both calculate it, the last put wins, the bytes are the same.
+   */
+  public byte[] get(Operation op) {
+    String key = key(op);
+    byte[] bytes = cache.getIfPresent(key);
+    if (bytes != null) {
+      bytesSaved.add(bytes.length);
+      return bytes;
+    }
+    bytes = encode(SockBaseServer.handle(op));
+    cache.put(key, bytes);
+    return bytes;
+  }
+
+  // the keys are ASCII, one byte per char
+  static int weight(String key, byte[] bytes) {
+    return (int) Math.min(Integer.MAX_VALUE, (long) key.length() + bytes.length + ENTRY_OVERHEAD);
+  }
+
+  /** The Response exactly like writeDelimitedTo would write it. */
+  static byte[] encode(Response response) {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(response.getSerializedSize() + 5);
+      response.writeDelimitedTo(out);
+      return out.toByteArray();
+    } catch (IOException ex) {
+      // cannot happen on a byte array
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  public String stats() {
+    CacheStats stats = cache.stats();
+    long weight = cache.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L);
+    return String.format("Cache: %d entries, %d bytes, %d hits, %d misses, hit rate %.1f%%, %d bytes saved",
+      cache.estimatedSize(), weight, stats.hitCount(), stats.missCount(),
+      stats.hitRate() * 100, bytesSaved.sum());
+  }
+
+  /*
+   * Operations that must give the same answer get the same key: upper case digits,
+   * no leading zeros, no "-0" and for add and mul the smaller operand first.
+   */
+  static String key(Operation op) {
+    String num1 = canonical(op.getVal1());
+    String num2 = canonical(op.getVal2());
+    Operation.OperationType type = op.getOperationType();
+    if ((type == Operation.OperationType.ADD || type == Operation.OperationType.MUL)
+        && num1.compareTo(num2) > 0) {
+      String tmp = num1;
+      num1 = num2;
+      num2 = tmp;
+    }
+    return op.getBase() + ":" + type.getNumber() + ":" + op.getResponseType().getNumber()
+      + ":" + num1 + ":" + num2;
+  }
+
+  private static String canonical(String num) {
+    boolean negative = num.startsWith("-");
+    int start = negative ? 1 : 0;
+    while (start < num.length() - 1 && num.charAt(start) == '0') {
+      start++;
+    }
+    String digits = num.substring(start).toUpperCase();
+    if (negative && !digits.equals("0")) {
+      return "-" + digits;
+    }
+    return digits;
+  }
+}
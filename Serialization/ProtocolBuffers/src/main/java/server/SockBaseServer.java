@@ -2,76 +2,116 @@ package server;
 
 import java.net.*;
 import java.io.*;
+import java.util.concurrent.ForkJoinPool;
 
 import server.Base;
 import buffers.OperationProtos.Operation;
 import buffers.ResponseProtos.Response;
 
 
+/**
+ * Concurrent protobuf server. Every accepted socket is kept open and handled by
+ * its own ClientConnection, which reads a stream of delimited Operation messages.
+ * The actual calculations run on a shared worker pool, the responses are written
+ * back in the same order the operations came in.
+ */
 class SockBaseServer {
     public static void main (String args[]) throws Exception {
 
         int count = 0;
         ServerSocket    serv = null;
-        InputStream in = null;
-        OutputStream out = null;
         Socket clientSocket = null;
         int port = 9099; // default port
-        int sleepDelay = 10000; // default delay
-        if (args.length != 2) {
-          System.out.println("Expected arguments: <port(int)> <delay(int)>");
+        int workers = 8; // default size of the worker pool
+        int cacheMB = 0; // default no result cache
+        if (args.length != 2 && args.length != 3) {
+          System.out.println("Expected arguments: <port(int)> <workers(int)> [<cacheMB(int)>]");
           System.exit(1);
 		}
-        
+
         try {
           port = Integer.parseInt(args[0]);
-          sleepDelay = Integer.parseInt(args[1]);
+          workers = Integer.parseInt(args[1]);
+          if (args.length == 3) {
+            cacheMB = Integer.parseInt(args[2]);
+          }
         } catch (NumberFormatException nfe) {
-          System.out.println("[Port|sleepDelay] must be an integer");
+          System.out.println("[Port|workers|cacheMB] must be an integer");
           System.exit(2);
         }
+        if (workers < 1) {
+          workers = 1;
+        }
         try {
             serv = new ServerSocket(port);
         } catch(Exception e) {
           e.printStackTrace();
           System.exit(2);
         }
+
+        // shared by all connections, the connections themselves only do the IO.
+        // A fork/join pool so batches can be split up between the workers
+        ForkJoinPool pool = new ForkJoinPool(workers);
+        System.out.println("Server started on port " + port + " with " + workers + " workers");
+
+        // answers to repeated operations, 0 turns the cache off
+        ResultCache cache = null;
+        if (cacheMB > 0) {
+          cache = new ResultCache(cacheMB * 1024L * 1024);
+          System.out.println("Caching results up to " + cacheMB + " MB");
+        }
+
         while (serv.isBound() && !serv.isClosed()) {
             System.out.println("Ready...");
             try {
                 clientSocket = serv.accept();
-                in = clientSocket.getInputStream();
-                out = clientSocket.getOutputStream();
-                // read the proto object and put into new objct
-                Operation op = Operation.parseDelimitedFrom(in);
-                String result = null;
-                String num1 = op.getVal1();
-                String num2 = op.getVal2();
-                int baseN = op.getBase();
-
-                Base base = new Base();
-
-                if (op.getOperationType() == Operation.OperationType.ADD) {
-                  result = base.add(num1, num2, baseN);
-                  System.out.println("base " + baseN + ": " + num1 + " + " + num2 + " = " + result);
-                } else if (op.getOperationType() == Operation.OperationType.SUB) {
-                  result = base.substract(num1, num2, baseN);
-                  System.out.println("base " + baseN + ": " + num1 + " - " + num2 + " = " + result);
-                }
-                if (op.getResponseType() == Operation.ResponseType.JSON){
-                  //just building a JSON strinng
-                  result = "{'result':'" + result +"'}";
-                }
-                Response response = buildResponse(result);
-                response.writeDelimitedTo(out);
+                clientSocket.setTcpNoDelay(true);
+                count++;
+                System.out.println("Client " + count + " connected");
+                new ClientConnection(clientSocket, count, pool, cache).start();
             } catch (Exception ex) {
                 ex.printStackTrace();
-            } finally {
-                if (out != null)  out.close();
-                if (in != null)   in.close();
                 if (clientSocket != null) clientSocket.close();
             }
         }
+        pool.shutdown();
+    }
+
+    /**
+     * Calculates the result for one operation. Runs on the worker pool so it
+     * should not touch any shared state.
+     */
+    static Response handle(Operation op) {
+      String result = null;
+      String num1 = op.getVal1();
+      String num2 = op.getVal2();
+      int baseN = op.getBase();
+
+      Base base = new Base();
+
+      try {
+        if (op.getOperationType() == Operation.OperationType.ADD) {
+          result = base.add(num1, num2, baseN);
+        } else if (op.getOperationType() == Operation.OperationType.SUB) {
+          result = base.substract(num1, num2, baseN);
+        } else if (op.getOperationType() == Operation.OperationType.MUL) {
+          result = base.multiply(num1, num2, baseN);
+        } else if (op.getOperationType() == Operation.OperationType.DIV) {
+          result = base.divide(num1, num2, baseN);
+        } else if (op.getOperationType() == Operation.OperationType.MOD) {
+          result = base.mod(num1, num2, baseN);
+        } else {
+          result = "Error: operation " + op.getOperationType() + " is not supported";
+        }
+      } catch (RuntimeException ex) {
+        // a bad number should not kill the whole connection
+        result = "Error: " + ex.getMessage();
+      }
+      if (op.getResponseType() == Operation.ResponseType.JSON){
+        //just building a JSON strinng
+        result = "{'result':'" + result +"'}";
+      }
+      return buildResponse(result);
     }
 
     private static Response buildResponse(String result) {
@@ -80,4 +120,3 @@ class SockBaseServer {
       return response.build();
     }
 }
-
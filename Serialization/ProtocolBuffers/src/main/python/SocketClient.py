@@ -21,6 +21,7 @@ class SocketClient(object):
         "sub": Operation.OperationType.SUB,
         "mul": Operation.OperationType.MUL,
         "div": Operation.OperationType.DIV,
+        "mod": Operation.OperationType.MOD,
     }
     RESPONSE_TYPES = {
         "json": Operation.ResponseType.JSON,
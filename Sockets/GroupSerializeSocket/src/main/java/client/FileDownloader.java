@@ -0,0 +1,305 @@
+package client;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import socket.FileTransfer;
+
+/**
+ * Purpose:
+ * Downloads a file from a GroupServer with the protocol in socket.FileTransfer,
+ * over one or several connections at the same time.
+ *
+ * The download goes into target.part. Every chunk is checked with its CRC32 from
+ * the manifest before it counts, and after every request the checked chunks are
+ * written to target.progress (together with the SHA-256 of the file, so we notice
+ * when the file on the server changed). If the download is interrupted, the next
+ * download of the same file only asks for the chunks that are not in there. At the
+ * end the SHA-256 of the whole file is checked and target.part becomes target.
+ *
+ * <p/>
+ * Ser321 Principles of Distributed Software Systems
+ */
+public class FileDownloader {
+  private static final int MAX_DAMAGED = 10; // chunks with a wrong CRC32 before we give up
+
+  private final String serverHost;
+  private final int aPort;
+  private final String name;
+  private final File target;
+  private final File part;
+  private final File progress;
+  private final int connections;
+
+  private FileTransfer.Manifest manifest;
+  private BitSet verified; // guarded by this
+  private FileChannel file;
+  private final Queue<int[]> requests = new ConcurrentLinkedQueue<int[]>(); // first chunk, count
+  private final List<Socket> sockets = new ArrayList<Socket>(); // guarded by sockets
+  private volatile boolean stopped = false;
+  private final AtomicInteger damaged = new AtomicInteger();
+
+  final AtomicLong bytesReceived = new AtomicLong();
+  int resumedChunks = 0; // chunks we had already from an earlier download
+  long verifyMillis = 0;
+
+  private class Connection {
+    final Socket sock;
+    final DataInputStream in;
+    final OutputStream out;
+
+    Connection() throws IOException {
+      sock = new Socket(serverHost, aPort);
+      synchronized (sockets) {
+        sockets.add(sock);
+        if (stopped) {
+          sock.close();
+        }
+      }
+      in = new DataInputStream(new BufferedInputStream(sock.getInputStream(), 64 * 1024));
+      out = sock.getOutputStream();
+    }
+
+    void request(String request) throws IOException {
+      socket.IO.writeFrame(out, request);
+    }
+  }
+
+  /**
+   * @param name the file on the server
+   * @param target where to put it here
+   * @param connections how many connections download at the same time
+   */
+  public FileDownloader(String serverHost, int portToUse, String name, File target, int connections) {
+    this.serverHost = serverHost;
+    this.aPort = portToUse;
+    this.name = name;
+    this.target = target;
+    this.part = new File(target.getPath() + ".part");
+    this.progress = new File(target.getPath() + ".progress");
+    this.connections = connections;
+  }
+
+  /** Only asks for the manifest, e.g. so the server has it ready */
+  public FileTransfer.Manifest manifest() throws IOException {
+    Connection c = new Connection();
+    try {
+      return readManifest(c);
+    } finally {
+      c.sock.close();
+    }
+  }
+
+  private FileTransfer.Manifest readManifest(Connection c) throws IOException {
+    c.request(FileTransfer.MANIFEST + "^" + name + "^");
+    return FileTransfer.Manifest.read(c.in);
+  }
+
+  /**
+   * Downloads the file, or what is missing of it. Returns the size of the file.
+   * Throws an IOException if it could not get all, call it again to continue.
+   */
+  public long download() throws IOException {
+    Connection first = new Connection();
+    boolean handedOver = false; // the first worker closes it when it is done
+    try {
+      manifest = readManifest(first);
+      verified = loadProgress();
+      resumedChunks = verified.cardinality();
+      // the missing chunks, up to CHUNKS_PER_REQUEST next to each other in one request
+      for (int chunk = verified.nextClearBit(0); chunk < manifest.chunkCount(); chunk = verified.nextClearBit(chunk)) {
+        int count = 1;
+        while (count < FileTransfer.CHUNKS_PER_REQUEST && chunk + count < manifest.chunkCount() && !verified.get(chunk + count)) {
+          count++;
+        }
+        requests.add(new int[] {chunk, count});
+        chunk += count;
+      }
+      file = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      file.truncate(manifest.size); // a .part of some other, bigger file
+      handedOver = true;
+    } finally {
+      if (!handedOver) {
+        first.sock.close();
+        if (file != null) {
+          file.close();
+        }
+      }
+    }
+
+    List<Thread> workers = new ArrayList<Thread>();
+    List<Exception> errors = new ArrayList<Exception>();
+    try {
+      for (int i = 0; i < Math.max(1, connections); i++) {
+        Connection c = i == 0 ? first : null;
+        Thread worker = new Thread(() -> {
+          try {
+            fetch(c == null ? new Connection() : c);
+          } catch (Exception e) {
+            synchronized (errors) {
+              errors.add(e);
+            }
+            stop(); // the others stop as well, what we have is in the progress file
+          }
+        }, "download " + i);
+        workers.add(worker);
+        worker.start();
+      }
+      for (Thread worker : workers) {
+        worker.join();
+      }
+    } catch (InterruptedException e) {
+      stop();
+      throw new IOException("Interrupted", e);
+    } finally {
+      file.close();
+    }
+    if (!errors.isEmpty() || verified.cardinality() < manifest.chunkCount()) {
+      throw new IOException("Download of " + name + " stopped, " + verified.cardinality() + " of "
+          + manifest.chunkCount() + " chunks there", errors.isEmpty() ? null : errors.get(0));
+    }
+
+    long start = System.currentTimeMillis();
+    if (!Arrays.equals(sha256(part), manifest.sha256)) {
+      part.delete();
+      progress.delete();
+      throw new IOException("SHA-256 of " + name + " is wrong, the file changed on the server? Start again.");
+    }
+    verifyMillis = System.currentTimeMillis() - start;
+    Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    progress.delete();
+    return manifest.size;
+  }
+
+  /** Stops a running download, it can be continued with a new download() */
+  public void stop() {
+    stopped = true;
+    synchronized (sockets) {
+      for (Socket s : sockets) {
+        try {
+          s.close();
+        } catch (IOException e) {
+          // closing anyway
+        }
+      }
+    }
+  }
+
+  // one connection: takes requests until there are none left
+  private void fetch(Connection c) throws IOException {
+    byte[] buffer = new byte[manifest.chunkSize];
+    CRC32 crc = new CRC32();
+    try {
+      int[] request;
+      while (!stopped && (request = requests.poll()) != null) {
+        c.request(FileTransfer.CHUNKS + "^" + name + "^" + request[0] + "^" + request[1] + "^");
+        List<Integer> good = new ArrayList<Integer>();
+        for (int chunk = request[0]; chunk < request[0] + request[1]; chunk++) {
+          int length = manifest.length(chunk);
+          c.in.readFully(buffer, 0, length);
+          bytesReceived.addAndGet(length);
+          crc.reset();
+          crc.update(buffer, 0, length);
+          if (crc.getValue() != manifest.crcs[chunk]) {
+            if (damaged.incrementAndGet() > MAX_DAMAGED) {
+              throw new IOException("Too many damaged chunks");
+            }
+            requests.add(new int[] {chunk, 1}); // ask again
+            continue;
+          }
+          ByteBuffer data = ByteBuffer.wrap(buffer, 0, length);
+          long position = manifest.offset(chunk);
+          while (data.hasRemaining()) {
+            position += file.write(data, position);
+          }
+          good.add(chunk);
+        }
+        saveProgress(good);
+      }
+    } finally {
+      c.sock.close();
+    }
+  }
+
+  // the progress file: size, chunk size, SHA-256 of the file, the verified chunks
+  private BitSet loadProgress() {
+    if (!progress.exists() || !part.exists()) {
+      return new BitSet(manifest.chunkCount());
+    }
+    try (DataInputStream in = new DataInputStream(new FileInputStream(progress))) {
+      long size = in.readLong();
+      int chunkSize = in.readInt();
+      byte[] sha = new byte[32];
+      in.readFully(sha);
+      int length = in.readInt();
+      // a broken or foreign file must not make us allocate something big
+      if (length < 0 || length > (manifest.chunkCount() + 7) / 8) {
+        return new BitSet(manifest.chunkCount());
+      }
+      byte[] bits = new byte[length];
+      in.readFully(bits);
+      if (size == manifest.size && chunkSize == manifest.chunkSize && Arrays.equals(sha, manifest.sha256)) {
+        return BitSet.valueOf(bits);
+      }
+    } catch (IOException e) {
+      // broken, start again
+    }
+    return new BitSet(manifest.chunkCount());
+  }
+
+  private synchronized void saveProgress(List<Integer> chunks) throws IOException {
+    if (chunks.isEmpty()) {
+      return;
+    }
+    // the data has to be on the disk before the progress file says so
+    file.force(false);
+    for (int chunk : chunks) {
+      verified.set(chunk);
+    }
+    File temp = new File(progress.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+      out.writeLong(manifest.size);
+      out.writeInt(manifest.chunkSize);
+      out.write(manifest.sha256);
+      byte[] bits = verified.toByteArray();
+      out.writeInt(bits.length);
+      out.write(bits);
+    }
+    // replaces the old one in one step, a crash leaves the old or the new one, never half of it
+    Files.move(temp.toPath(), progress.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static byte[] sha256(File file) throws IOException {
+    MessageDigest sha = FileTransfer.sha256();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(FileTransfer.CHUNK_SIZE);
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      while (channel.read(buffer) > 0) {
+        buffer.flip();
+        sha.update(buffer);
+        buffer.clear();
+      }
+    }
+    return sha.digest();
+  }
+}
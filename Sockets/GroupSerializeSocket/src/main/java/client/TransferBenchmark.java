@@ -0,0 +1,120 @@
+package client;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import server.GroupServer;
+
+/**
+ * Purpose:
+ * Downloads a big file from a GroupServer in the same program over loopback,
+ * with 1, 2 and 4 connections, and once interrupted halfway and continued.
+ * Prints MB/s and how much had to be sent again after the interruption.
+ *
+ * The file is made up of random bytes in a directory under java.io.tmpdir, the
+ * server serves that directory.
+ *
+ * <p/>
+ * Ser321 Principles of Distributed Software Systems
+ */
+public class TransferBenchmark {
+
+   private static File createFile(File dir, long megabytes) throws IOException {
+      File file = new File(dir, "big.bin");
+      if (file.length() == megabytes * 1024 * 1024) {
+         return file;
+      }
+      Random random = new Random(42);
+      ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+      random.nextBytes(buffer.array());
+      try (FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+         for (long mb = 0; mb < megabytes; mb++) {
+            buffer.clear();
+            buffer.putLong(0, mb); // so no two chunks are the same
+            while (buffer.hasRemaining()) {
+               out.write(buffer);
+            }
+         }
+      }
+      return file;
+   }
+
+   private static double mb(long bytes) {
+      return bytes / (1024.0 * 1024.0);
+   }
+
+   public static void main(String args[]) throws Exception {
+      if (args.length != 2) {
+         System.out.println("Expected Arguments: <megabytes(int)> <port(int)>");
+         System.exit(0);
+      }
+      long megabytes = Long.parseLong(args[0]);
+      int port = Integer.parseInt(args[1]);
+      File dir = new File(System.getProperty("java.io.tmpdir"), "transfer-benchmark");
+      File downloads = new File(dir, "downloads");
+      downloads.mkdirs();
+      File source = createFile(dir, megabytes);
+
+      GroupServer.setDebug(false);
+      Thread server = new Thread(() -> {
+         try {
+            GroupServer.serve(port, dir);
+         } catch (IOException e) {
+            e.printStackTrace();
+         }
+      });
+      server.setDaemon(true);
+      server.start();
+      Thread.sleep(200);
+
+      File target = new File(downloads, "big.bin");
+      long start = System.nanoTime();
+      new FileDownloader("localhost", port, "big.bin", target, 1).manifest();
+      System.out.printf("%.0f MB file, manifest (CRC32 per chunk and SHA-256) computed by the server in %d ms%n",
+         mb(source.length()), (System.nanoTime() - start) / 1000000);
+
+      for (int connections : new int[] {1, 2, 4}) {
+         target.delete();
+         FileDownloader downloader = new FileDownloader("localhost", port, "big.bin", target, connections);
+         start = System.nanoTime();
+         downloader.download();
+         double seconds = (System.nanoTime() - start) / 1e9;
+         System.out.printf("%d connection(s): %.1f s, %.0f MB/s (SHA-256 check at the end %d ms of it)%n",
+            connections, seconds, mb(source.length()) / seconds, downloader.verifyMillis);
+      }
+
+      // interrupted when half of it is there, then continued
+      target.delete();
+      FileDownloader first = new FileDownloader("localhost", port, "big.bin", target, 4);
+      Thread stopper = new Thread(() -> {
+         try {
+            while (first.bytesReceived.get() < source.length() / 2) {
+               Thread.sleep(1);
+            }
+         } catch (InterruptedException e) {
+            return;
+         }
+         first.stop();
+      });
+      stopper.start();
+      try {
+         first.download();
+         System.out.println("not interrupted, the file was too small");
+      } catch (IOException e) {
+         System.out.println("interrupted: " + e.getMessage());
+      }
+      FileDownloader second = new FileDownloader("localhost", port, "big.bin", target, 4);
+      start = System.nanoTime();
+      second.download();
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.printf("continued: had %d chunks already, received %.0f MB more in %.1f s, %s%n",
+         second.resumedChunks, mb(second.bytesReceived.get()), seconds,
+         target.length() == source.length() ? "file complete and SHA-256 ok" : "file INCOMPLETE");
+      target.delete();
+      System.exit(0);
+   }
+}
@@ -2,20 +2,27 @@ package server;
 
 import java.net.*;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import socket.FileTransfer;
 
 /**
  * 
- * Purpose: A threaded server providing download service for the Serialized
- * Group The server waits for clients to connect and requiest to download the
- * file admin.ser (must execute: ant execute, prior to running server). The
- * clients requests the file by sending a "filetoclient^" string to the server.
- * The server responds by reading admin.ser and then sending the client a
- * message indicating how many bytes to expect in the transmission of the file.
- * The client responds OK, and the server sends the file's bytes. after the
- * client receives the proper number of bytes, it responds with a message OK.
- * For longer binary files, this same interaction/protocol could be used where
- * the client and server agree on a pre-specified buffer size for sending
- * successive parts of the file.
+ * Purpose: A threaded server providing download service for files, e.g. the
+ * Serialized Group admin.ser (must execute: gradle runGroupFileSerialize, prior
+ * to running server). The server waits for clients to connect and serves the
+ * files in its directory with the protocol described in socket.FileTransfer:
+ * the client first asks for the manifest of a file (size, checksums) and then
+ * for chunks of it, on one or several connections at the same time. Chunks are
+ * sent with FileChannel.transferTo, the operating system copies them from the
+ * file to the socket without bringing them into Java.
+ *
+ * Before, the server read the first 4096 bytes of admin.ser and sent only
+ * these, a bigger file was cut off without anyone noticing.
  *
  * <p/>
  * Ser321 Principles of Distributed Software Systems
@@ -26,107 +33,129 @@ import java.io.*;
  * 
  */
 public class GroupServer extends Thread {
-  private static final boolean debugOn = true;
+  private static final int MAX_REQUEST = 4 * 1024; // longest request frame we take
+  private static boolean debugOn = true;
+  // computing a manifest reads the whole file, so we keep them as long as the file does not change
+  private static final Map<String, CachedManifest> manifests = new ConcurrentHashMap<String, CachedManifest>();
+  private SocketChannel channel;
   private Socket conn;
+  private File directory;
   private int id;
-  private int byteCount;
 
-  public GroupServer(Socket aSock, int connId) {
-    this.conn = aSock;
+  private static class CachedManifest {
+    final long lastModified;
+    final FileTransfer.Manifest manifest;
+
+    CachedManifest(long lastModified, FileTransfer.Manifest manifest) {
+      this.lastModified = lastModified;
+      this.manifest = manifest;
+    }
+  }
+
+  public GroupServer(SocketChannel aChannel, File directory, int connId) {
+    this.channel = aChannel;
+    this.conn = aChannel.socket();
+    this.directory = directory;
     this.id = connId;
-    this.byteCount = 0;
   }
 
+  public static void setDebug(boolean on) {
+    debugOn = on;
+  }
+
+  /**
+   * Answers requests until the client closes the connection.
+   */
   public void run() {
+    long byteCount = 0;
+    // requests are frames (see socket.IO), read from the channel the chunks are sent to.
+    // They are a few dozen bytes, anything longer than MAX_REQUEST is not one
+    socket.IO.FrameReader requests = new socket.IO.FrameReader(channel, MAX_REQUEST);
     try {
-      OutputStream outStream = conn.getOutputStream();
-      InputStream inStream = conn.getInputStream();
-      byte clientInput[] = socket.IO.read(inStream);
-      long byteCount = 0;
-      if (clientInput.length > 0) {
-        String clientString = new String(clientInput);
-        GroupServer.debug("Read from client number " + Integer.toString(id) + ", " + Integer.toString(clientInput.length)
-            + " bytes as the string: " + clientString + "\n");
-        if (clientString.equalsIgnoreCase("filetoclient^")) {
-          System.out.println("Request to download group file");
-          byteCount = this.downloadToClient();
-          System.out.println("Download complete. Transferred " + byteCount + " bytes.");
+      DataOutputStream outStream = new DataOutputStream(new BufferedOutputStream(conn.getOutputStream()));
+      while (true) {
+        String clientString = requests.readString();
+        if (clientString == null) {
+          break; // client closed the connection
+        }
+        GroupServer.debug("Read from client number " + Integer.toString(id) + " the string: " + clientString);
+        String[] request = clientString.split("\\^");
+        File file = request.length > 1 ? this.file(request[1]) : null;
+        if (file == null) {
+          System.out.println("Unknown request or file: " + clientString);
+          break;
+        }
+        if (request[0].equalsIgnoreCase(FileTransfer.MANIFEST)) {
+          this.manifest(file).write(outStream);
+          outStream.flush();
+        } else if (request[0].equalsIgnoreCase(FileTransfer.CHUNKS) && request.length == 4) {
+          byteCount += this.sendChunks(file, Integer.parseInt(request[2]), Integer.parseInt(request[3]));
+        } else {
+          System.out.println("Unknown request: " + clientString);
+          break;
         }
       }
+    } catch (IOException e) {
+      // e.g. the client stopped a download, nothing we can do about it
+      System.out.println("Connection " + id + " closed: " + e.getMessage());
     } catch (Exception e) {
       e.printStackTrace();
+    } finally {
+      requests.release();
+      try {
+        conn.close();
+      } catch (IOException e) {
+        // closed anyway
+      }
     }
+    GroupServer.debug("Connection " + id + " done. Transferred " + byteCount + " bytes.");
   }
 
-  private long downloadToClient() {
-    long byteCount = 0;
-    try {
-      // string request: filetoclient comes from client
-      GroupServer.debug("Download file admin.ser to client");
-
-      // get the connections streams
-      OutputStream outStream = conn.getOutputStream();
-      InputStream inStream = conn.getInputStream();
-
-      // open the input file containing serialized group
-      // NOTE: object stream serialization is compressed, not plain-text
-      String filePath = "admin.ser";
-      File inFile = new File(filePath);
-      long len = inFile.length();
-
-      // create a byte stream
-      FileInputStream fis = new FileInputStream(inFile);
-
-      // send the file to the client. First send the number of bytes
-      // to be transferred.
-      // start by reading the serialized group into buf to find how
-      // many bytes
-      byte[] buf = new byte[4096];
-      int bufCount = fis.read(buf);
-      GroupServer.debug("read " + bufCount + " bytes from the file");
-
-      // send two integer byte counts: bufLengthThisRead^fileLength
-      String thisBuf = String.valueOf(bufCount);
-      String numStr = thisBuf + "^" + String.valueOf(len) + "^";
-      GroupServer.debug("sending number of data bytes to client " + numStr);
-      // send
-      outStream.write(numStr.getBytes(), 0, numStr.getBytes().length);
-      outStream.flush();
+  // only files directly in our directory, no ../ to anywhere else
+  private File file(String name) {
+    if (name.isEmpty() || name.contains("/") || name.contains("\\") || name.equals("..")) {
+      return null;
+    }
+    File file = new File(directory, name);
+    return file.isFile() ? file : null;
+  }
 
-      // wait to be sure the client got it, by waiting for an OK.
-      byte clientOK[] = socket.IO.read(inStream);
-      GroupServer.debug("tried to read ok. Got " + clientOK.length + " bytes");
-      String okStr = new String(clientOK);
-      if (okStr.contains("OK")) {
-        // if client got byte counts and replied OK then send buf
-        outStream.write(buf, 0, bufCount);
-        outStream.flush();
-        GroupServer.debug("I sent bytes:" + Integer.toString(bufCount));
-        byteCount = byteCount + bufCount;
-      }
+  private FileTransfer.Manifest manifest(File file) throws IOException {
+    String key = file.getCanonicalPath();
+    CachedManifest cached = manifests.get(key);
+    if (cached == null || cached.lastModified != file.lastModified() || cached.manifest.size != file.length()) {
+      long start = System.currentTimeMillis();
+      cached = new CachedManifest(file.lastModified(), FileTransfer.Manifest.of(file, FileTransfer.CHUNK_SIZE));
+      manifests.put(key, cached);
+      GroupServer.debug("Manifest of " + file + " computed in " + (System.currentTimeMillis() - start) + " ms");
+    }
+    return cached.manifest;
+  }
 
-      // now, make sure the client got the buffer and replied OK
-      byte gotIT[] = socket.IO.read(inStream);
-      String gotStr = new String(gotIT);
-      if (gotStr.contains("OK")) {
-        GroupServer.debug("got OK");
-      } else {
-        GroupServer.debug("breaking because did not get OK. Got " + gotStr);
-      }
-      if (bufCount <= 0) {
-        GroupServer.debug("sending Done to client");
-        outStream.write("Done".getBytes(), 0, "Done".getBytes().length);
-        outStream.flush();
+  /**
+   * Sends the bytes of count chunks starting with chunk first, straight from the
+   * file to the socket with transferTo. Returns the number of bytes.
+   */
+  private long sendChunks(File file, int first, int count) throws IOException {
+    FileTransfer.Manifest manifest = this.manifest(file);
+    // first + count could overflow
+    if (first < 0 || count <= 0 || count > manifest.chunkCount() - first) {
+      throw new IOException("No chunks " + first + " to " + (first + (long) count - 1) + " in " + file);
+    }
+    long position = manifest.offset(first);
+    long end = manifest.offset(first + count - 1) + manifest.length(first + count - 1);
+    try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      while (position < end) {
+        // transferTo may send less than asked for, e.g. when the socket buffer is full
+        long sent = fileChannel.transferTo(position, end - position, channel);
+        if (sent == 0 && position >= fileChannel.size()) {
+          // the file got shorter since its manifest was made, transferTo would return 0 forever
+          throw new IOException(file + " ended at " + fileChannel.size() + " bytes, expected " + end);
+        }
+        position += sent;
       }
-      fis.close();
-      outStream.flush();
-      outStream.close();
-      conn.close();
-    } catch (Exception e) {
-      System.out.println("exception uploading to server: " + e.getMessage());
-      e.printStackTrace();
     }
-    return byteCount;
+    return end - manifest.offset(first);
   }
 
   private static void debug(String message) {
@@ -134,16 +163,30 @@ public class GroupServer extends Thread {
       System.out.println("debug: " + message);
   }
 
+  /**
+   * Accepts connections forever, every connection gets its own thread which
+   * answers the requests on it with the files in directory.
+   */
+  public static void serve(int portNo, File directory) throws IOException {
+    int connects = 0;
+    ServerSocketChannel serv = ServerSocketChannel.open();
+    serv.bind(new InetSocketAddress(portNo));
+    while (true) {
+      GroupServer.debug("GroupServer waiting for client connect " + connects + " on port " + Integer.toString(portNo));
+      // a channel and not a Socket from a ServerSocket, transferTo needs the channel
+      SocketChannel sock = serv.accept();
+      connects = connects + 1;
+      GroupServer.debug("GroupServer connected to client: " + connects);
+      GroupServer aServer = new GroupServer(sock, directory, connects);
+      aServer.start();
+    }
+  }
+
   /**
    * main method provides an infinte loop to accept connections from clients. when
-   * a client connects, a new download thread is created to read the file and send
-   * it to the client.
+   * a client connects, a new download thread is created to answer its requests.
    */
   public static void main(String args[]) {
-    ServerSocket serv;
-    int connects = 0;
-    Socket sock;
-    int id = 0;
     int portNo = 3030;
     try {
       if (args.length != 1) {
@@ -154,16 +197,8 @@ public class GroupServer extends Thread {
       }
       if (portNo <= 1024)
         portNo = 3030;
-      serv = new ServerSocket(portNo);
-      while (true) {
-        System.out.println(
-            "GroupServer waiting for client connect " + connects + " on port " + Integer.toString(portNo) + "\n");
-        sock = serv.accept();
-        connects = connects + 1;
-        System.out.println("GroupServer connected to client: " + connects);
-        GroupServer aServer = new GroupServer(sock, connects++);
-        aServer.start();
-      }
+      System.out.println("GroupServer serving the files in " + new File(".").getCanonicalPath() + " on port " + portNo);
+      serve(portNo, new File("."));
     } catch (Exception e) {
       e.printStackTrace();
     }
@@ -0,0 +1,60 @@
+package socket;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Reuses byte buffers instead of making a new one for every message.
+ *
+ * Buffers come in sizes of powers of two from 4 KB to 1 MB. acquire gives a buffer
+ * that is at least as big as asked for (its limit is set to the size asked for),
+ * release puts it back for the next one. Bigger buffers are not kept, a few
+ * messages of many MB would otherwise stay in memory for good.
+ */
+public class BufferPool {
+  private static final int MIN_SHIFT = 12; // 4 KB
+  private static final int MAX_SHIFT = 20; // 1 MB
+  private static final int KEEP = 16; // buffers kept per size
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static final Queue<ByteBuffer>[] pools = new Queue[MAX_SHIFT - MIN_SHIFT + 1];
+  static {
+    for (int i = 0; i < pools.length; i++) {
+      pools[i] = new ConcurrentLinkedQueue<ByteBuffer>();
+    }
+  }
+
+  // the smallest size class that fits size, -1 if none does
+  private static int sizeClass(int size) {
+    int shift = Math.max(MIN_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(size, 1) - 1));
+    return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+  }
+
+  /** A cleared buffer with position 0 and limit size, backed by an array */
+  public static ByteBuffer acquire(int size) {
+    int sizeClass = sizeClass(size);
+    if (sizeClass < 0) {
+      return ByteBuffer.allocate(size);
+    }
+    ByteBuffer buffer = pools[sizeClass].poll();
+    if (buffer == null) {
+      buffer = ByteBuffer.allocate(1 << (sizeClass + MIN_SHIFT));
+    }
+    buffer.clear().limit(size);
+    return buffer;
+  }
+
+  /** Gives the buffer back, it must not be used anymore after that */
+  public static void release(ByteBuffer buffer) {
+    int capacity = buffer.capacity();
+    int sizeClass = sizeClass(capacity);
+    if (sizeClass < 0 || capacity != 1 << (sizeClass + MIN_SHIFT)) {
+      return; // not one of ours
+    }
+    Queue<ByteBuffer> pool = pools[sizeClass];
+    if (pool.size() < KEEP) {
+      pool.add(buffer);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package socket;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * The file transfer protocol of GroupServer and client.FileDownloader.
+ *
+ * A file is split into chunks of CHUNK_SIZE bytes (the last one can be shorter).
+ * The client asks with a request string in a frame (see IO), fields separated
+ * by ^ like the "filetoclient^" request before:
+ *  - "manifest^name^": the server answers with the Manifest of the file: its size,
+ *    the chunk size, a SHA-256 of the whole file and a CRC32 of every chunk
+ *  - "chunks^name^first^count^": the server answers with the bytes of these chunks,
+ *    nothing else, the client knows from the manifest how many bytes these are
+ * The client waits for the whole answer before it sends the next request, and it
+ * can use several connections at the same time, each asking for other chunks.
+ *
+ * With the CRC32 the client checks every chunk as it arrives, so after an
+ * interruption it only asks for the chunks it does not have verified yet. The
+ * SHA-256 checks the whole file at the end.
+ *
+ * Answers are written with DataOutputStream (numbers in a fixed number of bytes),
+ * so the client knows how much to read and does not have to guess.
+ */
+public class FileTransfer {
+  public static final int CHUNK_SIZE = 1024 * 1024;
+  public static final int CHUNKS_PER_REQUEST = 8;
+  public static final String MANIFEST = "manifest";
+  public static final String CHUNKS = "chunks";
+
+  /** What the client needs to know before and to check after a download */
+  public static class Manifest {
+    public final long size;
+    public final int chunkSize;
+    public final byte[] sha256;
+    public final long[] crcs; // CRC32 of every chunk
+
+    public Manifest(long size, int chunkSize, byte[] sha256, long[] crcs) {
+      this.size = size;
+      this.chunkSize = chunkSize;
+      this.sha256 = sha256;
+      this.crcs = crcs;
+    }
+
+    public int chunkCount() {
+      return crcs.length;
+    }
+
+    public long offset(int chunk) {
+      return (long) chunk * chunkSize;
+    }
+
+    public int length(int chunk) {
+      return (int) Math.min(chunkSize, size - offset(chunk));
+    }
+
+    /** Reads the file once and computes the checksums */
+    public static Manifest of(File file, int chunkSize) throws IOException {
+      MessageDigest sha = sha256();
+      long size = file.length();
+      long[] crcs = new long[(int) ((size + chunkSize - 1) / chunkSize)];
+      ByteBuffer buffer = ByteBuffer.allocateDirect(chunkSize);
+      CRC32 crc = new CRC32();
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        for (int chunk = 0; chunk < crcs.length; chunk++) {
+          buffer.clear();
+          long position = (long) chunk * chunkSize;
+          while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+            // until the chunk is full or the file ends
+          }
+          buffer.flip();
+          crc.reset();
+          crc.update(buffer.duplicate());
+          crcs[chunk] = crc.getValue();
+          sha.update(buffer);
+        }
+      }
+      return new Manifest(size, chunkSize, sha.digest(), crcs);
+    }
+
+    public void write(DataOutputStream out) throws IOException {
+      out.writeLong(size);
+      out.writeInt(chunkSize);
+      out.write(sha256);
+      out.writeInt(crcs.length);
+      for (long crc : crcs) {
+        out.writeInt((int) crc);
+      }
+    }
+
+    public static Manifest read(DataInputStream in) throws IOException {
+      long size = in.readLong();
+      int chunkSize = in.readInt();
+      byte[] sha256 = new byte[32];
+      in.readFully(sha256);
+      int count = in.readInt();
+      if (size < 0 || chunkSize <= 0 || count != (size + chunkSize - 1) / chunkSize) {
+        throw new IOException("Broken manifest: size " + size + ", chunk size " + chunkSize + ", chunks " + count);
+      }
+      long[] crcs = new long[count];
+      for (int i = 0; i < count; i++) {
+        crcs[i] = in.readInt() & 0xFFFFFFFFL;
+      }
+      return new Manifest(size, chunkSize, sha256, crcs);
+    }
+  }
+
+  public static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("Every Java has SHA-256", e);
+    }
+  }
+}
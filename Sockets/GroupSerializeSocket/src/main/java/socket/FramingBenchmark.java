@@ -0,0 +1,163 @@
+package socket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Purpose:
+ * Compares the old socket.IO.read (one byte per read, "nothing available" is
+ * the end of a message) with IO.FrameReader over loopback:
+ *  - one big message (100 MB by default): time, MB/s and read system calls
+ *  - 10000 small messages of 100 bytes sent one after the other: how many
+ *    messages the reader sees
+ *
+ * The read system calls come from /proc/self/io (Linux), the same as
+ *   strace -f -c -e trace=read java -cp ... socket.FramingBenchmark 100 9299 old
+ * would count. One mode per run, so strace counts only one of them.
+ *
+ * <p/>
+ * Ser321 Principles of Distributed Software Systems
+ */
+public class FramingBenchmark {
+  static final int SMALL_MESSAGES = 10000;
+  static final int SMALL_SIZE = 100;
+
+  /** socket.IO.read as it was before the frames */
+  static byte[] oldRead(InputStream in) throws IOException {
+    int count;
+    byte[] buffer = new byte[1];
+    try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
+      boolean startWait = true;
+      while ((startWait || in.available() > 0) &&
+          (count = in.read(buffer, 0, buffer.length)) != -1) {
+        outputStream.write(buffer, 0, count);
+        startWait = false;
+      }
+      return outputStream.toByteArray();
+    }
+  }
+
+  // read system calls of this process so far, -1 if not on Linux
+  static long readSyscalls() {
+    try {
+      for (String line : Files.readAllLines(Paths.get("/proc/self/io"))) {
+        if (line.startsWith("syscr:")) {
+          return Long.parseLong(line.substring(6).trim());
+        }
+      }
+    } catch (IOException e) {
+      // not Linux
+    }
+    return -1;
+  }
+
+  public static void main(String args[]) throws Exception {
+    if (args.length != 3 || !(args[2].equals("old") || args[2].equals("new"))) {
+      System.out.println("Expected Arguments: <megabytes(int)> <port(int)> <old|new>");
+      System.exit(0);
+    }
+    int size = Integer.parseInt(args[0]) * 1024 * 1024;
+    int port = Integer.parseInt(args[1]);
+    boolean framed = args[2].equals("new");
+    byte[] payload = new byte[size];
+    for (int i = 0; i < size; i += 4096) {
+      payload[i] = (byte) i;
+    }
+
+    ServerSocket serverSocket = new ServerSocket(port);
+    CountDownLatch bigOneRead = new CountDownLatch(1);
+    Thread sender = new Thread(() -> {
+      try (Socket s = serverSocket.accept()) {
+        s.setTcpNoDelay(true); // small messages go out right away, for both readers
+        OutputStream out = s.getOutputStream();
+        if (framed) {
+          IO.writeFrame(out, payload);
+        } else {
+          out.write(payload);
+          out.flush();
+        }
+        bigOneRead.await(); // else the old read takes the small ones as part of the big one
+        byte[] small = new byte[SMALL_SIZE];
+        for (int i = 0; i < SMALL_MESSAGES; i++) {
+          small[0] = (byte) i;
+          if (framed) {
+            IO.writeFrame(out, small);
+          } else {
+            out.write(small);
+            out.flush();
+          }
+        }
+      } catch (IOException | InterruptedException e) {
+        e.printStackTrace();
+      }
+    });
+    sender.start();
+
+    SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+    InputStream in = channel.socket().getInputStream();
+    IO.FrameReader reader = new IO.FrameReader(channel);
+
+    long syscalls = readSyscalls();
+    long start = System.nanoTime();
+    long received = 0;
+    int messages = 0;
+    if (framed) {
+      ByteBuffer frame = reader.readFrame();
+      received = frame.limit();
+      messages = 1;
+      BufferPool.release(frame);
+    } else {
+      // the old read cannot know where the message ends, we keep reading until we have all of it
+      while (received < size) {
+        received += oldRead(in).length;
+        messages++;
+      }
+    }
+    double seconds = (System.nanoTime() - start) / 1e9;
+    long bigSyscalls = readSyscalls() - syscalls;
+    bigOneRead.countDown();
+    System.out.printf("%s: %d MB in %.2f s, %.1f MB/s, %,d read system calls, the reader saw %d message(s), 1 was sent%n",
+        framed ? "frames  " : "old read", size / (1024 * 1024), seconds, size / (1024 * 1024) / seconds, bigSyscalls, messages);
+    if (received > size) {
+      System.out.println("          its last message had " + (received - size) + " bytes of the small messages after it in it");
+    }
+
+    // small messages: received must become SMALL_MESSAGES * SMALL_SIZE bytes
+    syscalls = readSyscalls();
+    start = System.nanoTime();
+    int seen = 0;
+    int wrongSize = 0;
+    long smallBytes = received - size; // what the old read took already with the big one
+    while (smallBytes < (long) SMALL_MESSAGES * SMALL_SIZE) {
+      int length;
+      if (framed) {
+        ByteBuffer frame = reader.readFrame();
+        length = frame.limit();
+        BufferPool.release(frame);
+      } else {
+        length = oldRead(in).length;
+      }
+      smallBytes += length;
+      seen++;
+      if (length != SMALL_SIZE) {
+        wrongSize++;
+      }
+    }
+    seconds = (System.nanoTime() - start) / 1e9;
+    System.out.printf("%s: %d messages of %d bytes in %.2f s, %,d read system calls, the reader saw %d messages, %d of them not %d bytes%n",
+        framed ? "frames  " : "old read", SMALL_MESSAGES, SMALL_SIZE, seconds, readSyscalls() - syscalls, seen, wrongSize, SMALL_SIZE);
+    reader.release();
+    channel.close();
+    serverSocket.close();
+  }
+}
@@ -1,33 +1,160 @@
 package socket;
 
-import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * Messages over a socket as frames: the length of the message (4 bytes, big
+ * endian) and then its bytes.
+ *
+ * Before, read() read one byte at a time and took "nothing available right now"
+ * as the end of a message. That is one system call per byte, and a message that
+ * arrives in two packets became two messages, two messages that arrive together
+ * became one. With the length in front the reader knows exactly where a message
+ * ends, whatever the network does.
+ *
+ * FrameReader reads as much as is there into a buffer (64 KB at a time) and takes
+ * the frames out of it, big frames are read straight into their own buffer. The
+ * buffers come from BufferPool.
+ */
 public class IO {
+  public static final int MAX_FRAME = 512 * 1024 * 1024; // a bigger length is an error, not a reason to allocate
+  private static final int READ_BUFFER = 64 * 1024;
+  private static final int MAX_READ = 1024 * 1024; // per system call, so Java does not need a huge temporary buffer
+
+  /** Sends data as one frame */
+  public static void writeFrame(OutputStream out, byte[] data) throws IOException {
+    writeFrame(out, data, 0, data.length);
+  }
+
+  public static void writeFrame(OutputStream out, byte[] data, int offset, int length) throws IOException {
+    if (length > MAX_FRAME) {
+      throw new IOException("Frame too long: " + length);
+    }
+    if (length <= READ_BUFFER) {
+      // small ones with one write, so header and message go out in one packet
+      ByteBuffer frame = BufferPool.acquire(4 + length);
+      frame.putInt(length).put(data, offset, length);
+      out.write(frame.array(), 0, 4 + length);
+      BufferPool.release(frame);
+    } else {
+      out.write(new byte[] {(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length});
+      out.write(data, offset, length);
+    }
+    out.flush();
+  }
+
+  public static void writeFrame(OutputStream out, String message) throws IOException {
+    writeFrame(out, message.getBytes(StandardCharsets.UTF_8));
+  }
+
   /**
-   * Socket read for an unknown receive size
-   * @param in
-   * @return byte array of the received.
-   * @throws IOException
-   * @throws InterruptedException
+   * Reads frames from one connection, use one per connection and only from one thread.
    */
-  public static byte[] read(InputStream in) throws IOException, InterruptedException {
-    int count;
-    byte[] buffer = new byte[1];
-    try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-      // startWait will allow this to block until the first packet is received
-      boolean startWait = true;
-      // while first packet or a packet is available, process
-      while ((startWait || in.available() > 0) && 
-          (count = in.read(buffer, 0, buffer.length)) != -1) { // were there bytes to read?
-        // if so, write them out
-        outputStream.write(buffer, 0, count);
-        // not first packet anymore
-        startWait = false;
+  public static class FrameReader {
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer; // the bytes between position and limit are read but not used yet
+    private final int maxFrame;
+
+    public FrameReader(ReadableByteChannel channel) {
+      this(channel, MAX_FRAME);
+    }
+
+    /**
+     * @param maxFrame longest frame this reader takes, e.g. small for requests from
+     * anyone, so a made up length cannot make us allocate MAX_FRAME bytes
+     */
+    public FrameReader(ReadableByteChannel channel, int maxFrame) {
+      this.channel = channel;
+      this.maxFrame = Math.min(maxFrame, MAX_FRAME);
+      this.buffer = BufferPool.acquire(READ_BUFFER);
+      buffer.flip(); // nothing in it yet
+    }
+
+    public FrameReader(InputStream in) {
+      this(Channels.newChannel(in));
+    }
+
+    /**
+     * The next frame, from position 0 to its limit. Give it to BufferPool.release
+     * when done with it. Returns null when the other side closed the connection
+     * between two frames.
+     */
+    public ByteBuffer readFrame() throws IOException {
+      if (!fill(4)) {
+        return null;
+      }
+      int length = buffer.getInt();
+      if (length < 0 || length > maxFrame) {
+        throw new IOException("Frame too long: " + length);
       }
+      ByteBuffer frame = BufferPool.acquire(length);
+      while (frame.hasRemaining()) {
+        if (buffer.hasRemaining()) {
+          // what we already read
+          int n = Math.min(buffer.remaining(), frame.remaining());
+          frame.put(buffer.array(), buffer.arrayOffset() + buffer.position(), n);
+          buffer.position(buffer.position() + n);
+        } else if (frame.remaining() >= buffer.capacity()) {
+          // a lot is missing: straight into the frame, no copy through our buffer
+          int limit = frame.limit();
+          frame.limit(frame.position() + Math.min(frame.remaining(), MAX_READ));
+          int n = channel.read(frame);
+          frame.limit(limit);
+          if (n < 0) {
+            throw new EOFException("Connection closed in the middle of a frame");
+          }
+        } else if (!fill(1)) {
+          throw new EOFException("Connection closed in the middle of a frame");
+        }
+      }
+      frame.flip();
+      return frame;
+    }
+
+    /** The next frame as a String (UTF-8), null when the other side closed the connection */
+    public String readString() throws IOException {
+      ByteBuffer frame = readFrame();
+      if (frame == null) {
+        return null;
+      }
+      String s = new String(frame.array(), frame.arrayOffset(), frame.limit(), StandardCharsets.UTF_8);
+      BufferPool.release(frame);
+      return s;
+    }
+
+    // at least needed bytes in buffer, false if the connection closed before any of them came
+    private boolean fill(int needed) throws IOException {
+      if (buffer.remaining() >= needed) {
+        return true;
+      }
+      boolean empty = !buffer.hasRemaining();
+      buffer.compact();
+      try {
+        while (buffer.position() < needed) {
+          // reads whatever is there, up to the whole buffer, not only what we need
+          if (channel.read(buffer) < 0) {
+            if (empty && buffer.position() == 0) {
+              return false;
+            }
+            throw new EOFException("Connection closed in the middle of a frame");
+          }
+        }
+      } finally {
+        buffer.flip();
+      }
+      return true;
+    }
 
-      return outputStream.toByteArray();
+    /** Gives the read buffer back to the pool */
+    public void release() {
+      BufferPool.release(buffer);
     }
   }
 }
@@ -0,0 +1,141 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Collections;
+
+/**
+ * Publishes many small messages to a multicast group by packing them into
+ * datagrams of up to MAX_DATAGRAM bytes, one system call and one packet header
+ * for many messages instead of one per message.
+ *
+ * A datagram is sent when the next message does not fit anymore, or (like Nagle
+ * for TCP) when the first message in it waited for flushInterval, so a quiet
+ * publisher does not hold a message back for long. flushInterval 0 sends every
+ * message alone, like Sender does.
+ *
+ * Datagram: batch number (long, to notice lost datagrams), number of messages
+ * (short), then per message its length (short) and its bytes.
+ * It is built directly in a direct ByteBuffer, which the channel can hand to the
+ * operating system without copying it first.
+ */
+public class BatchPublisher {
+	static final int MAX_DATAGRAM = 1472; // 1500 bytes Ethernet MTU - 20 IP - 8 UDP, no fragments
+	static final int HEADER = 8 + 2;
+
+	private final DatagramChannel channel;
+	private final InetSocketAddress target;
+	private final ByteBuffer batch = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+	private final long flushNanos;
+	private long batchNumber = 0;
+	private int count = 0;
+	private long firstWaiting = 0; // when the first message of this batch came
+	private volatile boolean running = true;
+
+	long datagrams = 0;
+	long messages = 0;
+
+	/**
+	 * @param flushMicros longest time a message waits for more, 0 to send every message alone
+	 */
+	public BatchPublisher(String group, int port, long flushMicros) throws IOException {
+		InetAddress address = InetAddress.getByName(group);
+		channel = DatagramChannel.open(StandardProtocolFamily.INET);
+		NetworkInterface multicastIf = multicastInterface();
+		if (multicastIf != null) { // else the system picks one
+			channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, multicastIf);
+		}
+		channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true); // so receivers on this machine get it
+		channel.setOption(StandardSocketOptions.SO_SNDBUF, 4 * 1024 * 1024);
+		target = new InetSocketAddress(address, port);
+		flushNanos = flushMicros * 1000;
+		batch.position(HEADER);
+		if (flushNanos > 0) {
+			Thread flusher = new Thread(this::flushLoop, "flusher");
+			flusher.setDaemon(true);
+			flusher.start();
+		}
+	}
+
+	/**
+	 * The first interface that is up and can multicast, else loopback (found by its
+	 * address, it is "lo" on Linux, "lo0" on macOS and something else on Windows).
+	 * Null if there is none.
+	 */
+	static NetworkInterface multicastInterface() throws SocketException {
+		for (NetworkInterface n : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+			if (n.isUp() && n.supportsMulticast() && !n.isLoopback()) {
+				return n;
+			}
+		}
+		return NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+	}
+
+	/** Adds the bytes from position to limit of message, sends if the datagram is full */
+	public synchronized void publish(ByteBuffer message) throws IOException {
+		int length = message.remaining();
+		if (length > MAX_DATAGRAM - HEADER - 2) {
+			throw new IOException("Message too long: " + length);
+		}
+		if (batch.remaining() < 2 + length) {
+			flush();
+		}
+		if (count == 0) {
+			firstWaiting = System.nanoTime();
+		}
+		batch.putShort((short) length);
+		batch.put(message);
+		count++;
+		messages++;
+		if (flushNanos == 0) {
+			flush();
+		}
+	}
+
+	/** Sends what is waiting now */
+	public synchronized void flush() throws IOException {
+		if (count == 0) {
+			return;
+		}
+		batch.putLong(0, batchNumber++);
+		batch.putShort(8, (short) count);
+		batch.flip();
+		channel.send(batch, target);
+		datagrams++;
+		batch.clear();
+		batch.position(HEADER);
+		count = 0;
+	}
+
+	// the Nagle part: nothing waits longer than flushInterval
+	private void flushLoop() {
+		long sleepNanos = Math.max(flushNanos / 2, 50000);
+		while (running) {
+			try {
+				Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+				synchronized (this) {
+					if (count > 0 && System.nanoTime() - firstWaiting >= flushNanos) {
+						flush();
+					}
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (IOException e) {
+				if (running) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	public void close() throws IOException {
+		flush();
+		running = false;
+		channel.close();
+	}
+}
@@ -0,0 +1,106 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.MembershipKey;
+
+/**
+ * Receives the datagrams of a BatchPublisher and hands every message in them to
+ * the Handler. There is one direct buffer for all datagrams and the messages are
+ * not copied out of it: the Handler gets that buffer with position and limit set
+ * around the message, so it has to read (or copy) it during the call.
+ *
+ * The batch numbers tell how many datagrams got lost (they do not say how many
+ * messages were in them). Anyone can send to the group, so counts and lengths are
+ * read unsigned and a datagram that does not add up is dropped and counted in
+ * brokenDatagrams, the thread goes on with the next one.
+ */
+public class BatchSubscriber extends Thread {
+	/** message is only valid during the call */
+	public interface Handler {
+		void onMessage(ByteBuffer message);
+	}
+
+	private final DatagramChannel channel;
+	private final MembershipKey membership;
+	private final Handler handler;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(BatchPublisher.MAX_DATAGRAM);
+	private long nextBatch = -1;
+
+	volatile long datagrams = 0;
+	volatile long messages = 0;
+	volatile long lostDatagrams = 0;
+	volatile long brokenDatagrams = 0; // did not parse, or the Handler threw
+
+	public BatchSubscriber(String group, int port, Handler handler) throws IOException {
+		channel = DatagramChannel.open(StandardProtocolFamily.INET);
+		channel.setOption(StandardSocketOptions.SO_REUSEADDR, true); // more subscribers on one machine
+		channel.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+		channel.bind(new InetSocketAddress(port));
+		NetworkInterface multicastIf = BatchPublisher.multicastInterface();
+		if (multicastIf == null) {
+			throw new IOException("No network interface to join " + group + " on");
+		}
+		membership = channel.join(InetAddress.getByName(group), multicastIf);
+		this.handler = handler;
+		setDaemon(true);
+	}
+
+	public void run() {
+		try {
+			while (true) {
+				buffer.clear();
+				channel.receive(buffer);
+				buffer.flip();
+				if (buffer.remaining() < BatchPublisher.HEADER) {
+					continue;
+				}
+				try {
+					read();
+				} catch (RuntimeException e) {
+					// a broken datagram or a Handler that failed, only this datagram is lost
+					brokenDatagrams++;
+				}
+				datagrams++;
+			}
+		} catch (ClosedChannelException e) {
+			// closed
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	// the messages of the datagram in buffer, anyone can send to the group so nothing is trusted
+	private void read() {
+		long batch = buffer.getLong();
+		int count = buffer.getShort() & 0xFFFF;
+		if (nextBatch >= 0 && batch > nextBatch) {
+			lostDatagrams += batch - nextBatch;
+		}
+		nextBatch = Math.max(nextBatch, batch + 1);
+		int end = buffer.limit();
+		for (int i = 0; i < count && buffer.remaining() >= 2; i++) {
+			int length = buffer.getShort() & 0xFFFF;
+			int next = buffer.position() + length;
+			if (length < 0 || next > end) {
+				brokenDatagrams++;
+				return; // the rest of it cannot be trusted
+			}
+			buffer.limit(next);
+			handler.onMessage(buffer);
+			buffer.limit(end);
+			buffer.position(next);
+			messages++;
+		}
+	}
+
+	public void close() throws IOException {
+		membership.drop();
+		channel.close();
+	}
+}
@@ -0,0 +1,38 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.MulticastSocket;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A MulticastSocket that throws away some of the packets it receives, to see what
+ * a lossy network does to a protocol without needing a lossy network. Works for
+ * unicast too, a MulticastSocket that joins no group is just a DatagramSocket.
+ */
+class LossyMulticastSocket extends MulticastSocket {
+	private final double lossRate;
+	private final Random random = new Random();
+	final AtomicLong dropped = new AtomicLong();
+
+	/**
+	 * @param port 0 for any free port
+	 * @param lossRate 0.0 to 1.0, e.g. 0.05 drops every 20th packet on average
+	 */
+	LossyMulticastSocket(int port, double lossRate) throws IOException {
+		super(port);
+		this.lossRate = lossRate;
+	}
+
+	@Override
+	public void receive(DatagramPacket packet) throws IOException {
+		int length = packet.getLength();
+		while (true) {
+			super.receive(packet);
+			if (random.nextDouble() >= lossRate) {
+				return;
+			}
+			dropped.incrementAndGet();
+			packet.setLength(length); // receive shrinks it to the packet it got
+		}
+	}
+}
@@ -22,11 +22,12 @@ public class MulticastPeer{
  			byte [] m = args[0].getBytes();
 			DatagramPacket messageOut = new DatagramPacket(m, m.length, group, port);
 			s.send(messageOut);	
+			byte[] buffer = new byte[10 * 1024]; // one buffer for all messages
+			DatagramPacket messageIn = new DatagramPacket(buffer, buffer.length);
  			for(int i = 0; i < 3;i++) {		// get messages from others in group
-                byte[] buffer = new byte[10 * 1024];
- 				DatagramPacket messageIn = new DatagramPacket(buffer, buffer.length);
+ 				messageIn.setLength(buffer.length); // receive made it the length of the last message
  				s.receive(messageIn);
- 				System.out.println("Received:" + new String(messageIn.getData()));
+ 				System.out.println("Received:" + new String(messageIn.getData(), 0, messageIn.getLength())); // only the bytes we got, not the whole buffer
   			}
 			s.leaveGroup(group);		
 		}catch (SocketException e){System.out.println("Socket: " + e.getMessage());
@@ -0,0 +1,74 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Publishes small messages at increasing rates to a BatchSubscriber on the same
+ * machine, once every message in its own datagram and once batched, and prints how
+ * many messages per second really arrived and how many got lost.
+ *
+ * Every message starts with its number, so the subscriber counts exactly what is
+ * missing. The publisher keeps to the rate by sending what is due every millisecond.
+ */
+class MulticastRateTest {
+	static final int[] RATES = {50000, 100000, 200000, 400000, 800000, 1600000, Integer.MAX_VALUE};
+
+	static class Counter implements BatchSubscriber.Handler {
+		volatile long received = 0;
+
+		public void onMessage(ByteBuffer message) {
+			message.getLong(message.position()); // read it, the subscriber does not copy it for us
+			received++;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 5) {
+			System.out.println("USAGE: java MulticastRateTest messageSize<int> millis<int per rate> flushMicros<int> address<String> port<int>");
+			System.exit(1);
+		}
+		int size = Integer.parseInt(args[0]);
+		int millis = Integer.parseInt(args[1]);
+		long flushMicros = Long.parseLong(args[2]);
+		String group = args[3];
+		int port = Integer.parseInt(args[4]);
+
+		ByteBuffer message = ByteBuffer.allocate(Math.max(8, size));
+		for (long flush : new long[] {0, flushMicros}) {
+			System.out.println(flush == 0 ? "one message per datagram:" : "batched, flushed after " + flush + " us at the latest:");
+			for (int rate : RATES) {
+				Counter counter = new Counter();
+				BatchSubscriber subscriber = new BatchSubscriber(group, port, counter);
+				subscriber.start();
+				BatchPublisher publisher = new BatchPublisher(group, port, flush);
+				port++; // a fresh port for every run, no late datagrams from the last one
+
+				long start = System.nanoTime();
+				long end = start + millis * 1000000L;
+				long sent = 0;
+				long now;
+				while ((now = System.nanoTime()) < end) {
+					long due = rate == Integer.MAX_VALUE ? sent + 1000 : (long) ((now - start) / 1e9 * rate);
+					// when we cannot keep up with the rate, stop at the end anyway
+					while (sent < due && (sent % 1024 != 0 || System.nanoTime() < end)) {
+						message.clear();
+						message.putLong(0, sent);
+						publisher.publish(message);
+						sent++;
+					}
+					if (rate != Integer.MAX_VALUE) {
+						Thread.sleep(1);
+					}
+				}
+				publisher.flush();
+				double seconds = (System.nanoTime() - start) / 1e9;
+				Thread.sleep(300); // let the subscriber read what is still in its socket
+				long received = counter.received;
+				String target = rate == Integer.MAX_VALUE ? "max" : String.format("%,d", rate);
+				System.out.printf("  rate %10s/s: sent %,10.0f msgs/s in %,9d datagrams, received %,10.0f msgs/s, lost %5.1f%% of the messages (%,d datagrams)%n",
+					target, sent / seconds, publisher.datagrams, received / seconds, 100.0 * (sent - received) / sent, subscriber.lostDatagrams);
+				publisher.close();
+				subscriber.close();
+			}
+		}
+		System.exit(0);
+	}
+}
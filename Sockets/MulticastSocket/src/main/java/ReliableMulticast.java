@@ -0,0 +1,372 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reliable, ordered multicast on top of plain UDP multicast.
+ *
+ * Every sender numbers its messages (seq 0, 1, 2, ...) and keeps the last HISTORY
+ * of them. A receiver keeps per sender the next seq it expects:
+ *  - the expected one: deliver it and everything waiting behind it
+ *  - a higher one: there is a gap, keep it and ask the sender for the missing ones
+ *    with a NACK ("not acknowledged", a list of seq ranges) sent by unicast
+ *  - a lower one: a duplicate, ignore it
+ * The sender answers a NACK with REPAIR packets (the same messages again), by unicast
+ * to the receiver that asked, so the others do not get them twice. If a message is
+ * not in the history anymore it answers GONE and the receiver skips it, that is the
+ * only case where a message is lost. NACKs are repeated every NACK_INTERVAL as long
+ * as something is missing, repairs can be lost as well.
+ *
+ * A receiver only notices a gap with the next message. So that the loss of the
+ * last messages is noticed too, a sender multicasts a HEARTBEAT with its last seq
+ * when it did not send anything for HEARTBEAT_INTERVAL. A receiver that hears of a
+ * sender for the first time starts at seq 0 while the sender still has it, later
+ * than that it joined late and starts with the first message it sees.
+ *
+ * Packet: type (1 byte), sender id (int), then
+ *  - DATA, REPAIR: seq (long), the message
+ *  - HEARTBEAT: last seq (long)
+ *  - NACK, GONE: number of ranges (short), from and to (long, inclusive) per range
+ * Everything is sent from the unicast socket, so a receiver knows where to send a
+ * NACK from the source address of the packet. The multicast socket only receives.
+ */
+public class ReliableMulticast {
+	static final byte DATA = 1;
+	static final byte NACK = 2;
+	static final byte REPAIR = 3;
+	static final byte HEARTBEAT = 4;
+	static final byte GONE = 5;
+
+	static final int HISTORY = 8192; // messages a sender can repeat
+	static final int MAX_MESSAGE = 8 * 1024;
+	static final int HEADER = 1 + 4 + 8;
+	static final int MAX_RANGES = 64; // per NACK packet
+	static final int MAX_REPAIRS = 256; // per NACK, the rest is asked for again with the next NACK
+	static final long NACK_INTERVAL = 20; // ms
+	static final long HEARTBEAT_INTERVAL = 50; // ms
+
+	/** Gets the messages of all senders, in order per sender */
+	public interface Handler {
+		void deliver(int sender, long seq, byte[] message);
+	}
+
+	private final InetAddress group;
+	private final int port;
+	private final MulticastSocket groupSocket;
+	private final DatagramSocket unicastSocket;
+	private final Handler handler;
+	private final int id = new Random().nextInt();
+	private volatile boolean running = true;
+
+	// sending side, guarded by history
+	private final byte[][] history = new byte[HISTORY][]; // whole packets, seq % HISTORY
+	private long nextSeq = 0;
+	private volatile long lastSend = 0;
+
+	// receiving side, guarded by this
+	private final Map<Integer, Source> sources = new HashMap<Integer, Source>();
+
+	final AtomicLong sent = new AtomicLong();
+	final AtomicLong delivered = new AtomicLong();
+	final AtomicLong nacksSent = new AtomicLong();
+	final AtomicLong repairsSent = new AtomicLong();
+	final AtomicLong repairsUsed = new AtomicLong(); // repairs that filled a gap
+	final AtomicLong duplicates = new AtomicLong();
+	final AtomicLong lost = new AtomicLong(); // GONE, not in the history of the sender anymore
+
+	/** What a receiver knows about one sender */
+	private static class Source {
+		final SocketAddress address; // its unicast socket
+		long next; // seq we deliver next
+		long highest; // highest seq we know of
+		final TreeMap<Long, byte[]> waiting = new TreeMap<Long, byte[]>(); // arrived early
+		long lastNack = 0;
+
+		Source(SocketAddress address, long first) {
+			this.address = address;
+			this.next = first;
+			this.highest = first - 1;
+		}
+
+		boolean missing() {
+			return highest >= next;
+		}
+	}
+
+	public ReliableMulticast(String group, int port, Handler handler) throws IOException {
+		this(InetAddress.getByName(group), port, new MulticastSocket(port), new DatagramSocket(), handler);
+	}
+
+	/**
+	 * @param groupSocket bound to port, joins the group here
+	 * @param unicastSocket any free port, sends everything and gets NACKs and repairs
+	 */
+	public ReliableMulticast(InetAddress group, int port, MulticastSocket groupSocket, DatagramSocket unicastSocket, Handler handler) throws IOException {
+		this.group = group;
+		this.port = port;
+		this.groupSocket = groupSocket;
+		this.unicastSocket = unicastSocket;
+		this.handler = handler;
+		groupSocket.joinGroup(new InetSocketAddress(group, port), null); // null: the default multicast interface
+		groupSocket.setReceiveBufferSize(4 * 1024 * 1024);
+		unicastSocket.setReceiveBufferSize(4 * 1024 * 1024);
+		start("multicast receiver", () -> receiveLoop(groupSocket));
+		start("unicast receiver", () -> receiveLoop(unicastSocket));
+		start("nack timer", this::timerLoop);
+	}
+
+	private void start(String name, Runnable loop) {
+		Thread t = new Thread(loop, name);
+		t.setDaemon(true);
+		t.start();
+	}
+
+	/** Multicasts the message to the group, returns its seq */
+	public long send(byte[] message) throws IOException {
+		if (message.length > MAX_MESSAGE) {
+			throw new IOException("Message too long: " + message.length);
+		}
+		byte[] packet;
+		long seq;
+		synchronized (history) {
+			seq = nextSeq++;
+			packet = ByteBuffer.allocate(HEADER + message.length).put(DATA).putInt(id).putLong(seq).put(message).array();
+			history[(int) (seq % HISTORY)] = packet;
+		}
+		unicastSocket.send(new DatagramPacket(packet, packet.length, group, port));
+		lastSend = System.currentTimeMillis();
+		sent.incrementAndGet();
+		return seq;
+	}
+
+	public void close() {
+		running = false;
+		try {
+			groupSocket.leaveGroup(new InetSocketAddress(group, port), null);
+		} catch (IOException e) {
+			// closing anyway
+		}
+		groupSocket.close();
+		unicastSocket.close();
+	}
+
+	private void receiveLoop(DatagramSocket socket) {
+		byte[] buffer = new byte[HEADER + MAX_MESSAGE];
+		DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+		while (running) {
+			try {
+				packet.setLength(buffer.length);
+				socket.receive(packet);
+				// only the bytes of this packet, the buffer is reused
+				ByteBuffer in = ByteBuffer.wrap(buffer, 0, packet.getLength());
+				if (in.remaining() < 5) {
+					continue;
+				}
+				byte type = in.get();
+				int sender = in.getInt();
+				if (type == NACK) {
+					if (sender == id) {
+						repair(in, packet.getSocketAddress());
+					}
+				} else if (sender != id) { // our own messages come back over loopback
+					received(type, sender, in, packet.getSocketAddress());
+				}
+			} catch (IOException e) {
+				if (running) {
+					e.printStackTrace();
+				}
+			} catch (RuntimeException e) {
+				System.out.println("Broken packet: " + e);
+			}
+		}
+	}
+
+	private synchronized void received(byte type, int sender, ByteBuffer in, SocketAddress from) throws IOException {
+		if (type == GONE) {
+			Source source = sources.get(sender);
+			if (source != null) {
+				int ranges = in.getShort();
+				for (int r = 0; r < ranges; r++) {
+					long fromSeq = in.getLong();
+					long toSeq = in.getLong();
+					for (long seq = Math.max(fromSeq, source.next); seq <= toSeq; seq++) {
+						if (!source.waiting.containsKey(seq)) {
+							source.waiting.put(seq, null); // delivered as lost
+						}
+					}
+				}
+				deliverWaiting(sender, source);
+			}
+			return;
+		}
+		long seq = in.getLong();
+		Source source = sources.get(sender);
+		if (source == null) {
+			// a new sender: if it can still repeat its first message we want all of them
+			// (the first could be lost), else we joined late and start with what we see now
+			long first = type == HEARTBEAT ? seq + 1 : seq;
+			source = new Source(from, first < HISTORY ? 0 : first);
+			sources.put(sender, source);
+		}
+		if (type == HEARTBEAT) {
+			if (seq > source.highest) {
+				source.highest = seq;
+				nack(sender, source);
+			}
+			return;
+		}
+		if (seq < source.next || source.waiting.containsKey(seq)) {
+			duplicates.incrementAndGet();
+			return;
+		}
+		byte[] message = new byte[in.remaining()];
+		in.get(message);
+		if (type == REPAIR) {
+			repairsUsed.incrementAndGet();
+		}
+		long gapFrom = source.highest + 1;
+		source.highest = Math.max(source.highest, seq);
+		source.waiting.put(seq, message);
+		deliverWaiting(sender, source);
+		if (seq > gapFrom) {
+			// only the new gap, right away. Older gaps were asked for already, the timer asks again
+			sendNack(sender, source.address, Math.max(gapFrom, source.next), seq - 1);
+		}
+	}
+
+	// delivers from next on as long as there is no gap, null in waiting is a GONE message
+	private void deliverWaiting(int sender, Source source) {
+		while (!source.waiting.isEmpty() && source.waiting.firstKey() == source.next) {
+			byte[] message = source.waiting.remove(source.next);
+			if (message == null) {
+				lost.incrementAndGet();
+			} else {
+				handler.deliver(sender, source.next, message);
+				delivered.incrementAndGet();
+			}
+			source.next++;
+		}
+	}
+
+	// asks the sender for everything between next and highest we do not have
+	private void nack(int sender, Source source) throws IOException {
+		List<long[]> ranges = new ArrayList<long[]>();
+		long from = source.next;
+		for (long seq : source.waiting.keySet()) {
+			if (seq > from) {
+				ranges.add(new long[] {from, seq - 1});
+			}
+			from = seq + 1;
+			if (ranges.size() == MAX_RANGES) {
+				break;
+			}
+		}
+		if (ranges.size() < MAX_RANGES && from <= source.highest) {
+			ranges.add(new long[] {from, source.highest});
+		}
+		if (ranges.isEmpty()) {
+			return;
+		}
+		sendNack(sender, source.address, ranges);
+		source.lastNack = System.currentTimeMillis();
+	}
+
+	private void sendNack(int sender, SocketAddress to, long from, long until) throws IOException {
+		List<long[]> ranges = new ArrayList<long[]>();
+		ranges.add(new long[] {from, until});
+		sendNack(sender, to, ranges);
+	}
+
+	private void sendNack(int sender, SocketAddress to, List<long[]> ranges) throws IOException {
+		ByteBuffer out = ByteBuffer.allocate(5 + 2 + ranges.size() * 16).put(NACK).putInt(sender).putShort((short) ranges.size());
+		for (long[] range : ranges) {
+			out.putLong(range[0]).putLong(range[1]);
+		}
+		unicastSocket.send(new DatagramPacket(out.array(), out.position(), to));
+		nacksSent.incrementAndGet();
+	}
+
+	// sender side: sends the asked for messages again, to the one who asked
+	private void repair(ByteBuffer in, SocketAddress to) throws IOException {
+		int ranges = in.getShort();
+		List<long[]> gone = new ArrayList<long[]>();
+		int repairs = 0;
+		for (int r = 0; r < ranges; r++) {
+			long from = in.getLong();
+			long until = in.getLong();
+			for (long seq = from; seq <= until && repairs < MAX_REPAIRS; seq++) {
+				byte[] packet;
+				synchronized (history) {
+					packet = seq < nextSeq && seq > nextSeq - 1 - HISTORY ? history[(int) (seq % HISTORY)] : null;
+				}
+				if (packet == null) {
+					if (seq < nextSeq) {
+						gone.add(new long[] {seq, seq});
+					}
+					continue;
+				}
+				byte[] repair = packet.clone();
+				repair[0] = REPAIR;
+				unicastSocket.send(new DatagramPacket(repair, repair.length, to));
+				repairsSent.incrementAndGet();
+				repairs++;
+			}
+		}
+		if (!gone.isEmpty()) {
+			ByteBuffer out = ByteBuffer.allocate(5 + 2 + 16).put(GONE).putInt(id).putShort((short) 1);
+			out.putLong(gone.get(0)[0]).putLong(gone.get(gone.size() - 1)[1]);
+			unicastSocket.send(new DatagramPacket(out.array(), out.position(), to));
+		}
+	}
+
+	// repeats NACKs while something is missing, sends heartbeats when we are quiet
+	private void timerLoop() {
+		while (running) {
+			try {
+				Thread.sleep(NACK_INTERVAL / 2);
+				long now = System.currentTimeMillis();
+				synchronized (this) {
+					for (Map.Entry<Integer, Source> e : sources.entrySet()) {
+						Source source = e.getValue();
+						if (source.missing() && now - source.lastNack >= NACK_INTERVAL) {
+							nack(e.getKey(), source);
+						}
+					}
+				}
+				long last;
+				synchronized (history) {
+					last = nextSeq - 1;
+				}
+				if (last >= 0 && now - lastSend >= HEARTBEAT_INTERVAL) {
+					byte[] heartbeat = ByteBuffer.allocate(HEADER).put(HEARTBEAT).putInt(id).putLong(last).array();
+					unicastSocket.send(new DatagramPacket(heartbeat, heartbeat.length, group, port));
+					lastSend = now;
+				}
+			} catch (InterruptedException e) {
+				return;
+			} catch (IOException e) {
+				if (running) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/** e.g. "1000 sent, 40 repairs sent, 0 delivered, 0 nacks, 0 repairs used, 0 duplicates, 0 lost" */
+	public String stats() {
+		return sent.get() + " sent, " + repairsSent.get() + " repairs sent, " + delivered.get() + " delivered, "
+			+ nacksSent.get() + " nacks, " + repairsUsed.get() + " repairs used, " + duplicates.get() + " duplicates, " + lost.get() + " lost";
+	}
+}
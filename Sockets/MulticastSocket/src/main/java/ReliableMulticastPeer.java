@@ -0,0 +1,32 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Like MulticastPeer, but with ReliableMulticast: every line typed in is sent to the
+ * group and every message of the others is printed, none missing and in order per sender.
+ * With a loss rate > 0 the sockets drop packets on purpose (see LossyMulticastSocket).
+ */
+public class ReliableMulticastPeer {
+	public static void main(String[] args) throws Exception {
+		if (args.length != 4) {
+			System.out.println("USAGE: java ReliableMulticastPeer name<String> address<String> port<int> loss<0.0-1.0>");
+			System.exit(1);
+		}
+		String name = args[0];
+		int port = Integer.parseInt(args[2]);
+		double loss = Double.parseDouble(args[3]);
+		ReliableMulticast multicast = new ReliableMulticast(java.net.InetAddress.getByName(args[1]), port,
+			new LossyMulticastSocket(port, loss), new LossyMulticastSocket(0, loss),
+			(sender, seq, message) -> System.out.println("[" + seq + "] " + new String(message, StandardCharsets.UTF_8)));
+
+		System.out.println("> Type messages, stop to quit");
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+		String line;
+		while ((line = in.readLine()) != null && !line.equals("stop")) {
+			multicast.send((name + ": " + line).getBytes(StandardCharsets.UTF_8));
+		}
+		System.out.println(multicast.stats());
+		multicast.close();
+	}
+}
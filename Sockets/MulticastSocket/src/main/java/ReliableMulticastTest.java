@@ -0,0 +1,122 @@
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One sender and a few receivers in one JVM on loopback, every receiver drops
+ * packets with LossyMulticastSocket (multicast and unicast, so NACKs and repairs
+ * get lost as well). Checks that every receiver got every message exactly once and
+ * in order, and prints how fast and how many messages had to be repaired.
+ *
+ * Without ReliableMulticast (loss 0 and the same plain sockets) we would simply miss
+ * the dropped messages, which is what the first line shows.
+ */
+class ReliableMulticastTest {
+
+	/** Checks the order, the message is its own seq as a long */
+	static class Receiver implements ReliableMulticast.Handler {
+		final AtomicLong received = new AtomicLong();
+		volatile long lastDelivery = 0;
+		volatile String error = null;
+		long expected = 0;
+
+		public void deliver(int sender, long seq, byte[] message) {
+			long value = ByteBuffer.wrap(message).getLong();
+			if (seq != expected || value != seq) {
+				error = "expected " + expected + " got seq " + seq + " with " + value;
+			}
+			expected = seq + 1;
+			received.incrementAndGet();
+			lastDelivery = System.nanoTime();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 5) {
+			System.out.println("USAGE: java ReliableMulticastTest receivers<int> messages<int> loss<0.0-1.0> address<String> port<int>");
+			System.exit(1);
+		}
+		int receivers = Integer.parseInt(args[0]);
+		int messages = Integer.parseInt(args[1]);
+		double loss = Double.parseDouble(args[2]);
+		InetAddress group = InetAddress.getByName(args[3]);
+		int port = Integer.parseInt(args[4]);
+
+		List<Receiver> handlers = new ArrayList<Receiver>();
+		List<ReliableMulticast> nodes = new ArrayList<ReliableMulticast>();
+		List<LossyMulticastSocket> sockets = new ArrayList<LossyMulticastSocket>();
+		for (int i = 0; i < receivers; i++) {
+			Receiver handler = new Receiver();
+			LossyMulticastSocket groupSocket = new LossyMulticastSocket(port, loss);
+			LossyMulticastSocket unicastSocket = new LossyMulticastSocket(0, loss);
+			sockets.add(groupSocket);
+			sockets.add(unicastSocket);
+			handlers.add(handler);
+			nodes.add(new ReliableMulticast(group, port, groupSocket, unicastSocket, handler));
+		}
+		LossyMulticastSocket senderUnicast = new LossyMulticastSocket(0, loss); // NACKs get lost too
+		ReliableMulticast sender = new ReliableMulticast(group, port, new LossyMulticastSocket(port, 0), senderUnicast, (s, seq, m) -> { });
+
+		long start = System.nanoTime();
+		ByteBuffer message = ByteBuffer.allocate(8 + 200);
+		for (long seq = 0; seq < messages; seq++) {
+			message.clear();
+			message.putLong(seq);
+			sender.send(message.array());
+			if (seq % 100 == 99) {
+				Thread.sleep(1); // the sockets of the receivers only take so much at once
+			}
+		}
+		long sendNanos = System.nanoTime() - start;
+
+		// wait until all have all (or nothing changes for 3 s)
+		long lastChange = System.currentTimeMillis();
+		long total = -1;
+		while (System.currentTimeMillis() - lastChange < 3000) {
+			long now = 0;
+			for (Receiver r : handlers) {
+				now += r.received.get();
+			}
+			if (now == (long) messages * receivers) {
+				break;
+			}
+			if (now != total) {
+				total = now;
+				lastChange = System.currentTimeMillis();
+			}
+			Thread.sleep(10);
+		}
+
+		long dropped = senderUnicast.dropped.get();
+		for (LossyMulticastSocket s : sockets) {
+			dropped += s.dropped.get();
+		}
+		long repairsUsed = 0;
+		long nacks = 0;
+		long lost = 0;
+		long complete = 0;
+		boolean ok = true;
+		for (int i = 0; i < receivers; i++) {
+			Receiver r = handlers.get(i);
+			ReliableMulticast node = nodes.get(i);
+			repairsUsed += node.repairsUsed.get();
+			nacks += node.nacksSent.get();
+			lost += node.lost.get();
+			complete = Math.max(complete, r.lastDelivery - start);
+			if (r.error != null || r.received.get() != messages) {
+				ok = false;
+				System.out.println("receiver " + i + ": " + r.received.get() + " of " + messages + (r.error == null ? "" : ", " + r.error));
+			}
+		}
+		System.out.printf("loss %.0f%%: %d receivers, %d messages, %d packets dropped, plain multicast would miss %.1f%% per receiver%n",
+			loss * 100, receivers, messages, dropped, loss * 100);
+		System.out.printf("sending took %d ms, all delivered after %d ms, %.0f messages/s delivered per receiver%n",
+			sendNanos / 1000000, complete / 1000000, messages / (complete / 1e9));
+		System.out.printf("repair rate %.2f%% (%d of %d deliveries repaired), %d nacks, %d repairs sent, %d lost (not in history), %s%n",
+			100.0 * repairsUsed / ((long) messages * receivers), repairsUsed, (long) messages * receivers, nacks,
+			sender.repairsSent.get(), lost, ok ? "all complete and in order" : "NOT complete");
+		System.exit(0);
+	}
+}
@@ -21,8 +21,9 @@ class Sender {
 		InetAddress group = InetAddress.getByName(addr);
     MulticastSocket socket = new MulticastSocket(port);
     socket.joinGroup(group);
+		byte[] bytes = msg.getBytes(); // bytes, not chars, they differ for non ASCII characters
 		DatagramPacket packet =
-			new DatagramPacket(msg.getBytes(), msg.length(), group, port);
+			new DatagramPacket(bytes, bytes.length, group, port);
       socket.send(packet);
       socket.leaveGroup(group);
       socket.close();
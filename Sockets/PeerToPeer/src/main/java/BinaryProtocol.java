@@ -0,0 +1,285 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compact binary format for the join and the peer list we answer it with.
+ *
+ * Every message is a frame: type (1 byte), length of the rest (varint), the fields.
+ *  - JOIN:  username, host, port
+ *  - PEERS: leader ("" if none), number of peers, then host and port of every peer
+ * Numbers are varints (7 bits per byte, the high bit says "more bytes follow", so a
+ * port takes 2 or 3 bytes), strings are their UTF-8 length as varint and the UTF-8
+ * bytes. Nothing is escaped, so quotes or anything else in a message are fine, and
+ * the reader knows the length before it reads, no searching for the end of a line.
+ *
+ * A frame never starts with '{', so a Decoder can also read the JSON lines that are
+ * sent on the same connection (chat and everything else that goes by gossip, and
+ * the failure detection), next() then returns JSON and the line is in json.
+ *
+ * Encoder and Decoder reuse their byte arrays, use one per thread or connection.
+ */
+public class BinaryProtocol {
+	public static final int JSON = 0; // not a frame, a JSON line
+	// 1 was a chat frame, chat goes by gossip as JSON lines now
+	public static final int JOIN = 2;
+	public static final int PEERS = 3;
+	static final int MAX_FRAME = 1 << 20; // bigger frames are an error, not a reason to allocate a huge array
+
+	/**
+	 * Builds one frame at a time in a reused array: join(...), or
+	 * beginPeers(...) with a peer(...) per peer and endPeers(), then writeTo or toByteArray.
+	 */
+	public static class Encoder {
+		static final int HEADER = 6; // room for the type and the longest varint of a length
+		private byte[] buffer = new byte[256];
+		private int size;
+		private int start; // where the finished frame starts
+
+		private void ensure(int more) {
+			if (size + more > buffer.length) {
+				byte[] bigger = new byte[Math.max(size + more, buffer.length * 2)];
+				System.arraycopy(buffer, 0, bigger, 0, size);
+				buffer = bigger;
+			}
+		}
+
+		private void begin() {
+			size = HEADER;
+		}
+
+		// puts type and length in front of the fields
+		private void end(int type) {
+			int length = size - HEADER;
+			int varintSize = 1;
+			for (int v = length; (v & ~0x7F) != 0; v >>>= 7) {
+				varintSize++;
+			}
+			start = HEADER - 1 - varintSize;
+			buffer[start] = (byte) type;
+			int at = start + 1;
+			int v = length;
+			while ((v & ~0x7F) != 0) {
+				buffer[at++] = (byte) ((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			buffer[at] = (byte) v;
+		}
+
+		private void varint(int value) {
+			ensure(5);
+			while ((value & ~0x7F) != 0) {
+				buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			buffer[size++] = (byte) value;
+		}
+
+		private void string(String value) {
+			byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+			varint(utf8.length);
+			ensure(utf8.length);
+			System.arraycopy(utf8, 0, buffer, size, utf8.length);
+			size += utf8.length;
+		}
+
+		public Encoder join(String username, String host, int port) {
+			begin();
+			string(username);
+			string(host);
+			varint(port);
+			end(JOIN);
+			return this;
+		}
+
+		public Encoder beginPeers(String leader, int count) {
+			begin();
+			string(leader == null ? "" : leader);
+			varint(count);
+			return this;
+		}
+
+		public Encoder peer(String host, int port) {
+			string(host);
+			varint(port);
+			return this;
+		}
+
+		public Encoder endPeers() {
+			end(PEERS);
+			return this;
+		}
+
+		/** Bytes of the last frame */
+		public int length() {
+			return size - start;
+		}
+
+		public void writeTo(OutputStream out) throws IOException {
+			out.write(buffer, start, size - start);
+		}
+
+		/** A copy of the last frame, e.g. to send the same frame to many peers */
+		public byte[] toByteArray() {
+			byte[] frame = new byte[size - start];
+			System.arraycopy(buffer, start, frame, 0, frame.length);
+			return frame;
+		}
+	}
+
+	/**
+	 * Reads frames (and JSON lines) from one connection. next() reads a message and
+	 * puts its fields into the public fields below, they are overwritten by the next one.
+	 */
+	public static class Decoder {
+		private final InputStream in;
+		private byte[] buffer = new byte[256];
+		private int pos;
+		private int limit;
+
+		public int type;
+		public String username;
+		public String host;
+		public int port;
+		public String leader;
+		public String json;
+		private int peerCount;
+		private String[] peerHosts = new String[16];
+		private int[] peerPorts = new int[16];
+
+		public Decoder(InputStream in) {
+			this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
+		}
+
+		/** Reads the next message, returns its type or -1 when the other side closed */
+		public int next() throws IOException {
+			int first = in.read();
+			if (first < 0) {
+				return -1;
+			}
+			if (first == '{') {
+				json = readLine();
+				return type = JSON;
+			}
+			int length = readVarint();
+			if (length < 0 || length > MAX_FRAME) {
+				throw new IOException("Frame too long: " + length);
+			}
+			if (length > buffer.length) {
+				buffer = new byte[Math.max(length, buffer.length * 2)];
+			}
+			int read = 0;
+			while (read < length) {
+				int n = in.read(buffer, read, length - read);
+				if (n < 0) {
+					throw new EOFException("Connection closed in the middle of a frame");
+				}
+				read += n;
+			}
+			pos = 0;
+			limit = length;
+			if (first == JOIN) {
+				username = string();
+				host = string();
+				port = varint();
+			} else if (first == PEERS) {
+				leader = string();
+				int count = varint();
+				// every peer takes at least one byte, a count that does not fit is not a reason to allocate
+				if (count < 0 || count > limit - pos) {
+					throw new IOException("Bad peer count " + count + " in a frame of " + limit + " bytes");
+				}
+				peerCount = count;
+				if (peerCount > peerHosts.length) {
+					peerHosts = new String[peerCount];
+					peerPorts = new int[peerCount];
+				}
+				for (int i = 0; i < peerCount; i++) {
+					peerHosts[i] = string();
+					peerPorts[i] = varint();
+				}
+			} else {
+				throw new IOException("Unknown message type " + first);
+			}
+			return type = first;
+		}
+
+		public int peerCount() {
+			return peerCount;
+		}
+
+		public String peerHost(int i) {
+			return peerHosts[i];
+		}
+
+		public int peerPort(int i) {
+			return peerPorts[i];
+		}
+
+		// the '{' was read already
+		private String readLine() throws IOException {
+			int length = 0;
+			buffer[length++] = '{';
+			int b;
+			while ((b = in.read()) >= 0 && b != '\n') {
+				if (length == buffer.length) {
+					if (length >= MAX_FRAME) {
+						throw new IOException("Line too long");
+					}
+					byte[] bigger = new byte[length * 2];
+					System.arraycopy(buffer, 0, bigger, 0, length);
+					buffer = bigger;
+				}
+				buffer[length++] = (byte) b;
+			}
+			if (length > 0 && buffer[length - 1] == '\r') {
+				length--;
+			}
+			return new String(buffer, 0, length, StandardCharsets.UTF_8);
+		}
+
+		// a varint straight from the stream, for the frame length
+		private int readVarint() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				int b = in.read();
+				if (b < 0) {
+					throw new EOFException("Connection closed in the middle of a frame");
+				}
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("Varint too long");
+		}
+
+		private int varint() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				if (pos >= limit) {
+					throw new IOException("Frame too short");
+				}
+				int b = buffer[pos++];
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("Varint too long");
+		}
+
+		private String string() throws IOException {
+			int length = varint();
+			if (length < 0 || length > limit - pos) {
+				throw new IOException("String longer than the frame");
+			}
+			String s = new String(buffer, pos, length, StandardCharsets.UTF_8);
+			pos += length;
+			return s;
+		}
+	}
+}
@@ -0,0 +1,201 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Starts peers in this JVM on local ports and crashes some of them (Peer.crash: no
+ * goodbye, sockets just close), every second crash is the current leader.
+ *
+ * For every crash it measures how long each remaining peer needs until it removes
+ * the crashed peer (detection latency), and for a leader how long until all agree
+ * on a new one. Before the first crash all peers run quietly for a while, every
+ * FAILED event about a peer that did not crash is a false positive.
+ */
+public class CrashTest {
+	// an event and the peer that saw it
+	static class Seen {
+		final String observer;
+		final MembershipEvent event;
+
+		Seen(String observer, MembershipEvent event) {
+			this.observer = observer;
+			this.event = event;
+		}
+	}
+
+	static final ConcurrentLinkedQueue<Seen> events = new ConcurrentLinkedQueue<Seen>();
+
+	// all alive peers have a FAILED for victim since it crashed
+	private static boolean allDetected(List<Peer> alive, String victim, long crashTime) {
+		Set<String> seen = new HashSet<String>();
+		for (Seen s : events) {
+			if (s.event.getType() == MembershipEvent.Type.FAILED && s.event.getPeer().equals(victim)
+				&& s.event.getTime() >= crashTime) {
+				seen.add(s.observer);
+			}
+		}
+		for (Peer p : alive) {
+			if (!seen.contains(p.self())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// all alive peers have the same leader and it is one of them
+	private static String agreedLeader(List<Peer> alive) {
+		String leader = alive.get(0).getMembership().getLeader();
+		if (leader == null) {
+			return null;
+		}
+		boolean isAlive = false;
+		for (Peer p : alive) {
+			if (!leader.equals(p.getMembership().getLeader())) {
+				return null;
+			}
+			isAlive |= p.self().equals(leader);
+		}
+		return isAlive ? leader : null;
+	}
+
+	private static long percentile(List<Long> sorted, double p) {
+		int rank = (int) Math.ceil(p / 100.0 * sorted.size());
+		return sorted.get(Math.min(sorted.size(), Math.max(1, rank)) - 1);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 4) {
+			System.out.println("Expected: <peers(int)> <crashes(int)> <basePort(int)> <phiThreshold(double)>");
+			System.exit(0);
+		}
+		int peerCount = Integer.parseInt(args[0]);
+		int crashes = Math.min(Integer.parseInt(args[1]), peerCount - 2);
+		int basePort = Integer.parseInt(args[2]);
+		double threshold = Double.parseDouble(args[3]);
+		long quietMillis = 10000;
+
+		List<Peer> alive = new ArrayList<Peer>();
+		String all = "";
+		for (int i = 0; i < peerCount; i++) {
+			all += "localhost:" + (basePort + i) + " ";
+		}
+		SocketInfo first = new SocketInfo("localhost", basePort);
+		for (int i = 0; i < peerCount; i++) {
+			ServerThread serverThread = new ServerThread("localhost:" + (basePort + i));
+			Peer peer = new Peer(null, "peer" + i, serverThread);
+			peer.setVerbose(false);
+			peer.setLeader(i == 0, first); // the lowest is leader, so the bully election has work to do
+			peer.addPeers(all.trim());
+			serverThread.setPeer(peer);
+			serverThread.setDaemon(true);
+			serverThread.start();
+			alive.add(peer);
+		}
+		for (Peer peer : alive) {
+			String self = peer.self();
+			peer.getMembership().addListener(e -> events.add(new Seen(self, e)));
+			peer.startGossip();
+			peer.getMembership().start(Membership.HEARTBEAT_INTERVAL, threshold);
+		}
+		System.out.printf("%d peers, heartbeat every %d ms (%d heartbeats/sec in total), phi threshold %.1f%n",
+			peerCount, Membership.HEARTBEAT_INTERVAL, peerCount * (peerCount - 1) * 1000 / Membership.HEARTBEAT_INTERVAL, threshold);
+		System.out.println("running " + quietMillis / 1000 + " s without crashes");
+		Thread.sleep(quietMillis);
+
+		Random random = new Random(7);
+		Set<String> crashed = new HashSet<String>();
+		List<Long> detection = new ArrayList<Long>();
+		List<Long> elections = new ArrayList<Long>();
+		int missed = 0;
+		for (int c = 0; c < crashes; c++) {
+			Peer victim = null;
+			String leader = agreedLeader(alive);
+			if (c % 2 == 0 && leader != null) {
+				for (Peer p : alive) {
+					if (p.self().equals(leader)) {
+						victim = p;
+					}
+				}
+			} else {
+				do {
+					victim = alive.get(random.nextInt(alive.size()));
+				} while (victim.self().equals(leader));
+			}
+			boolean wasLeader = victim.self().equals(leader);
+			String name = victim.self();
+			alive.remove(victim);
+			crashed.add(name);
+			long crashTime = System.currentTimeMillis();
+			victim.crash();
+
+			long end = crashTime + 10000;
+			while (!allDetected(alive, name, crashTime) && System.currentTimeMillis() < end) {
+				Thread.sleep(10);
+			}
+			List<Long> latencies = new ArrayList<Long>();
+			Set<String> observers = new HashSet<String>();
+			String reasons = "";
+			for (Seen s : events) {
+				if (s.event.getType() == MembershipEvent.Type.FAILED && s.event.getPeer().equals(name)
+					&& s.event.getTime() >= crashTime && observers.add(s.observer)) {
+					latencies.add(s.event.getTime() - crashTime);
+					if (!reasons.contains(s.event.getReason().split(" ")[0])) {
+						reasons += s.event.getReason().split(" ")[0] + " ";
+					}
+				}
+			}
+			missed += alive.size() - latencies.size();
+			detection.addAll(latencies);
+			Collections.sort(latencies);
+			String line = String.format("crash %d: %s%s detected by %d of %d peers after %s ms (by %s)",
+				c + 1, name, wasLeader ? " (leader)" : "", latencies.size(), alive.size(),
+				latencies.isEmpty() ? "-" : percentile(latencies, 0) + "-" + percentile(latencies, 100), reasons.trim());
+
+			if (wasLeader) {
+				String newLeader;
+				while ((newLeader = agreedLeader(alive)) == null && System.currentTimeMillis() < end) {
+					Thread.sleep(10);
+				}
+				if (newLeader != null) {
+					long elected = 0;
+					for (Seen s : events) {
+						if (s.event.getType() == MembershipEvent.Type.LEADER && s.event.getPeer().equals(newLeader)
+							&& s.event.getTime() >= crashTime) {
+							elected = Math.max(elected, s.event.getTime() - crashTime);
+						}
+					}
+					elections.add(elected);
+					line += ", new leader " + newLeader + " known by all after " + elected + " ms";
+				} else {
+					line += ", no agreed leader after 10 s";
+				}
+			}
+			System.out.println(line);
+			Thread.sleep(2000); // let things settle
+		}
+
+		int falsePositives = 0;
+		for (Seen s : events) {
+			if (s.event.getType() == MembershipEvent.Type.FAILED && !crashed.contains(s.event.getPeer())) {
+				falsePositives++;
+				System.out.println("  false positive: " + s.observer + " removed " + s.event);
+			}
+		}
+		Collections.sort(detection);
+		Collections.sort(elections);
+		if (!detection.isEmpty()) {
+			System.out.printf("detection latency p50=%d ms p99=%d ms max=%d ms, %d detections missed%n",
+				percentile(detection, 50), percentile(detection, 99), detection.get(detection.size() - 1), missed);
+		}
+		if (!elections.isEmpty()) {
+			System.out.printf("leader elections: %d, time until all agreed max=%d ms%n",
+				elections.size(), elections.get(elections.size() - 1));
+		}
+		System.out.println("false positives: " + falsePositives);
+		System.exit(0);
+	}
+}
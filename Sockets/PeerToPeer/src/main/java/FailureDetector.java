@@ -0,0 +1,94 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Phi accrual failure detector (Hayashibara et al., also used by Akka and Cassandra).
+ *
+ * Instead of "dead after a fixed timeout" it gives a suspicion level phi for every
+ * peer. From the last WINDOW heartbeat intervals of a peer we know their mean and
+ * standard deviation, phi says how unlikely it is that its next heartbeat is still
+ * on the way after the time that passed since the last one: phi 1 means a 10%
+ * chance, phi 2 a 1% chance, phi 8 a 0.000001% chance. A peer whose heartbeats always
+ * come on time is suspected quickly, one on a jittery network gets more time.
+ *
+ * Times are in ms and passed in, so the caller decides about the clock.
+ */
+public class FailureDetector {
+	static final int WINDOW = 100; // intervals we keep per peer
+	static final double MIN_STD_MILLIS = 100; // so a few very regular heartbeats do not make us nervous
+
+	private final long expectedInterval;
+	private final Map<String, History> histories = new HashMap<String, History>();
+
+	private static class History {
+		final long[] intervals = new long[WINDOW];
+		int count = 0;
+		int next = 0;
+		double sum = 0;
+		double squares = 0;
+		long last;
+
+		void add(long interval) {
+			if (count == WINDOW) {
+				long old = intervals[next];
+				sum -= old;
+				squares -= (double) old * old;
+			} else {
+				count++;
+			}
+			intervals[next] = interval;
+			next = (next + 1) % WINDOW;
+			sum += interval;
+			squares += (double) interval * interval;
+		}
+
+		double mean() {
+			return sum / count;
+		}
+
+		double std() {
+			double mean = mean();
+			return Math.sqrt(Math.max(0, squares / count - mean * mean));
+		}
+	}
+
+	/** expectedInterval is how often peers send heartbeats, used until we measured some */
+	public FailureDetector(long expectedInterval) {
+		this.expectedInterval = expectedInterval;
+	}
+
+	/** A heartbeat from peer arrived at now, also call it when we first hear of a peer */
+	public synchronized void heartbeat(String peer, long now) {
+		History h = histories.get(peer);
+		if (h == null) {
+			h = new History();
+			h.add(expectedInterval);
+			histories.put(peer, h);
+		} else {
+			h.add(now - h.last);
+		}
+		h.last = now;
+	}
+
+	/** How much we suspect peer at now, 0 for a peer we never heard of */
+	public synchronized double phi(String peer, long now) {
+		History h = histories.get(peer);
+		if (h == null) {
+			return 0;
+		}
+		long elapsed = now - h.last;
+		double mean = h.mean();
+		double std = Math.max(h.std(), MIN_STD_MILLIS);
+		// logistic approximation of the normal distribution, as in Akka
+		double y = (elapsed - mean) / std;
+		double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+		if (elapsed > mean) {
+			return -Math.log10(e / (1.0 + e));
+		}
+		return -Math.log10(1.0 - 1.0 / (1.0 + e));
+	}
+
+	public synchronized void remove(String peer) {
+		histories.remove(peer);
+	}
+}
@@ -0,0 +1,208 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.json.*;
+
+/**
+ * Epidemic (gossip) spreading of messages, so no single peer has to send
+ * everything to everyone.
+ *
+ * - publish: a new message gets a unique id (our host:port, a random incarnation
+ *   and a counter) and is sent to fanout random peers. The incarnation is new
+ *   every time the peer starts, so a peer that restarts on the same host:port
+ *   does not reuse ids the others still remember
+ * - receive: a peer that sees an id for the first time delivers the message and
+ *   sends it on to fanout random peers, ids it has seen before are ignored
+ * - every tick (the Peer calls it about twice a second) each message that is still
+ *   "hot" is sent to fanout other random peers again, a message stays hot for
+ *   hotRounds ticks. That is what makes it reach really everyone: with fanout 3
+ *   and 3 hot rounds every peer passes a message on up to 12 times.
+ * - anti-entropy: every tick we also send a digest of our peer list (number of
+ *   peers and a checksum) to one random peer. If its list gives a different
+ *   digest it answers with its whole list and we answer with ours, both add the
+ *   peers they did not know. So the peer lists become the same everywhere even
+ *   if a "joined" message got lost, and lists that agree cost only a few bytes
+ *
+ * A message reaches all N peers in about log(N) rounds, and every peer sends
+ * about the same amount, there is no hot node.
+ *
+ * The class does not know about sockets, a Node does the sending, so the same
+ * code runs in the Peer and in the GossipSimulation.
+ */
+public class Gossip {
+	/** What Gossip needs from the peer it runs in */
+	public interface Node {
+		/** "host:port" of this node */
+		String self();
+
+		/** the peers we can send to */
+		Collection<SocketInfo> peers();
+
+		/** adds the peers of a "host:port host:port" list we do not know yet */
+		void addPeers(String list);
+
+		/** our peers as "host:port host:port", without ourselves */
+		String peerList();
+
+		void send(SocketInfo to, String line);
+
+		/** a message seen for the first time, e.g. a chat message or a joined notice */
+		void deliver(JSONObject message);
+	}
+
+	static final int SEEN_SIZE = 10000; // ids we remember for deduplication
+
+	private final Node node;
+	private final int fanout;
+	private final int hotRounds;
+	// picked once per start, the counter starts at 0 again after a restart
+	private final String incarnation = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+	private long counter = 0;
+	// the last SEEN_SIZE ids, oldest first
+	private final Map<String, Boolean> seen = new LinkedHashMap<String, Boolean>() {
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > SEEN_SIZE;
+		}
+	};
+	// message id -> rounds it is still sent on
+	private final Map<String, Hot> hot = new LinkedHashMap<String, Hot>();
+
+	private static class Hot {
+		final JSONObject message;
+		int rounds;
+
+		Hot(JSONObject message, int rounds) {
+			this.message = message;
+			this.rounds = rounds;
+		}
+	}
+
+	public Gossip(Node node, int fanout, int hotRounds) {
+		this.node = node;
+		this.fanout = Math.max(1, fanout);
+		this.hotRounds = Math.max(0, hotRounds);
+	}
+
+	/** Sends a new message of ours into the network, returns its id */
+	public synchronized String publish(JSONObject message) {
+		String id = node.self() + "#" + incarnation + "." + (++counter);
+		message.put("id", id);
+		seen.put(id, true);
+		spread(message, null);
+		return id;
+	}
+
+	/** A message with an "id" from another peer, returns false if we had it already */
+	public synchronized boolean receive(JSONObject message) {
+		String id = message.getString("id");
+		if (seen.containsKey(id)) {
+			return false;
+		}
+		seen.put(id, true);
+		String from = message.optString("from", null);
+		node.deliver(message);
+		spread(message, from);
+		return true;
+	}
+
+	private void spread(JSONObject message, String from) {
+		forward(message, from);
+		if (hotRounds > 0) {
+			hot.put(message.getString("id"), new Hot(message, hotRounds));
+		}
+	}
+
+	// to fanout random peers, not back to the one we got it from
+	private void forward(JSONObject message, String from) {
+		message.put("from", node.self());
+		String line = message.toString();
+		for (SocketInfo peer : pick(fanout, from)) {
+			node.send(peer, line);
+		}
+	}
+
+	private List<SocketInfo> pick(int count, String exclude) {
+		List<SocketInfo> candidates = new ArrayList<SocketInfo>();
+		for (SocketInfo peer : node.peers()) {
+			if (exclude == null || !exclude.equals(peer.getHost() + ":" + peer.getPort())) {
+				candidates.add(peer);
+			}
+		}
+		if (candidates.size() <= count) {
+			return candidates;
+		}
+		// partial shuffle: the first count are a random choice
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < count; i++) {
+			Collections.swap(candidates, i, i + random.nextInt(candidates.size() - i));
+		}
+		return candidates.subList(0, count);
+	}
+
+	/** One gossip round: send the hot messages on and sync the peer list with one random peer */
+	public synchronized void tick() {
+		Iterator<Hot> it = hot.values().iterator();
+		while (it.hasNext()) {
+			Hot h = it.next();
+			forward(h.message, null);
+			if (--h.rounds <= 0) {
+				it.remove();
+			}
+		}
+		for (SocketInfo peer : pick(1, null)) {
+			JSONObject sync = new JSONObject();
+			sync.put("type", "sync");
+			sync.put("from", node.self());
+			sync.put("digest", digest());
+			node.send(peer, sync.toString());
+		}
+	}
+
+	// the same for the same set of peers (us included), no matter in which order
+	private String digest() {
+		long sum = node.self().hashCode();
+		int count = 1;
+		for (SocketInfo peer : node.peers()) {
+			sum += (peer.getHost() + ":" + peer.getPort()).hashCode();
+			count++;
+		}
+		return count + "/" + Long.toHexString(sum);
+	}
+
+	private String listMessage(boolean reply) {
+		JSONObject sync = new JSONObject();
+		sync.put("type", "sync");
+		sync.put("from", node.self());
+		sync.put("list", node.peerList());
+		sync.put("reply", reply);
+		return sync.toString();
+	}
+
+	/**
+	 * A "sync" from another peer. With a digest that is not ours we send our list
+	 * and ask for theirs, with a list we add the peers we did not know and answer
+	 * with our list if asked.
+	 */
+	public void onSync(JSONObject sync) {
+		String from = sync.getString("from");
+		String[] hostPort = from.split(":");
+		SocketInfo sender = new SocketInfo(hostPort[0], Integer.parseInt(hostPort[1]));
+		if (sync.has("digest")) {
+			node.addPeers(from);
+			if (!sync.getString("digest").equals(digest())) {
+				node.send(sender, listMessage(true));
+			}
+			return;
+		}
+		node.addPeers(from + " " + sync.getString("list"));
+		if (sync.getBoolean("reply")) {
+			node.send(sender, listMessage(false));
+		}
+	}
+}
@@ -0,0 +1,266 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.json.*;
+
+/**
+ * Runs many gossip nodes in this JVM without sockets, in rounds: everything sent in
+ * one round arrives in the next, and every node does one Gossip.tick() per round
+ * (in the Peer a round is GOSSIP_INTERVAL ms, a message that is passed on right
+ * away can of course go several hops in that time, so real peers are faster).
+ *
+ * 1. Membership: the nodes join one after the other, each at a random node that is
+ *    already in. Counts the rounds until every node knows every other node.
+ * 2. Chat: random nodes publish messages, counts the rounds until all nodes have a
+ *    message and how many never got it.
+ *
+ * For both it counts the bytes every node sent (JSON lines as on the wire) and
+ * compares them with what the leader sends when everything goes through it.
+ */
+public class GossipSimulation {
+	private final Map<String, SimNode> nodes = new LinkedHashMap<String, SimNode>();
+	private List<String[]> inFlight = new ArrayList<String[]>(); // {to, line}
+	private List<String[]> next = new ArrayList<String[]>();
+	private final Random random = new Random(42);
+	private final int fanout;
+	private final int hotRounds;
+
+	class SimNode implements Gossip.Node {
+		final String self;
+		final Map<String, SocketInfo> peers = new LinkedHashMap<String, SocketInfo>();
+		final Gossip gossip;
+		final Set<String> chats = new HashSet<String>(); // ids of the chat messages we got
+		long bytes = 0;
+		long syncBytes = 0;
+
+		SimNode(String self) {
+			this.self = self;
+			this.gossip = new Gossip(this, fanout, hotRounds);
+		}
+
+		public String self() {
+			return self;
+		}
+
+		public Collection<SocketInfo> peers() {
+			return peers.values();
+		}
+
+		public void addPeers(String list) {
+			for (String p : list.split(" ")) {
+				if (!p.isEmpty() && !p.equals(self) && !peers.containsKey(p)) {
+					String[] hostPort = p.split(":");
+					peers.put(p, new SocketInfo(hostPort[0], Integer.parseInt(hostPort[1])));
+				}
+			}
+		}
+
+		public String peerList() {
+			return String.join(" ", peers.keySet());
+		}
+
+		public void send(SocketInfo to, String line) {
+			bytes += line.length() + 1; // ASCII plus the newline
+			if (line.contains("\"type\":\"sync\"")) {
+				syncBytes += line.length() + 1;
+			}
+			next.add(new String[] {to.getHost() + ":" + to.getPort(), line});
+		}
+
+		public void deliver(JSONObject message) {
+			if (message.getString("type").equals("joined")) {
+				addPeers(message.getString("ip") + ":" + message.getInt("port"));
+			} else {
+				chats.add(message.getString("id"));
+			}
+		}
+	}
+
+	GossipSimulation(int fanout, int hotRounds) {
+		this.fanout = fanout;
+		this.hotRounds = hotRounds;
+	}
+
+	private static String address(int i) {
+		return "localhost:" + (10000 + i);
+	}
+
+	// what the ServerTask does with a line, all that is sent now arrives in the next round
+	private void round() {
+		List<String[]> arrived = next;
+		next = inFlight;
+		next.clear();
+		inFlight = arrived;
+		for (String[] envelope : arrived) {
+			JSONObject json = new JSONObject(envelope[1]);
+			SimNode node = nodes.get(envelope[0]);
+			if (json.getString("type").equals("sync")) {
+				node.gossip.onSync(json);
+			} else {
+				node.gossip.receive(json);
+			}
+		}
+		for (SimNode node : nodes.values()) {
+			node.gossip.tick();
+		}
+	}
+
+	private long totalBytes() {
+		long sum = 0;
+		for (SimNode node : nodes.values()) {
+			sum += node.bytes;
+		}
+		return sum;
+	}
+
+	private long maxBytes() {
+		long max = 0;
+		for (SimNode node : nodes.values()) {
+			max = Math.max(max, node.bytes);
+		}
+		return max;
+	}
+
+	private long syncBytes() {
+		long sum = 0;
+		for (SimNode node : nodes.values()) {
+			sum += node.syncBytes;
+		}
+		return sum;
+	}
+
+	private boolean membershipComplete() {
+		for (SimNode node : nodes.values()) {
+			if (node.peers.size() < nodes.size() - 1) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int missing(String id) {
+		int missing = 0;
+		for (SimNode node : nodes.values()) {
+			if (!node.chats.contains(id)) {
+				missing++;
+			}
+		}
+		return missing;
+	}
+
+	private static String joinMessage(int i) {
+		return "{'type': 'join', 'username': 'peer" + i + "','ip':'localhost','port':'" + (10000 + i) + "'}";
+	}
+
+	/** Joins all nodes, returns the rounds until all peer lists are complete */
+	int join(int count) {
+		for (int i = 0; i < count; i++) {
+			SimNode node = new SimNode(address(i));
+			if (i > 0) {
+				// the join of ServerTask at a random node that is already in
+				SimNode seed = (SimNode) nodes.values().toArray()[random.nextInt(nodes.size())];
+				JSONObject json = new JSONObject(joinMessage(i));
+				seed.addPeers(node.self);
+				String reply = "{'type': 'join', 'list': '" + seed.self + " " + seed.peerList() + "'}";
+				seed.bytes += reply.length() + 1;
+				node.addPeers(seed.self + " " + seed.peerList());
+				json.put("type", "joined");
+				seed.gossip.publish(json);
+			}
+			nodes.put(node.self, node);
+		}
+		int rounds = 0;
+		while (!membershipComplete() && rounds < 1000) {
+			round();
+			rounds++;
+		}
+		return rounds;
+	}
+
+	// what the leader sends when every join goes through it: the list as answer
+	// and the join to every peer it knows (the old ServerTask)
+	static long leaderJoinBytes(int count) {
+		long bytes = 0;
+		int listLength = 0;
+		for (int i = 1; i < count; i++) {
+			bytes += "{'type': 'join', 'list': ''}".length() + listLength + 1;
+			listLength += address(i).length() + 1;
+			bytes += (long) i * (joinMessage(i).length() + 1);
+		}
+		return bytes;
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 4) {
+			System.out.println("Expected: <peers(int)> <fanout(int)> <hotRounds(int)> <messages(int)>");
+			System.exit(0);
+		}
+		int peers = Integer.parseInt(args[0]);
+		int fanout = Integer.parseInt(args[1]);
+		int hotRounds = Integer.parseInt(args[2]);
+		int messages = Integer.parseInt(args[3]);
+		System.out.println("fanout " + fanout + ", " + hotRounds + " hot rounds, " + messages + " chat messages");
+
+		for (int n = Math.max(2, peers / 8); ; n = Math.min(peers, n * 2)) {
+			GossipSimulation sim = new GossipSimulation(fanout, hotRounds);
+			int joinRounds = sim.join(n);
+			long joinBytes = sim.totalBytes();
+			long joinMax = sim.maxBytes();
+			System.out.printf("%4d peers: membership complete after %3d rounds, %8d bytes, max per peer %7d "
+				+ "(%d of it anti-entropy) | leader based: leader sends %9d bytes%n",
+				n, joinRounds, joinBytes, joinMax, sim.syncBytes(), leaderJoinBytes(n));
+
+			long before = sim.totalBytes();
+			long[] beforePerNode = new long[n];
+			int k = 0;
+			for (SimNode node : sim.nodes.values()) {
+				beforePerNode[k++] = node.bytes;
+			}
+			int totalRounds = 0;
+			int maxRounds = 0;
+			int notReached = 0;
+			int chatLength = 0;
+			for (int m = 0; m < messages; m++) {
+				SimNode sender = (SimNode) sim.nodes.values().toArray()[sim.random.nextInt(n)];
+				JSONObject chat = new JSONObject();
+				chat.put("type", "message");
+				chat.put("username", sender.self);
+				chat.put("message", "hello " + m);
+				String id = sender.gossip.publish(chat);
+				sender.chats.add(id);
+				chatLength = chat.toString().length() + 1;
+				int rounds = 0;
+				while (sim.missing(id) > 0 && rounds < 100) {
+					sim.round();
+					rounds++;
+				}
+				// let the hot rounds run out, they cost bytes too
+				for (int r = 0; r < hotRounds; r++) {
+					sim.round();
+				}
+				totalRounds += rounds;
+				maxRounds = Math.max(maxRounds, rounds);
+				notReached += sim.missing(id);
+			}
+			long chatMax = 0;
+			k = 0;
+			for (SimNode node : sim.nodes.values()) {
+				chatMax = Math.max(chatMax, node.bytes - beforePerNode[k++]);
+			}
+			System.out.printf("            chat: all reached after %.1f rounds (max %d), %d missed, %d bytes per message, "
+				+ "max per peer %d | leader based: sender sends %d bytes per message%n",
+				totalRounds / (double) Math.max(1, messages), maxRounds, notReached,
+				(sim.totalBytes() - before) / Math.max(1, messages), chatMax / Math.max(1, messages),
+				(long) (n - 1) * chatLength);
+			if (n == peers) {
+				break;
+			}
+		}
+	}
+}
@@ -0,0 +1,273 @@
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.json.*;
+
+/**
+ * Who is alive and who is the leader.
+ *
+ * Failure detection: every heartbeat interval each peer sends a tiny
+ * {"type":"heartbeat"} line to all its peers over the Mesh. A FailureDetector turns
+ * the arrival times into a suspicion level phi, when the phi of a peer goes over the
+ * threshold it is removed from the peer list (FAILED). The same happens when the Mesh
+ * cannot reach a peer anymore. Removed peers are remembered for a while, so the
+ * peer lists of the gossip anti-entropy do not bring them back, until we hear a
+ * heartbeat from them again.
+ *
+ * Leader election (bully algorithm): when the leader fails, a peer sends "election"
+ * to all peers with a higher id (ids are compared by port, then host). Every
+ * higher peer that is alive answers "ok" and starts its own election. A peer that
+ * gets no "ok" within ELECTION_TIMEOUT is the highest one alive, it becomes the
+ * leader and tells everyone with "coordinator". If the coordinator does not come
+ * within COORDINATOR_TIMEOUT after an "ok" (the higher peer died as well) we start
+ * again. So a new leader is known about the detection time plus ELECTION_TIMEOUT
+ * after the old one died.
+ */
+public class Membership {
+	static final long HEARTBEAT_INTERVAL = 200; // ms
+	static final double PHI_THRESHOLD = 8.0;
+	static final long ELECTION_TIMEOUT = 500; // ms we wait for an "ok" from a higher peer
+	static final long COORDINATOR_TIMEOUT = 1500; // ms we wait for the winner after an "ok"
+	static final long TOMBSTONE_MILLIS = 60000; // how long a failed peer is not added again by lists
+
+	private final Peer peer;
+	private final List<Consumer<MembershipEvent>> listeners = new CopyOnWriteArrayList<Consumer<MembershipEvent>>();
+	// failed peers "host:port" -> when they failed
+	private final Map<String, Long> failed = new ConcurrentHashMap<String, Long>();
+	private FailureDetector detector = new FailureDetector(HEARTBEAT_INTERVAL);
+	private double threshold = PHI_THRESHOLD;
+	private Timer timer = null;
+	private volatile String leader = null; // "host:port"
+
+	// election state, only changed while holding the lock of this
+	private boolean electing = false;
+	private long electionStarted;
+	private long okReceived = 0; // 0 until a higher peer answered
+
+	public Membership(Peer peer) {
+		this.peer = peer;
+	}
+
+	public void addListener(Consumer<MembershipEvent> listener) {
+		listeners.add(listener);
+	}
+
+	private void fire(MembershipEvent.Type type, String who, String reason) {
+		MembershipEvent event = new MembershipEvent(type, who, reason);
+		for (Consumer<MembershipEvent> listener : listeners) {
+			listener.accept(event);
+		}
+	}
+
+	private static long now() {
+		return System.nanoTime() / 1000000;
+	}
+
+	static String key(SocketInfo s) {
+		return s.getHost() + ":" + s.getPort();
+	}
+
+	private static SocketInfo socketInfo(String key) {
+		String[] hostPort = key.split(":");
+		return new SocketInfo(hostPort[0], Integer.parseInt(hostPort[1]));
+	}
+
+	// the bully order: by port, then by host
+	static int compare(String a, String b) {
+		String[] x = a.split(":");
+		String[] y = b.split(":");
+		int c = Integer.compare(Integer.parseInt(x[1]), Integer.parseInt(y[1]));
+		return c != 0 ? c : x[0].compareTo(y[0]);
+	}
+
+	/** Starts the heartbeats with the default interval and threshold */
+	public void start() {
+		start(HEARTBEAT_INTERVAL, PHI_THRESHOLD);
+	}
+
+	public synchronized void start(long heartbeatInterval, double threshold) {
+		this.detector = new FailureDetector(heartbeatInterval);
+		this.threshold = threshold;
+		if (leader == null && peer.getLeaderSocket() != null) {
+			leader = key(peer.getLeaderSocket());
+		}
+		long now = now();
+		for (SocketInfo s : peer.peers()) {
+			detector.heartbeat(key(s), now);
+		}
+		timer = new Timer("membership", true);
+		timer.schedule(new TimerTask() {
+			public void run() {
+				tick();
+			}
+		}, heartbeatInterval, heartbeatInterval);
+	}
+
+	public synchronized void stop() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+	}
+
+	public String getLeader() {
+		return leader;
+	}
+
+	/** Only for the peers currently in our list */
+	public double phi(String who) {
+		return detector.phi(who, now());
+	}
+
+	// send heartbeats, check the phi of all peers and the election timeouts
+	private void tick() {
+		JSONObject heartbeat = new JSONObject();
+		heartbeat.put("type", "heartbeat");
+		heartbeat.put("from", peer.self());
+		peer.getMesh().broadcast(peer.peers(), heartbeat.toString());
+
+		long now = now();
+		for (SocketInfo s : peer.peers()) {
+			double phi = detector.phi(key(s), now);
+			if (phi > threshold) {
+				fail(key(s), String.format("phi %.1f", phi));
+			}
+		}
+		checkElection(now);
+	}
+
+	/** Called by the Peer when a peer was added to its list */
+	void added(String who) {
+		detector.heartbeat(who, now());
+		fire(MembershipEvent.Type.JOINED, who, null);
+	}
+
+	/** False if the peer failed a short time ago, then lists should not add it */
+	boolean isFailed(String who) {
+		Long when = failed.get(who);
+		if (when == null) {
+			return false;
+		}
+		if (now() - when > TOMBSTONE_MILLIS) {
+			failed.remove(who);
+			return false;
+		}
+		return true;
+	}
+
+	/** The peer is back (a heartbeat or a new join), lists may add it again */
+	void revive(String who) {
+		failed.remove(who);
+	}
+
+	/** Removes a peer we think is dead, starts an election if it was the leader */
+	public void fail(String who, String reason) {
+		if (!peer.removePeer(who)) {
+			return; // someone else was quicker
+		}
+		failed.put(who, now());
+		detector.remove(who);
+		peer.getMesh().close(socketInfo(who));
+		fire(MembershipEvent.Type.FAILED, who, reason);
+		if (who.equals(leader)) {
+			startElection();
+		}
+	}
+
+	/** heartbeat, election, ok and coordinator messages from the ServerTask */
+	public void onMessage(JSONObject json) {
+		String type = json.getString("type");
+		String from = json.getString("from");
+		if (type.equals("heartbeat")) {
+			if (failed.containsKey(from)) {
+				revive(from);
+			}
+			if (peer.hasPeer(from)) {
+				detector.heartbeat(from, now());
+			} else {
+				peer.addPeers(from); // added() starts its history
+			}
+		} else if (type.equals("election")) {
+			// a lower peer wants to be leader, we are higher, so we take over
+			send(from, "ok");
+			startElection();
+		} else if (type.equals("ok")) {
+			synchronized (this) {
+				okReceived = now();
+			}
+		} else if (type.equals("coordinator")) {
+			if (compare(from, peer.self()) < 0) {
+				startElection(); // a lower peer cannot be leader while we are alive
+			} else {
+				synchronized (this) {
+					electing = false;
+				}
+				setLeader(from);
+			}
+		}
+	}
+
+	private void send(String to, String type) {
+		JSONObject json = new JSONObject();
+		json.put("type", type);
+		json.put("from", peer.self());
+		peer.getMesh().send(socketInfo(to), json.toString());
+	}
+
+	/** Sets who the leader is, e.g. from the answer to our join */
+	public void setLeader(String who) {
+		String old;
+		synchronized (this) {
+			old = leader;
+			leader = who;
+		}
+		peer.setLeader(who.equals(peer.self()), socketInfo(who));
+		if (!who.equals(old)) {
+			fire(MembershipEvent.Type.LEADER, who, null);
+		}
+	}
+
+	public synchronized void startElection() {
+		if (electing) {
+			return;
+		}
+		electing = true;
+		electionStarted = now();
+		okReceived = 0;
+		int higher = 0;
+		for (SocketInfo s : peer.peers()) {
+			if (compare(key(s), peer.self()) > 0) {
+				send(key(s), "election");
+				higher++;
+			}
+		}
+		if (higher == 0) {
+			becomeLeader();
+		}
+	}
+
+	private synchronized void checkElection(long now) {
+		if (!electing) {
+			return;
+		}
+		if (okReceived == 0 && now - electionStarted > ELECTION_TIMEOUT) {
+			becomeLeader(); // nobody higher answered
+		} else if (okReceived != 0 && now - okReceived > COORDINATOR_TIMEOUT) {
+			electing = false; // the higher peer did not finish, try again
+			startElection();
+		}
+	}
+
+	private synchronized void becomeLeader() {
+		electing = false;
+		for (SocketInfo s : peer.peers()) {
+			send(key(s), "coordinator");
+		}
+		setLeader(peer.self());
+	}
+}
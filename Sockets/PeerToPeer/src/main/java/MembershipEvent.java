@@ -0,0 +1,42 @@
+/**
+ * Something that changed in the network, see Membership.addListener
+ */
+public class MembershipEvent {
+	public enum Type {
+		JOINED, // a peer was added to our list
+		FAILED, // a peer was removed, the failure detector suspects it or we could not reach it
+		LEADER // there is a new leader
+	}
+
+	private final Type type;
+	private final String peer; // "host:port"
+	private final String reason;
+	private final long time; // System.currentTimeMillis()
+
+	public MembershipEvent(Type type, String peer, String reason) {
+		this.type = type;
+		this.peer = peer;
+		this.reason = reason;
+		this.time = System.currentTimeMillis();
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getPeer() {
+		return peer;
+	}
+
+	public String getReason() {
+		return reason;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public String toString() {
+		return type + " " + peer + (reason == null ? "" : " (" + reason + ")");
+	}
+}
@@ -0,0 +1,85 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Keeps one PeerConnection per peer and sends through them.
+ * A broadcast only puts the message into the queue of every connection and
+ * returns right away, the connection threads do the actual writing.
+ */
+public class Mesh {
+	// key is "host:port"
+	private final Map<String, PeerConnection> connections = new ConcurrentHashMap<String, PeerConnection>();
+	private final Consumer<SocketInfo> onGone;
+
+	/** onGone is called with a peer that could not be reached anymore */
+	public Mesh(Consumer<SocketInfo> onGone) {
+		this.onGone = onGone;
+	}
+
+	private static String key(SocketInfo peer) {
+		return peer.getHost() + ":" + peer.getPort();
+	}
+
+	/** The connection to peer, created and started on first use */
+	public PeerConnection connection(SocketInfo peer) {
+		return connections.computeIfAbsent(key(peer), k -> {
+			PeerConnection c = new PeerConnection(peer, this);
+			c.start();
+			return c;
+		});
+	}
+
+	/** Queues the line for one peer, false if its queue is full */
+	public boolean send(SocketInfo peer, String line) {
+		return connection(peer).send(line);
+	}
+
+	/** Queues the line for all peers, returns for how many it was queued */
+	public int broadcast(Iterable<SocketInfo> peers, String line) {
+		int queued = 0;
+		for (SocketInfo peer : peers) {
+			if (send(peer, line)) {
+				queued++;
+			}
+		}
+		return queued;
+	}
+
+	void remove(PeerConnection connection) {
+		if (connections.remove(key(connection.getPeer()), connection)) {
+			onGone.accept(connection.getPeer());
+		}
+	}
+
+	/** Closes the connection to one peer, e.g. when we think it is dead */
+	public void close(SocketInfo peer) {
+		PeerConnection c = connections.remove(key(peer));
+		if (c != null) {
+			c.close();
+		}
+	}
+
+	public void close() {
+		for (PeerConnection c : connections.values()) {
+			c.close();
+		}
+		connections.clear();
+	}
+
+	/** e.g. "49 connections, 49000 sent, 0 dropped, 0 queued, 49 connects" */
+	public String stats() {
+		long sent = 0;
+		long dropped = 0;
+		long queued = 0;
+		long connects = 0;
+		for (PeerConnection c : connections.values()) {
+			sent += c.sent.get();
+			dropped += c.dropped.get();
+			queued += c.queued();
+			connects += c.connects.get();
+		}
+		return connections.size() + " connections, " + sent + " sent, " + dropped + " dropped, "
+			+ queued + " queued, " + connects + " connects";
+	}
+}
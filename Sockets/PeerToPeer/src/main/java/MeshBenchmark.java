@@ -0,0 +1,162 @@
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.*;
+
+/**
+ * Starts many peers in this JVM on local ports, one of them sends chat messages to
+ * all others. Compares the old way (a new socket to every peer for every message)
+ * with the Mesh (one long lived connection per peer with an outbound queue).
+ *
+ * Every message carries System.nanoTime() of when it was sent, the receiving peers
+ * record how long it took (all peers are in the same JVM, so the clocks match).
+ * A third run makes one peer slow to show that it does not hold up the others.
+ */
+public class MeshBenchmark {
+
+	/** A peer that records the latency of every message instead of printing it */
+	static class BenchPeer extends Peer {
+		static long[] latencies = new long[0];
+		static AtomicInteger count = new AtomicInteger();
+		private final long delayMillis;
+
+		BenchPeer(String username, ServerThread serverThread, long delayMillis) {
+			super(null, username, serverThread);
+			this.delayMillis = delayMillis;
+		}
+
+		static void reset(int expected) {
+			latencies = new long[expected];
+			count.set(0);
+		}
+
+		@Override
+		public void receive(JSONObject json) {
+			long latency = System.nanoTime() - json.getLong("sent");
+			if (delayMillis > 0) {
+				try {
+					Thread.sleep(delayMillis); // a slow peer, reads its socket slowly
+				} catch (InterruptedException e) {
+					return;
+				}
+				return; // not counted, we only look at the others
+			}
+			int i = count.getAndIncrement();
+			if (i < latencies.length) {
+				latencies[i] = latency;
+			}
+		}
+	}
+
+	private static String message(String username, int i) {
+		return "{'type': 'message', 'username': '" + username + "','message':'hello " + i + "','sent':" + System.nanoTime() + "}";
+	}
+
+	// the old Peer.pushMessage: connect, send one line, close, for every peer and message
+	private static void connectPerMessage(SocketInfo[] peers, String message) throws Exception {
+		for (SocketInfo s : peers) {
+			Socket socket = new Socket(s.getHost(), s.getPort());
+			PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+			out.println(message);
+			socket.close();
+		}
+	}
+
+	private static void waitFor(int expected, long timeoutMillis) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeoutMillis;
+		while (BenchPeer.count.get() < expected && System.currentTimeMillis() < end) {
+			Thread.sleep(5);
+		}
+	}
+
+	// nearest-rank percentile on an already sorted array
+	private static long percentile(long[] sorted, double p) {
+		int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+		return sorted[Math.min(sorted.length, Math.max(1, rank)) - 1];
+	}
+
+	private static void report(String label, int messages, int receivers, long nanos) {
+		int received = Math.min(BenchPeer.count.get(), BenchPeer.latencies.length);
+		long[] sorted = Arrays.copyOf(BenchPeer.latencies, received);
+		Arrays.sort(sorted);
+		double seconds = nanos / 1e9;
+		System.out.printf("%-22s %5d messages to %d peers: %7.0f messages/sec, %8.0f deliveries/sec, "
+			+ "latency p50=%6d us p99=%7d us max=%7d us (%d of %d delivered)%n",
+			label, messages, receivers, messages / seconds, received / seconds,
+			received == 0 ? 0 : percentile(sorted, 50) / 1000, received == 0 ? 0 : percentile(sorted, 99) / 1000,
+			received == 0 ? 0 : sorted[received - 1] / 1000, received, messages * receivers);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 3) {
+			System.out.println("Expected: <peers(int)> <messages(int)> <basePort(int)>");
+			System.exit(0);
+		}
+		int peerCount = Integer.parseInt(args[0]);
+		int messages = Integer.parseInt(args[1]);
+		int basePort = Integer.parseInt(args[2]);
+
+		// the sender plus peerCount - 1 receivers, the last one can be made slow
+		SocketInfo[] receivers = new SocketInfo[peerCount - 1];
+		BenchPeer sender = null;
+		for (int i = 0; i < peerCount; i++) {
+			ServerThread serverThread = new ServerThread("localhost:" + (basePort + i));
+			BenchPeer peer = new BenchPeer("peer" + i, serverThread, i == peerCount - 1 ? 1 : 0);
+			serverThread.setPeer(peer);
+			serverThread.setDaemon(true);
+			serverThread.start();
+			if (i == 0) {
+				sender = peer;
+			} else {
+				receivers[i - 1] = new SocketInfo("localhost", basePort + i);
+			}
+		}
+		sender.setVerbose(false);
+		// the slow peer is only a receiver in the last run
+		SocketInfo[] fast = Arrays.copyOf(receivers, receivers.length - 1);
+		for (SocketInfo s : fast) {
+			sender.addPeer(s);
+		}
+
+		// warm up, both ways
+		int warmUp = Math.max(10, messages / 10);
+		BenchPeer.reset(warmUp * fast.length);
+		for (int i = 0; i < warmUp; i++) {
+			connectPerMessage(fast, message("peer0", i));
+			sender.pushMessage(message("peer0", i));
+		}
+		waitFor(2 * warmUp * fast.length, 10000);
+
+		// the old way costs a connection per peer and message, so it gets fewer messages
+		int oldMessages = Math.max(1, Math.min(messages, 200));
+		BenchPeer.reset(oldMessages * fast.length);
+		long start = System.nanoTime();
+		for (int i = 0; i < oldMessages; i++) {
+			connectPerMessage(fast, message("peer0", i));
+		}
+		waitFor(oldMessages * fast.length, 60000);
+		report("connect per message", oldMessages, fast.length, System.nanoTime() - start);
+
+		BenchPeer.reset(messages * fast.length);
+		start = System.nanoTime();
+		for (int i = 0; i < messages; i++) {
+			sender.pushMessage(message("peer0", i));
+		}
+		waitFor(messages * fast.length, 60000);
+		report("mesh", messages, fast.length, System.nanoTime() - start);
+
+		// now with a peer that takes 1 ms per message, the others should not notice
+		sender.addPeer(receivers[receivers.length - 1]);
+		BenchPeer.reset(messages * fast.length);
+		start = System.nanoTime();
+		for (int i = 0; i < messages; i++) {
+			sender.pushMessage(message("peer0", i));
+		}
+		waitFor(messages * fast.length, 60000);
+		report("mesh with a slow peer", messages, fast.length, System.nanoTime() - start);
+		System.out.println("Mesh: " + sender.getMesh().stats());
+		System.exit(0);
+	}
+}
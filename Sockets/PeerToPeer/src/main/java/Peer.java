@@ -1,10 +1,13 @@
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.net.Socket;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
 
-import java.io.PrintWriter;
+import java.io.OutputStream;
 import org.json.*;
 
 /**
@@ -17,14 +20,27 @@ import org.json.*;
  * 
  */
 
-public class Peer {
+public class Peer implements Gossip.Node {
+	static final int FANOUT = 3; // peers every gossip message is sent on to
+	static final int HOT_ROUNDS = 3; // gossip rounds a message is sent on again
+	static final long GOSSIP_INTERVAL = 500; // ms between gossip rounds
+
 	private String username;
 	private BufferedReader bufferedReader;
 	private ServerThread serverThread;
 
-	private Set<SocketInfo> peers = new HashSet<SocketInfo>();
+	// changed by the ServerTask threads and the Mesh while we send, see PeerRegistry
+	private PeerRegistry peers = new PeerRegistry();
 	private boolean leader = false;
 	private SocketInfo leaderSocket;
+	// heartbeats, failure detection and leader election, see Membership
+	private Membership membership = new Membership(this);
+	// one long lived connection per peer, removes peers that cannot be reached anymore
+	private Mesh mesh = new Mesh(si -> membership.fail(si.toString(), "unreachable"));
+	private boolean verbose = true;
+	// chat messages and joins are spread by gossip, see Gossip
+	private Gossip gossip = new Gossip(this, FANOUT, HOT_ROUNDS);
+	private Timer gossipTimer = null;
 
 	
 	public Peer(BufferedReader bufReader, String username,ServerThread serverThread){
@@ -42,17 +58,110 @@ public class Peer {
 		return leader;
 	}
 
+	public SocketInfo getLeaderSocket(){
+		return leaderSocket;
+	}
+
+	// false stops printing a line for every push, e.g. for benchmarks
+	public void setVerbose(boolean verbose){
+		this.verbose = verbose;
+	}
+
+	public Mesh getMesh(){
+		return mesh;
+	}
+
+	public Gossip getGossip(){
+		return gossip;
+	}
+
+	public Membership getMembership(){
+		return membership;
+	}
+
+	/** Runs a gossip round every GOSSIP_INTERVAL ms in the background */
+	public void startGossip(){
+		gossipTimer = new Timer("gossip", true);
+		gossipTimer.schedule(new TimerTask() {
+			public void run() {
+				gossip.tick();
+			}
+		}, GOSSIP_INTERVAL, GOSSIP_INTERVAL);
+	}
+
+	/** Stops everything without saying goodbye, as if the process died (used to test the failure detection) */
+	public void crash(){
+		if (gossipTimer != null){
+			gossipTimer.cancel();
+		}
+		membership.stop();
+		mesh.close();
+		serverThread.close();
+	}
+
+	// ####### Gossip.Node, what the gossip needs from us
+
+	public String self(){
+		return serverThread.getHost() + ":" + serverThread.getPort();
+	}
+
+	public Collection<SocketInfo> peers(){
+		return peers.snapshot();
+	}
+
+	public void addPeers(String list){
+		try {
+			updateListenToPeers(list);
+		} catch (Exception e) {
+			System.out.println("  Invalid peer list: " + list);
+		}
+	}
+
+	public String peerList(){
+		return peers.list();
+	}
+
+	public void send(SocketInfo to, String line){
+		mesh.send(to, line);
+	}
+
+	public void deliver(JSONObject json){
+		if (json.getString("type").equals("joined")){
+			System.out.println("     " + json.getString("username") + " joined the network");
+			addPeers(json.getString("ip") + ":" + json.getInt("port"));
+		} else {
+			receive(json);
+		}
+	}
+
+	/**
+	 * Called by the ServerTask for every chat message from another peer
+	 */
+	public void receive(JSONObject json){
+		System.out.println("[" + json.getString("username")+"]: " + json.getString("message"));
+	}
+
 	public void addPeer(SocketInfo si){
 		peers.add(si);
 	}
+
+	public boolean hasPeer(String hostPort){
+		return peers.contains(socketInfo(hostPort));
+	}
+
+	/** Removes the peer "host:port" from the list, false if it was not in it */
+	public boolean removePeer(String hostPort){
+		return peers.remove(socketInfo(hostPort));
+	}
+
+	private static SocketInfo socketInfo(String hostPort){
+		String[] parts = hostPort.split(":");
+		return new SocketInfo(parts[0], Integer.valueOf(parts[1]));
+	}
 	
-	// get a string of all peers that this peer knows
+	// get a string of all peers that this peer knows, "host:port host:port"
 	public String getPeers(){
-		String s = "";
-		for (SocketInfo p: peers){
-			s = s +  p.getHost() + ":" + p.getPort() + " ";
-		}
-		return s; 
+		return peers.list();
 	}
 
 	/**
@@ -64,14 +173,28 @@ public class Peer {
 	public void updateListenToPeers(String list) throws Exception {
 		String[] peerList = list.split(" ");
 		for (String p: peerList){
-			String[] hostPort = p.split(":");
-
-			// basic check to not add ourself, since then we would send every message to ourself as well (but maybe you want that, then you can remove this)
-			if ((hostPort[0].equals("localhost") || hostPort[0].equals(serverThread.getHost())) && Integer.valueOf(hostPort[1]) == serverThread.getPort()){
+			if (p.isEmpty()){
 				continue;
 			}
-			SocketInfo s = new SocketInfo(hostPort[0], Integer.valueOf(hostPort[1]));
-			peers.add(s);
+			String[] hostPort = p.split(":");
+			updateListenToPeer(hostPort[0], Integer.valueOf(hostPort[1]));
+		}
+	}
+
+	// adds one peer of a list, unless it is us or it failed a short time ago
+	private void updateListenToPeer(String host, int port){
+		String p = host + ":" + port;
+		// failed peers are only added again when we hear from them (see Membership)
+		if (membership.isFailed(p)){
+			return;
+		}
+		// basic check to not add ourself, since then we would send every message to ourself as well (but maybe you want that, then you can remove this)
+		if ((host.equals("localhost") || host.equals(serverThread.getHost())) && port == serverThread.getPort()){
+			return;
+		}
+		// add is atomic, if two threads add the same peer only one of them gets true
+		if (peers.add(new SocketInfo(host, port))){
+			membership.added(p);
 		}
 	}
 	
@@ -88,7 +211,11 @@ public class Peer {
 					System.out.println("bye, see you next time");
 					break;
 				} else {
-					pushMessage("{'type': 'message', 'username': '"+ username +"','message':'" + message + "'}");
+					JSONObject json = new JSONObject();
+					json.put("type", "message");
+					json.put("username", username);
+					json.put("message", message);
+					gossip.publish(json);
 				}	
 			}
 			System.exit(0);
@@ -103,18 +230,17 @@ public class Peer {
 
 
 	/**
-	 * Send a message only to the leader 
+	 * Send our join to the leader and add the peers it answers with. Join and answer
+	 * are binary frames, see BinaryProtocol.
 	 *
-	 * @param message String that peer wants to send to the leader node
+	 * @param username our name, the leader tells the others that we joined
 	 * this might be an interesting point to check if one cannot connect that a leader election is needed
 	 */
-	public void commLeader(String message) {
+	public void commLeader(String username) {
 		try {
-			BufferedReader reader = null; 
 				Socket socket = null;
 				try {
 					socket = new Socket(leaderSocket.getHost(), leaderSocket.getPort());
-					reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 					
 				} catch (Exception c) {
 					if (socket != null) {
@@ -125,13 +251,22 @@ public class Peer {
 					return; // returning since we cannot connect or something goes wrong the rest will not work. 
 				}
 
-				PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-				out.println(message);
+				OutputStream out = socket.getOutputStream();
+				new BinaryProtocol.Encoder().join(username, serverThread.getHost(), serverThread.getPort()).writeTo(out);
+				out.flush();
 
-				JSONObject json = new JSONObject(reader.readLine());
-				System.out.println("     Received from server " + json);
-				String list = json.getString("list");
-				updateListenToPeers(list); // when we get a list of all other peers that the leader knows we update them
+				BinaryProtocol.Decoder decoder = new BinaryProtocol.Decoder(socket.getInputStream());
+				if (decoder.next() == BinaryProtocol.PEERS) {
+					System.out.println("     Received " + decoder.peerCount() + " peers from server");
+					// when we get a list of all other peers that the leader knows we update them
+					for (int i = 0; i < decoder.peerCount(); i++) {
+						updateListenToPeer(decoder.peerHost(i), decoder.peerPort(i));
+					}
+					if (!decoder.leader.isEmpty()) {
+						membership.setLeader(decoder.leader); // we might have joined at a peer that is not the leader
+					}
+				}
+				socket.close();
 
 		} catch(Exception e) {
 			e.printStackTrace();
@@ -139,47 +274,20 @@ public class Peer {
 	}
 
 /**
-	 * Send a message to every peer in the peers list, if a peer cannot be reached remove it from list
+	 * Send a message to every peer in the peers list. The message only goes into the
+	 * outbound queue of our connection to each peer (see Mesh and PeerConnection), so
+	 * this returns right away and a slow peer does not hold up the others.
+	 * Peers that cannot be reached anymore are removed from the list by the Mesh.
 	 *
 	 * @param message String that peer wants to send to other peers
 	 */
 	public void pushMessage(String message) {
-		try {
+		if (verbose) {
 			System.out.println("     Trying to send to peers: " + peers.size());
-
-			Set<SocketInfo> toRemove = new HashSet<SocketInfo>();
-			BufferedReader reader = null; 
-			int counter = 0;
-			for (SocketInfo s : peers) {
-				Socket socket = null;
-				try {
-					socket = new Socket(s.getHost(), s.getPort());
-					reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-				} catch (Exception c) {
-					if (socket != null) {
-						socket.close();
-					} else {
-						System.out.println("  Could not connect to " + s.getHost() + ":" + s.getPort());
-						System.out.println("  Removing that socketInfo from list");
-						toRemove.add(s);
-						continue;
-					}
-					System.out.println("     Issue: " + c);
-				}
-
-				PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-				out.println(message);
-				counter++;
-				socket.close();
-		     }
-		    for (SocketInfo s: toRemove){
-		    	peers.remove(s);
-		    }
-
-		    System.out.println("     Message was sent to " + counter + " peers");
-
-		} catch(Exception e) {
-			e.printStackTrace();
+		}
+		int counter = mesh.broadcast(peers.snapshot(), message);
+		if (verbose) {
+			System.out.println("     Message was queued for " + counter + " peers");
 		}
 	}
 
@@ -222,11 +330,14 @@ public class Peer {
 			peer.setLeader(false, s);
 
 			// send message to leader that we want to join
-			peer.commLeader("{'type': 'join', 'username': '"+ username +"','ip':'" + serverThread.getHost() + "','port':'" + serverThread.getPort() + "'}");
+			peer.commLeader(username);
 
 		}
 		serverThread.setPeer(peer);
 		serverThread.start();
+		peer.startGossip();
+		peer.getMembership().addListener(e -> System.out.println("     " + e));
+		peer.getMembership().start();
 		peer.askForInput();
 
 	}
@@ -0,0 +1,152 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One long lived connection to another peer, instead of a new socket for every message.
+ *
+ * Messages go into an outbound queue and this thread writes them to the socket, so
+ * a slow or dead peer only fills up its own queue and never blocks sending to the
+ * others. When the queue is full new messages for that peer are dropped.
+ * The connection is opened with the first message. If it breaks we reconnect and
+ * wait a bit longer after every failed try (backoff 100 ms, 200 ms, ... up to 5 s).
+ * After MAX_FAILURES failed tries in a row the peer counts as gone and the Mesh
+ * removes it.
+ */
+public class PeerConnection extends Thread {
+	static final int QUEUE_SIZE = 1000;
+	static final int BATCH_SIZE = 100; // lines written before one flush
+	static final int CONNECT_TIMEOUT = 2000;
+	static final long MIN_BACKOFF = 100;
+	static final long MAX_BACKOFF = 5000;
+	static final int MAX_FAILURES = 5;
+
+	private final SocketInfo peer;
+	private final Mesh mesh;
+	private final BlockingQueue<String> outbound = new ArrayBlockingQueue<String>(QUEUE_SIZE);
+	private volatile boolean running = true;
+	private volatile Socket socket = null;
+	private Writer out = null;
+
+	final AtomicLong sent = new AtomicLong();
+	final AtomicLong dropped = new AtomicLong();
+	final AtomicLong connects = new AtomicLong();
+
+	public PeerConnection(SocketInfo peer, Mesh mesh) {
+		super("peer-" + peer.getHost() + ":" + peer.getPort());
+		setDaemon(true);
+		this.peer = peer;
+		this.mesh = mesh;
+	}
+
+	public SocketInfo getPeer() {
+		return peer;
+	}
+
+	/** Queues a line for this peer, returns false if the queue is full and it was dropped. */
+	public boolean send(String line) {
+		if (outbound.offer(line)) {
+			return true;
+		}
+		dropped.incrementAndGet();
+		return false;
+	}
+
+	public int queued() {
+		return outbound.size();
+	}
+
+	// only closes the socket, our own thread notices and cleans up (it might be writing right now)
+	public void close() {
+		running = false;
+		interrupt();
+		Socket s = socket;
+		try {
+			if (s != null) {
+				s.close();
+			}
+		} catch (IOException e) {
+			// closing anyway
+		}
+	}
+
+	private void connect() throws IOException {
+		Socket s = new Socket();
+		s.connect(new InetSocketAddress(peer.getHost(), peer.getPort()), CONNECT_TIMEOUT);
+		s.setTcpNoDelay(true);
+		socket = s;
+		out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8));
+		connects.incrementAndGet();
+	}
+
+	private void disconnect() {
+		try {
+			if (socket != null) {
+				socket.close();
+			}
+		} catch (IOException e) {
+			// closing anyway
+		}
+		socket = null;
+		out = null;
+	}
+
+	public void run() {
+		List<String> batch = new ArrayList<String>();
+		int failures = 0;
+		long backoff = MIN_BACKOFF;
+		while (running) {
+			try {
+				if (batch.isEmpty()) {
+					String line = outbound.poll(1, TimeUnit.SECONDS);
+					if (line == null) {
+						continue;
+					}
+					batch.add(line);
+					outbound.drainTo(batch, BATCH_SIZE - 1);
+				}
+				try {
+					if (out == null) {
+						connect();
+					}
+					for (String line : batch) {
+						out.write(line);
+						out.write('\n');
+					}
+					out.flush();
+					sent.addAndGet(batch.size());
+					batch.clear();
+					failures = 0;
+					backoff = MIN_BACKOFF;
+				} catch (IOException e) {
+					// the batch stays and is sent again after the reconnect
+					disconnect();
+					if (!running) {
+						break;
+					}
+					if (++failures >= MAX_FAILURES) {
+						System.out.println("  Could not reach " + peer.getHost() + ":" + peer.getPort()
+							+ " " + failures + " times, removing it");
+						mesh.remove(this);
+						break;
+					}
+					Thread.sleep(backoff);
+					backoff = Math.min(backoff * 2, MAX_BACKOFF);
+				}
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		disconnect();
+	}
+}
@@ -0,0 +1,73 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The peers we know, safe to use from many threads.
+ *
+ * Peers are compared by value (SocketInfo.equals: same host and port), so the same
+ * peer is never in here twice. Changes (joins, leaves) are rare, reading is
+ * frequent (every broadcast, heartbeat and gossip round goes over all peers), so
+ * changes copy: add and remove build a new unmodifiable list under a lock and
+ * publish it, snapshot() just returns the current one. Iterating a snapshot needs no
+ * lock and never fails, even while other threads add or remove.
+ *
+ * The "host:port host:port" list for join answers is kept as a String and only
+ * changed by the peer that was added or removed, so it is not built again for
+ * every join.
+ */
+public class PeerRegistry {
+	// changed only under the lock of this, together with snapshot and list, read without it by contains
+	private final Set<SocketInfo> peers = ConcurrentHashMap.newKeySet();
+	private volatile List<SocketInfo> snapshot = Collections.emptyList();
+	private volatile String list = "";
+
+	/** Adds the peer, false if it was there already */
+	public synchronized boolean add(SocketInfo peer) {
+		if (!peers.add(peer)) {
+			return false;
+		}
+		List<SocketInfo> copy = new ArrayList<SocketInfo>(snapshot.size() + 1);
+		copy.addAll(snapshot);
+		copy.add(peer);
+		snapshot = Collections.unmodifiableList(copy);
+		list = list.isEmpty() ? peer.toString() : list + " " + peer;
+		return true;
+	}
+
+	/** Removes the peer, false if it was not there */
+	public synchronized boolean remove(SocketInfo peer) {
+		if (!peers.remove(peer)) {
+			return false;
+		}
+		List<SocketInfo> copy = new ArrayList<SocketInfo>(snapshot);
+		copy.remove(peer);
+		snapshot = Collections.unmodifiableList(copy);
+		// cut "host:port" out of the list, a whole entry and one of the spaces around it
+		String s = " " + list + " ";
+		int at = s.indexOf(" " + peer + " ");
+		s = s.substring(0, at) + s.substring(at + peer.toString().length() + 1);
+		list = s.trim();
+		return true;
+	}
+
+	public boolean contains(SocketInfo peer) {
+		return peers.contains(peer);
+	}
+
+	/** The peers right now, does not change when the registry changes later */
+	public List<SocketInfo> snapshot() {
+		return snapshot;
+	}
+
+	public int size() {
+		return snapshot.size();
+	}
+
+	/** All peers as "host:port host:port" */
+	public String list() {
+		return list;
+	}
+}
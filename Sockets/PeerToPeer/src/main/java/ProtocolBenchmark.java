@@ -0,0 +1,174 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import org.json.*;
+
+/**
+ * Compares the old single quoted JSON lines (built by adding Strings, read with
+ * readLine and new JSONObject) with what the Peers send now: bytes per message and
+ * the time to write and to read them.
+ *  - chat: the gossip JSON line, built with JSONObject (with the id and the from of
+ *    the gossip) and read like the ServerTask reads it
+ *  - join and peer list: the BinaryProtocol frames
+ *
+ * Both are written into and read from memory, so only the cost of the format is
+ * measured, not the network.
+ */
+public class ProtocolBenchmark {
+	static int sink = 0; // so the JIT cannot drop the work
+
+	// the messages as the Peers built them before
+	static String oldChat(int i) {
+		return "{'type': 'message', 'username': 'Anna','message':'hello number " + i + "'}";
+	}
+
+	static String oldJoin(int i) {
+		return "{'type': 'join', 'username': 'Anna','ip':'localhost','port':'" + (9000 + i % 1000) + "'}";
+	}
+
+	static String oldPeers(int peers) {
+		String list = "";
+		for (int p = 0; p < peers; p++) {
+			list = list + "localhost:" + (9000 + p) + " ";
+		}
+		return "{'type': 'join', 'list': '" + list + "'}";
+	}
+
+	static byte[] writeOld(String kind, int messages, int peers) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < messages; i++) {
+			sb.append(kind.equals("chat") ? oldChat(i) : kind.equals("join") ? oldJoin(i) : oldPeers(peers)).append('\n');
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	// a chat message like Peer builds it and Gossip sends it on
+	static String gossipChat(int i) {
+		JSONObject json = new JSONObject();
+		json.put("type", "message");
+		json.put("username", "Anna");
+		json.put("message", "hello number " + i);
+		json.put("id", "localhost:9000#3w5e11264sgsf." + i);
+		json.put("from", "localhost:9001");
+		return json.toString();
+	}
+
+	static byte[] writeNew(String kind, int messages, int peers) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		BinaryProtocol.Encoder encoder = new BinaryProtocol.Encoder();
+		for (int i = 0; i < messages; i++) {
+			if (kind.equals("chat")) {
+				out.write((gossipChat(i) + "\n").getBytes(StandardCharsets.UTF_8));
+				continue; // a line, not a frame
+			}
+			if (kind.equals("join")) {
+				encoder.join("Anna", "localhost", 9000 + i % 1000);
+			} else {
+				encoder.beginPeers("localhost:9000", peers);
+				for (int p = 0; p < peers; p++) {
+					encoder.peer("localhost", 9000 + p);
+				}
+				encoder.endPeers();
+			}
+			encoder.writeTo(out);
+		}
+		return out.toByteArray();
+	}
+
+	// what the receiving side does with every message
+	static void readOld(byte[] data) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			JSONObject json = new JSONObject(line);
+			if (json.has("list")) {
+				for (String p : json.getString("list").split(" ")) {
+					if (!p.isEmpty()) {
+						sink += Integer.parseInt(p.split(":")[1]);
+					}
+				}
+			} else if (json.has("port")) {
+				sink += json.getString("username").length() + json.getString("ip").length() + json.getInt("port");
+			} else {
+				sink += json.getString("username").length() + json.getString("message").length();
+			}
+		}
+	}
+
+	// like the ServerTask: one Decoder for the frames and the JSON lines
+	static void readNew(byte[] data) throws IOException {
+		BinaryProtocol.Decoder decoder = new BinaryProtocol.Decoder(new ByteArrayInputStream(data));
+		int type;
+		while ((type = decoder.next()) >= 0) {
+			if (type == BinaryProtocol.JSON) {
+				JSONObject json = new JSONObject(decoder.json);
+				if (json.has("id")) {
+					sink += json.getString("id").length() + json.getString("username").length() + json.getString("message").length();
+				}
+			} else if (type == BinaryProtocol.PEERS) {
+				for (int p = 0; p < decoder.peerCount(); p++) {
+					sink += decoder.peerPort(p);
+				}
+			} else if (type == BinaryProtocol.JOIN) {
+				sink += decoder.username.length() + decoder.host.length() + decoder.port;
+			}
+		}
+	}
+
+	interface Work {
+		void run() throws IOException;
+	}
+
+	// best of a few runs, in ns per message
+	static double time(int messages, Work work) throws IOException {
+		long best = Long.MAX_VALUE;
+		for (int run = 0; run < 5; run++) {
+			long start = System.nanoTime();
+			work.run();
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best / (double) messages;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.out.println("Expected: <messages(int)> <peers(int)>");
+			System.exit(0);
+		}
+		int messages = Integer.parseInt(args[0]);
+		int peers = Integer.parseInt(args[1]);
+
+		for (String kind : new String[] {"chat", "join", "peer list"}) {
+			// peer lists are big, fewer of them
+			int count = kind.equals("peer list") ? Math.max(1, messages / peers) : messages;
+			byte[] old = writeOld(kind, count, peers);
+			byte[] now = writeNew(kind, count, peers);
+			double oldWrite = time(count, () -> writeOld(kind, count, peers));
+			double nowWrite = time(count, () -> writeNew(kind, count, peers));
+			double oldRead = time(count, () -> readOld(old));
+			double nowRead = time(count, () -> readNew(now));
+			String label = kind.equals("peer list") ? "peer list (" + peers + ")" : kind;
+			System.out.printf("%-16s old JSON %6d bytes, write %8.0f ns, read %9.0f ns | %-11s %6d bytes, write %7.0f ns, read %8.0f ns | old read time / new %.1f%n",
+				label, old.length / count, oldWrite, oldRead, kind.equals("chat") ? "gossip JSON" : "binary",
+				now.length / count, nowWrite, nowRead, oldRead / nowRead);
+		}
+
+		// what happens with a quote in the message
+		String text = "it's \"fine\"";
+		try {
+			new JSONObject("{'type': 'message', 'username': 'Anna','message':'" + text + "'}");
+			System.out.println("JSON line with " + text + ": read fine");
+		} catch (JSONException e) {
+			System.out.println("JSON line with " + text + ": " + e.getMessage());
+		}
+		JSONObject json = new JSONObject();
+		json.put("type", "message");
+		json.put("username", "Anna");
+		json.put("message", text);
+		System.out.println("gossip JSON line with " + text + ": read back " + new JSONObject(json.toString()).getString("message"));
+	}
+}
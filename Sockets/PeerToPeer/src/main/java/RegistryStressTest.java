@@ -0,0 +1,208 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Many threads join and leave peers at the same time while other threads go over
+ * the peers like a broadcast does, once with the PeerRegistry and once with the
+ * peer list the Peer had before it (see OldPeers).
+ *
+ * Every writer thread has its own addresses, so we know what has to be in the list
+ * at the end. Every join also tries to add the same peer a second time as a new
+ * SocketInfo, that must not add it twice. Prints what went wrong and how long a
+ * join answer (the peer list as a String) takes at the end.
+ */
+public class RegistryStressTest {
+	static final int ADDRESSES_PER_THREAD = 200;
+	static final int READERS = 2;
+
+	/** What both the registry and the old list have to do for the test */
+	interface Peers {
+		boolean add(SocketInfo peer);
+
+		boolean remove(SocketInfo peer);
+
+		Collection<SocketInfo> forBroadcast();
+
+		String list();
+	}
+
+	static class Registry implements Peers {
+		final PeerRegistry registry = new PeerRegistry();
+
+		public boolean add(SocketInfo peer) {
+			return registry.add(peer);
+		}
+
+		public boolean remove(SocketInfo peer) {
+			return registry.remove(peer);
+		}
+
+		public Collection<SocketInfo> forBroadcast() {
+			return registry.snapshot();
+		}
+
+		public String list() {
+			return registry.list();
+		}
+	}
+
+	// the Peer before the registry: a concurrent set, updateListenToPeers looked at the
+	// host:port of everyone in it before adding, removePeer removed by host:port and
+	// getPeers built the join answer by adding Strings
+	static class OldPeers implements Peers {
+		final Set<SocketInfo> peers = ConcurrentHashMap.newKeySet();
+
+		public boolean add(SocketInfo peer) {
+			Set<String> known = new HashSet<String>();
+			for (SocketInfo p : peers) {
+				known.add(p.getHost() + ":" + p.getPort());
+			}
+			if (known.contains(peer.getHost() + ":" + peer.getPort())) {
+				return false;
+			}
+			return peers.add(peer);
+		}
+
+		public boolean remove(SocketInfo peer) {
+			String hostPort = peer.getHost() + ":" + peer.getPort();
+			return peers.removeIf(p -> (p.getHost() + ":" + p.getPort()).equals(hostPort));
+		}
+
+		public Collection<SocketInfo> forBroadcast() {
+			return peers;
+		}
+
+		public String list() {
+			String s = "";
+			for (SocketInfo p : peers) {
+				s = s + p.getHost() + ":" + p.getPort() + " ";
+			}
+			return s;
+		}
+	}
+
+	private static void run(String label, Peers peers, int threads, int operations) throws InterruptedException {
+		AtomicLong errors = new AtomicLong();
+		AtomicLong broadcasts = new AtomicLong();
+		AtomicBoolean done = new AtomicBoolean(false);
+		List<Set<String>> expected = new ArrayList<Set<String>>();
+		List<Thread> writers = new ArrayList<Thread>();
+		String[] firstError = new String[1];
+
+		for (int t = 0; t < threads; t++) {
+			Set<String> mine = new HashSet<String>();
+			expected.add(mine);
+			int thread = t;
+			int ops = operations / threads;
+			writers.add(new Thread(() -> {
+				Random random = new Random(thread);
+				for (int i = 0; i < ops; i++) {
+					try {
+						String host = "10.0." + thread + "." + random.nextInt(ADDRESSES_PER_THREAD);
+						SocketInfo peer = new SocketInfo(host, 8000);
+						if (mine.remove(host + ":8000")) {
+							if (!peers.remove(peer)) {
+								errors.incrementAndGet();
+							}
+						} else {
+							mine.add(host + ":8000");
+							peers.add(peer);
+							peers.add(new SocketInfo(host, 8000)); // the same peer again, e.g. from a second list
+						}
+					} catch (RuntimeException e) {
+						errors.incrementAndGet();
+						firstError[0] = e.toString();
+					}
+				}
+			}));
+		}
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int r = 0; r < READERS; r++) {
+			readers.add(new Thread(() -> {
+				while (!done.get()) {
+					try {
+						int count = 0;
+						for (SocketInfo p : peers.forBroadcast()) {
+							count += p.getPort() > 0 ? 1 : 0;
+						}
+						broadcasts.incrementAndGet();
+					} catch (RuntimeException e) {
+						errors.incrementAndGet();
+						firstError[0] = e.toString();
+					}
+				}
+			}));
+		}
+		for (Thread t : readers) {
+			t.setDaemon(true);
+			t.start();
+		}
+		long start = System.nanoTime();
+		for (Thread t : writers) {
+			t.setDaemon(true);
+			t.start();
+		}
+		for (Thread t : writers) {
+			t.join(30000);
+		}
+		long millis = (System.nanoTime() - start) / 1000000;
+		done.set(true);
+		for (Thread t : readers) {
+			t.join(1000);
+		}
+
+		// what has to be in there at the end
+		Set<String> all = new HashSet<String>();
+		for (Set<String> mine : expected) {
+			all.addAll(mine);
+		}
+		List<String> inList = new ArrayList<String>();
+		for (String p : peers.list().split(" ")) {
+			if (!p.isEmpty()) {
+				inList.add(p);
+			}
+		}
+		List<String> inBroadcast = new ArrayList<String>();
+		for (SocketInfo p : peers.forBroadcast()) {
+			inBroadcast.add(p.getHost() + ":" + p.getPort());
+		}
+		int duplicates = inBroadcast.size() - new HashSet<String>(inBroadcast).size();
+		boolean same = new HashSet<String>(inBroadcast).equals(all) && new HashSet<String>(inList).equals(all)
+			&& inList.size() == inBroadcast.size();
+
+		// a join answer with the list as it is now
+		int rounds = 1000;
+		long listStart = System.nanoTime();
+		int length = 0;
+		for (int i = 0; i < rounds; i++) {
+			length += peers.list().length();
+		}
+		long listNanos = (System.nanoTime() - listStart) / rounds;
+
+		System.out.printf("%-14s %d joins/leaves in %d threads: %5d ms, %7d broadcasts by %d readers, %d errors%s%n",
+			label, operations, threads, millis, broadcasts.get(), READERS, errors.get(),
+			firstError[0] == null ? "" : " (e.g. " + firstError[0] + ")");
+		System.out.printf("%-14s at the end: %d peers expected, %d in the list (%d twice), list and broadcast %s, "
+			+ "peer list for a join answer %.1f us%n",
+			"", all.size(), inBroadcast.size(), duplicates, same ? "correct" : "WRONG", listNanos / 1000.0);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		if (args.length != 2) {
+			System.out.println("Expected: <threads(int)> <operations(int)>");
+			System.exit(0);
+		}
+		int threads = Integer.parseInt(args[0]);
+		int operations = Integer.parseInt(args[1]);
+		run("PeerRegistry", new Registry(), threads, operations);
+		run("old Peer", new OldPeers(), threads, operations);
+		System.exit(0);
+	}
+}
@@ -1,8 +1,9 @@
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.Socket;
-import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Set;
 
 import org.json.*;
 
@@ -13,44 +14,81 @@ import org.json.*;
  */
 
 public class ServerTask extends Thread {
-	private BufferedReader bufferedReader;
+	private BinaryProtocol.Decoder decoder; // reads binary frames and JSON lines, one per connection
+	private BinaryProtocol.Encoder encoder = new BinaryProtocol.Encoder();
 	private Peer peer = null; // so we have access to the peer that belongs to that thread
-	private PrintWriter out = null;
+	private OutputStream out = null;
 	private Socket socket = null;
+	private Set<Socket> accepted; // the open connections of the ServerThread, ours leaves it when we end
 	
 	// Init with socket that is opened and the peer
-	public ServerTask(Socket socket, Peer peer) throws IOException {
-		bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-		out = new PrintWriter(socket.getOutputStream(), true);
+	public ServerTask(Socket socket, Peer peer, Set<Socket> accepted) throws IOException {
+		decoder = new BinaryProtocol.Decoder(socket.getInputStream());
+		out = new BufferedOutputStream(socket.getOutputStream());
 		this.peer = peer;
 		this.socket = socket;
+		this.accepted = accepted;
 	}
 	
-	// basically wait for an input, right now we can only handle a join request
-	// and a message
+	// basically wait for an input: a join (a binary frame, see BinaryProtocol) or a
+	// JSON line (gossip, membership and other messages)
 	// More requests will be needed to make everything work
 	// You can enhance this or totally change it, up to you. 
-	// I used simple JSON here, you can use your own protocol, use protobuf, anything you want
-	// in here this is not done especially pretty, I just use a PrintWriter and BufferedReader for simplicity
 	public void run() {
+		try {
+			serve();
+		} finally {
+			accepted.remove(socket);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// closing anyway
+			}
+		}
+	}
+
+	private void serve() {
 		while (true) {
 			try {
-			    JSONObject json = new JSONObject(bufferedReader.readLine());
+			    int type = decoder.next();
+			    if (type < 0) {
+			    	break; // the other side closed the connection
+			    }
 
-			    if (json.getString("type").equals("join")){
-			    	System.out.println("     " + json); // just to show the json
+			    if (type == BinaryProtocol.JOIN){
+			    	System.out.println("     " + decoder.username + " wants to join the network");
+			    	String joining = decoder.host + ":" + decoder.port;
+			    	peer.getMembership().revive(joining); // it might have failed before and come back
+			    	peer.updateListenToPeers(joining);
 
-			    	System.out.println("     " + json.getString("username") + " wants to join the network");
-			    	peer.updateListenToPeers(json.getString("ip") + ":" + json.getInt("port"));
-			    	out.println(("{'type': 'join', 'list': '"+ peer.getPeers() +"'}"));
+			    	// answer with all peers we know (the new one too, it skips itself) and the leader
+			    	Collection<SocketInfo> peers = peer.peers();
+			    	encoder.beginPeers(peer.getMembership().getLeader(), peers.size());
+			    	for (SocketInfo s : peers){
+			    		encoder.peer(s.getHost(), s.getPort());
+			    	}
+			    	encoder.endPeers().writeTo(out);
+			    	out.flush();
 
-			    	if (peer.isLeader()){
-			    		peer.pushMessage(json.toString());
+			    	// tell all others about the new peer by gossip, any peer can take a join, not only the leader
+			    	JSONObject json = new JSONObject();
+			    	json.put("type", "joined");
+			    	json.put("username", decoder.username);
+			    	json.put("ip", decoder.host);
+			    	json.put("port", decoder.port);
+			    	peer.getGossip().publish(json);
+			    } else if (type == BinaryProtocol.JSON){
+			    	JSONObject json = new JSONObject(decoder.json);
+			    	if (json.getString("type").matches("heartbeat|election|ok|coordinator")){
+			    		peer.getMembership().onMessage(json);
+			    	} else if (json.getString("type").equals("sync")){
+			    		peer.getGossip().onSync(json);
+			    	} else if (json.has("id")){
+			    		// chat messages and joined notices come by gossip
+			    		peer.getGossip().receive(json);
+			    	} else {
+			    		peer.receive(json);
 			    	}
-			    	// TODO: should make sure that all peers that the leader knows about also get the info about the new peer joining
-			    	// so they can add that peer to the list
-			    } else {
-			    	System.out.println("[" + json.getString("username")+"]: " + json.getString("message"));
 			    }
 			    
 			    
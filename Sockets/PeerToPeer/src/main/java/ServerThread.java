@@ -4,6 +4,7 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -17,6 +18,7 @@ public class ServerThread extends Thread{
 	private ServerSocket serverSocket; // Socket we listen on
 	private SocketInfo socket; // socket info of our own socket (host,port)
 	private Peer peer = null; // throwing in the peer so we can call methods on it
+	private Set<Socket> accepted = ConcurrentHashMap.newKeySet(); // open connections of other peers, so close() can end them
 	
 	public ServerThread(String peer) throws IOException {
 		// peer has host and port, take it appart and save it SocketInfo
@@ -51,10 +53,30 @@ public class ServerThread extends Thread{
 		try {
 			while (true) {
 				Socket sock = serverSocket.accept();
-				new ServerTask(sock, peer).start();
+				accepted.add(sock);
+				new ServerTask(sock, peer, accepted).start();
 			}
 		} catch (Exception e) {
-			e.printStackTrace();
+			if (!serverSocket.isClosed()) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/** Stops listening and closes all connections other peers opened to us */
+	public void close() {
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// closing anyway
+		}
+		for (Socket sock : accepted) {
+			try {
+				sock.close();
+			} catch (IOException e) {
+				// closing anyway
+			}
 		}
+		accepted.clear();
 	}
 }
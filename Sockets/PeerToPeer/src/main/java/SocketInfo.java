@@ -27,4 +27,28 @@ public class SocketInfo {
 		return host;
 	}
 
+	// the same host and port is the same peer, so sets and maps do not hold it twice
+	@Override
+	public boolean equals(Object o){
+		if (this == o){
+			return true;
+		}
+		if (!(o instanceof SocketInfo)){
+			return false;
+		}
+		SocketInfo other = (SocketInfo) o;
+		return port == other.port && host.equals(other.host);
+	}
+
+	@Override
+	public int hashCode(){
+		return 31 * host.hashCode() + port;
+	}
+
+	/** "host:port", as in the peer lists */
+	@Override
+	public String toString(){
+		return host + ":" + port;
+	}
+
 }
\ No newline at end of file
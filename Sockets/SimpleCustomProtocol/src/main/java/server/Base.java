@@ -1,58 +1,276 @@
 package server;
 
-class Base { 
+import java.math.BigInteger;
+
+/**
+ * Arithmetic on numbers given as digit strings in base 2 to 36 ("0"-"9", then
+ * "A"-"Z", lower case is accepted as well). Numbers can be as long as needed and
+ * may have a leading '-'. Results are upper case without leading zeros, zero is "0".
+ *
+ * Add and subtract work digit by digit directly in the given base, they never
+ * convert the number to binary. Multiply, divide and mod go through BigInteger,
+ * which has the faster (Karatsuba/Toom-Cook) algorithms for long numbers.
+ */
+class Base {
+
+  static final int MIN_BASE = 2;
+  static final int MAX_BASE = 36;
+
+  // digit value of every ASCII character, 99 for characters that are no digit
+  private static final byte[] DIGITS = new byte[128];
+  static {
+    java.util.Arrays.fill(DIGITS, (byte)99);
+    for (int i = 0; i < 10; i++) {
+      DIGITS['0' + i] = (byte)i;
+    }
+    for (int i = 0; i < 26; i++) {
+      DIGITS['A' + i] = (byte)(i + 10);
+      DIGITS['a' + i] = (byte)(i + 10);
+    }
+  }
+
+  // up to this many digits BigInteger parses the string itself
+  private static final int PARSE_CHUNK = 1024;
 
   private int convertToInt(char ch) {
-   if(ch >= '0' && ch <= '9')
-      return (int)ch - '0';
-   else
-      return (int)ch - 'A' + 10;
+    return ch < 128 ? DIGITS[ch] : 99;
   }
-  
+
   private char convertToBase(int n) {
-    if (n >= 0 && n <= 9) 
-        return (char)(n + 48); 
+    if (n >= 0 && n <= 9)
+        return (char)(n + 48);
     else
         return (char)(n - 10 + 65);
   }
 
-  /* convert a number from base-N to base-10 */
-  private int toDecimal(String num, int base) {
-    int len = num.length();
-    int exp = 1;
-    int decimalVal = 0;
+  private void checkBase(int base) {
+    if (base < MIN_BASE || base > MAX_BASE) {
+      throw new java.lang.RuntimeException("Base must be between " + MIN_BASE + " and " + MAX_BASE + "!");
+    }
+  }
+
+  /*
+   * Checks all digits of num and returns the index of the first significant digit,
+   * so after the sign and the leading zeros. Returns num.length() for zero.
+   */
+  private int firstDigit(String num, int base) {
+    int start = (num.length() > 0 && num.charAt(0) == '-') ? 1 : 0;
+    if (start == num.length()) {
+      throw new java.lang.RuntimeException("Incorrect value provided for the given base!");
+    }
+    int first = num.length();
+    for (int i = start; i < num.length(); i++) {
+      int digit = convertToInt(num.charAt(i));
+      if (digit >= base) {
+        throw new java.lang.RuntimeException("Incorrect value provided for the given base!");
+      }
+      if (digit != 0 && first == num.length()) {
+        first = i;
+      }
+    }
+    return first;
+  }
+
+  /* negative zero is just zero */
+  private boolean isNegative(String num, int first) {
+    return num.charAt(0) == '-' && first < num.length();
+  }
+
+  /* compares the magnitudes of a (from index fa) and b (from index fb) */
+  private int compareMagnitude(String a, int fa, String b, int fb) {
+    int lenA = a.length() - fa;
+    int lenB = b.length() - fb;
+    if (lenA != lenB) {
+      return lenA < lenB ? -1 : 1;
+    }
+    for (int i = 0; i < lenA; i++) {
+      int da = convertToInt(a.charAt(fa + i));
+      int db = convertToInt(b.charAt(fb + i));
+      if (da != db) {
+        return da < db ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+
+  /* |a| + |b|, written from the back into one char array */
+  private String addMagnitude(String a, int fa, String b, int fb, int base, boolean negative) {
+    int i = a.length() - 1;
+    int j = b.length() - 1;
+    char[] out = new char[Math.max(a.length() - fa, b.length() - fb) + 2];
+    int pos = out.length;
+    int carry = 0;
+    while (i >= fa || j >= fb || carry != 0) {
+      int sum = carry;
+      if (i >= fa) sum += convertToInt(a.charAt(i--));
+      if (j >= fb) sum += convertToInt(b.charAt(j--));
+      carry = sum >= base ? 1 : 0;
+      out[--pos] = convertToBase(sum - carry * base);
+    }
+    return finish(out, pos, negative);
+  }
+
+  /* |a| - |b|, only called with |a| >= |b| */
+  private String subtractMagnitude(String a, int fa, String b, int fb, int base, boolean negative) {
+    int i = a.length() - 1;
+    int j = b.length() - 1;
+    char[] out = new char[a.length() - fa + 1];
+    int pos = out.length;
+    int borrow = 0;
+    while (i >= fa) {
+      int diff = convertToInt(a.charAt(i--)) - borrow;
+      if (j >= fb) diff -= convertToInt(b.charAt(j--));
+      borrow = diff < 0 ? 1 : 0;
+      out[--pos] = convertToBase(diff + borrow * base);
+    }
+    // skip the zeros the subtraction left in front
+    while (pos < out.length - 1 && out[pos] == '0') {
+      pos++;
+    }
+    return finish(out, pos, negative);
+  }
+
+  /* turns out[pos..] into the result string, adds the sign if needed */
+  private String finish(char[] out, int pos, boolean negative) {
+    if (pos == out.length) {
+      return "0";
+    }
+    if (negative && !(out.length - pos == 1 && out[pos] == '0')) {
+      out[--pos] = '-';
+    }
+    return new String(out, pos, out.length - pos);
+  }
+
+  /* a + b, or a - b if subtract is set */
+  private String addSigned(String num1, String num2, int base, boolean subtract) {
+    checkBase(base);
+    int f1 = firstDigit(num1, base);
+    int f2 = firstDigit(num2, base);
+    boolean neg1 = isNegative(num1, f1);
+    boolean neg2 = isNegative(num2, f2) != subtract;
+    if (neg1 == neg2) {
+      return addMagnitude(num1, f1, num2, f2, base, neg1);
+    }
+    // different signs, take the smaller magnitude away from the larger
+    if (compareMagnitude(num1, f1, num2, f2) >= 0) {
+      return subtractMagnitude(num1, f1, num2, f2, base, neg1);
+    }
+    return subtractMagnitude(num2, f2, num1, f1, base, neg2);
+  }
+
+  private BigInteger toBigInteger(String num, int base) {
+    int first = firstDigit(num, base); // BigInteger would also take unicode digits, so check first
+    if (num.length() - first <= PARSE_CHUNK) {
+      return new BigInteger(num, base);
+    }
+    BigInteger value = parse(num, first, num.length(), base, new BigInteger[32]);
+    return isNegative(num, first) ? value.negate() : value;
+  }
 
-    for(int i = len - 1; i >= 0; i--) {
-      int _tmp = convertToInt(num.charAt(i));
-      if(_tmp >= base) {
-         throw new java.lang.RuntimeException("Incorrect value provided for the given base!");
-       }
-       decimalVal += _tmp * exp;
-       exp *= base;
+  /*
+   * new BigInteger(String) takes quadratic time on long strings. Splitting the
+   * digits in a high and a low part and calculating high * base^lowLength + low
+   * lets BigInteger use its fast multiplication instead. powers[k] caches
+   * base^(PARSE_CHUNK * 2^k) since the same split sizes come up again and again.
+   */
+  private BigInteger parse(String num, int from, int to, int base, BigInteger[] powers) {
+    int length = to - from;
+    if (length <= PARSE_CHUNK) {
+      return new BigInteger(num.substring(from, to), base);
     }
-    return decimalVal;
+    int k = 0;
+    while ((PARSE_CHUNK << (k + 1)) < length) {
+      k++;
+    }
+    int lowLength = PARSE_CHUNK << k;
+    BigInteger high = parse(num, from, to - lowLength, base, powers);
+    BigInteger low = parse(num, to - lowLength, to, base, powers);
+    return high.multiply(power(base, k, powers)).add(low);
   }
 
-  /* convert a number from base-10 to base-N */
-  private String toBaseN(int num, int base) {
-    StringBuilder baseN = new StringBuilder("");
-     while(num > 0) {
-        baseN.append(convertToBase(num % base));
-        num /= base;
-     }
-     return baseN.reverse().toString();
+  private BigInteger power(int base, int k, BigInteger[] powers) {
+    if (powers[k] == null) {
+      powers[k] = (k == 0)
+        ? BigInteger.valueOf(base).pow(PARSE_CHUNK)
+        : power(base, k - 1, powers).multiply(power(base, k - 1, powers));
+    }
+    return powers[k];
+  }
+
+  private String toBaseN(BigInteger num, int base) {
+    String result = num.toString(base);
+    // toString uses lower case letters
+    return base > 10 ? result.toUpperCase() : result;
   }
 
   public String add(String num1, String num2, int base) {
-    int num1Int = toDecimal(num1, base);
-    int num2Int = toDecimal(num2, base);
-    return toBaseN(num1Int + num2Int, base);
+    return addSigned(num1, num2, base, false);
   }
 
   public String substract(String num1, String num2, int base) {
-    int num1Int = toDecimal(num1, base);
-    int num2Int = toDecimal(num2, base);
-    return toBaseN(num1Int - num2Int, base);
+    return addSigned(num1, num2, base, true);
+  }
+
+  public String multiply(String num1, String num2, int base) {
+    checkBase(base);
+    return toBaseN(toBigInteger(num1, base).multiply(toBigInteger(num2, base)), base);
   }
-	 
-} 
+
+  /* integer division, rounds towards zero like / in Java */
+  public String divide(String num1, String num2, int base) {
+    checkBase(base);
+    BigInteger divisor = toBigInteger(num2, base);
+    if (divisor.signum() == 0) {
+      throw new java.lang.RuntimeException("Division by zero!");
+    }
+    return toBaseN(toBigInteger(num1, base).divide(divisor), base);
+  }
+
+  /* remainder of divide, has the sign of num1 like % in Java */
+  public String mod(String num1, String num2, int base) {
+    checkBase(base);
+    BigInteger divisor = toBigInteger(num2, base);
+    if (divisor.signum() == 0) {
+      throw new java.lang.RuntimeException("Division by zero!");
+    }
+    return toBaseN(toBigInteger(num1, base).remainder(divisor), base);
+  }
+
+  /*
+   * Converts num from one base to another. Between powers of two (2, 4, 8, 16, 32)
+   * the bits are just regrouped, which is linear in the number of digits.
+   */
+  public String convert(String num, int fromBase, int toBase) {
+    checkBase(fromBase);
+    checkBase(toBase);
+    int first = firstDigit(num, fromBase);
+    boolean negative = isNegative(num, first);
+    if (Integer.bitCount(fromBase) == 1 && Integer.bitCount(toBase) == 1) {
+      int fromBits = Integer.numberOfTrailingZeros(fromBase);
+      int toBits = Integer.numberOfTrailingZeros(toBase);
+      int totalBits = (num.length() - first) * fromBits;
+      char[] out = new char[(totalBits + toBits - 1) / toBits + 1];
+      int pos = out.length;
+      long bits = 0;
+      int count = 0;
+      for (int i = num.length() - 1; i >= first; i--) {
+        bits |= (long)convertToInt(num.charAt(i)) << count;
+        count += fromBits;
+        while (count >= toBits) {
+          out[--pos] = convertToBase((int)(bits & (toBase - 1)));
+          bits >>>= toBits;
+          count -= toBits;
+        }
+      }
+      if (count > 0) {
+        out[--pos] = convertToBase((int)bits);
+      }
+      while (pos < out.length - 1 && out[pos] == '0') {
+        pos++;
+      }
+      return finish(out, pos, negative);
+    }
+    return toBaseN(toBigInteger(num, fromBase), toBase);
+  }
+
+}
@@ -76,6 +76,15 @@ class SockBaseServer {
                 } else if (operation == Operations.SUB) {
                   result = base.substract(num1, num2, baseN);
 		  System.out.println("base " + baseN + ": " + num1 + " - " + num2 + " = " + result);
+                } else if (operation == Operations.MUL) {
+                  result = base.multiply(num1, num2, baseN);
+                  System.out.println("base " + baseN + ": " + num1 + " * " + num2 + " = " + result);
+                } else if (operation == Operations.DIV) {
+                  result = base.divide(num1, num2, baseN);
+                  System.out.println("base " + baseN + ": " + num1 + " / " + num2 + " = " + result);
+                } else if (operation == Operations.MOD) {
+                  result = base.mod(num1, num2, baseN);
+                  System.out.println("base " + baseN + ": " + num1 + " % " + num2 + " = " + result);
                 }
 
                 if (response == Response.JSON){
@@ -105,6 +114,12 @@ class SockBaseServer {
         return Operations.ADD;
       } else if (operation.equals("sub")) {
         return Operations.SUB;
+      } else if (operation.equals("mul")) {
+        return Operations.MUL;
+      } else if (operation.equals("div")) {
+        return Operations.DIV;
+      } else if (operation.equals("mod")) {
+        return Operations.MOD;
       } else {
         throw new java.lang.RuntimeException("Operation not found!");
       }
@@ -130,7 +145,10 @@ class SockBaseServer {
 
 enum Operations {
   ADD,
-  SUB
+  SUB,
+  MUL,
+  DIV,
+  MOD
 }
 enum Response {
   JSON,
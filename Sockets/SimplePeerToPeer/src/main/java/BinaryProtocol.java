@@ -0,0 +1,177 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A compact binary format for the chat messages.
+ *
+ * Every message is a frame: type (1 byte), length of the rest (varint), the fields.
+ *  - CHAT:  username, message
+ * Numbers are varints (7 bits per byte, the high bit says "more bytes follow"),
+ * strings are their UTF-8 length as varint and the UTF-8 bytes. Nothing is escaped,
+ * so quotes or anything else in a message are fine, and the reader knows the length
+ * before it reads, no searching for the end of a line.
+ *
+ * PeerToPeer uses the same frame layout for its join and peer list, its chat goes
+ * by gossip as JSON lines.
+ *
+ * Encoder and Decoder reuse their byte arrays, use one per thread or connection.
+ */
+public class BinaryProtocol {
+	public static final int CHAT = 1;
+	static final int MAX_FRAME = 1 << 20; // bigger frames are an error, not a reason to allocate a huge array
+
+	/** Builds one frame at a time in a reused array: chat(...), then writeTo or toByteArray. */
+	public static class Encoder {
+		static final int HEADER = 6; // room for the type and the longest varint of a length
+		private byte[] buffer = new byte[256];
+		private int size;
+		private int start; // where the finished frame starts
+
+		private void ensure(int more) {
+			if (size + more > buffer.length) {
+				byte[] bigger = new byte[Math.max(size + more, buffer.length * 2)];
+				System.arraycopy(buffer, 0, bigger, 0, size);
+				buffer = bigger;
+			}
+		}
+
+		// puts type and length in front of the fields
+		private void end(int type) {
+			int length = size - HEADER;
+			int varintSize = 1;
+			for (int v = length; (v & ~0x7F) != 0; v >>>= 7) {
+				varintSize++;
+			}
+			start = HEADER - 1 - varintSize;
+			buffer[start] = (byte) type;
+			int at = start + 1;
+			int v = length;
+			while ((v & ~0x7F) != 0) {
+				buffer[at++] = (byte) ((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			buffer[at] = (byte) v;
+		}
+
+		private void string(String value) {
+			byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+			ensure(5 + utf8.length);
+			int v = utf8.length;
+			while ((v & ~0x7F) != 0) {
+				buffer[size++] = (byte) ((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			buffer[size++] = (byte) v;
+			System.arraycopy(utf8, 0, buffer, size, utf8.length);
+			size += utf8.length;
+		}
+
+		public Encoder chat(String username, String message) {
+			size = HEADER;
+			string(username);
+			string(message);
+			end(CHAT);
+			return this;
+		}
+
+		public void writeTo(OutputStream out) throws IOException {
+			out.write(buffer, start, size - start);
+		}
+
+		/** A copy of the last frame, e.g. to send the same frame to many peers */
+		public byte[] toByteArray() {
+			byte[] frame = new byte[size - start];
+			System.arraycopy(buffer, start, frame, 0, frame.length);
+			return frame;
+		}
+	}
+
+	/**
+	 * Reads the frames of one connection. next() reads a message and puts its
+	 * fields into the public fields below, they are overwritten by the next one.
+	 */
+	public static class Decoder {
+		private final InputStream in;
+		private byte[] buffer = new byte[256];
+		private int pos;
+		private int limit;
+
+		public String username;
+		public String message;
+
+		public Decoder(InputStream in) {
+			this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
+		}
+
+		/** Reads the next message, returns its type or -1 when the other side closed */
+		public int next() throws IOException {
+			int first = in.read();
+			if (first < 0) {
+				return -1;
+			}
+			if (first != CHAT) {
+				throw new IOException("Unknown message type " + first);
+			}
+			int length = readVarint();
+			if (length < 0 || length > MAX_FRAME) {
+				throw new IOException("Frame too long: " + length);
+			}
+			if (length > buffer.length) {
+				buffer = new byte[Math.max(length, buffer.length * 2)];
+			}
+			int read = 0;
+			while (read < length) {
+				int n = in.read(buffer, read, length - read);
+				if (n < 0) {
+					throw new EOFException("Connection closed in the middle of a frame");
+				}
+				read += n;
+			}
+			pos = 0;
+			limit = length;
+			username = string();
+			message = string();
+			return first;
+		}
+
+		// a varint straight from the stream, for the frame length
+		private int readVarint() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				int b = in.read();
+				if (b < 0) {
+					throw new EOFException("Connection closed in the middle of a frame");
+				}
+				value |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("Varint too long");
+		}
+
+		private String string() throws IOException {
+			int length = 0;
+			for (int shift = 0; ; shift += 7) {
+				if (pos >= limit || shift >= 35) {
+					throw new IOException("Frame too short");
+				}
+				int b = buffer[pos++];
+				length |= (b & 0x7F) << shift;
+				if ((b & 0x80) == 0) {
+					break;
+				}
+			}
+			if (length < 0 || length > limit - pos) {
+				throw new IOException("String longer than the frame");
+			}
+			String s = new String(buffer, pos, length, StandardCharsets.UTF_8);
+			pos += length;
+			return s;
+		}
+	}
+}
@@ -0,0 +1,249 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Fan-out latency of a broadcast to many local subscribers: the old way (one loop
+ * writing to every socket, as ServerThread.sendMessage did) against the Broadcaster.
+ *
+ * Every subscriber is a thread reading with a BinaryProtocol.Decoder, every message
+ * carries System.nanoTime() of when the broadcast started, so we get the latency of
+ * every delivery and the time until the last subscriber had a message.
+ *
+ * Then one subscriber stalls for 2 s (it does not read) while 20 others keep up with
+ * 4 KB messages, once with the old loop and once for every SlowPolicy.
+ */
+public class BroadcastBenchmark {
+	static final long STALL_MILLIS = 2000;
+
+	/** A listening peer, records when each message arrived */
+	static class Client extends Thread {
+		final Socket socket;
+		final long[] latency; // per message, 0 if it did not arrive
+		final long stallMillis;
+		volatile int received = 0;
+
+		Client(int port, int messages, long stallMillis) throws IOException {
+			socket = new Socket();
+			if (stallMillis > 0) {
+				socket.setReceiveBufferSize(4096); // so the stall shows quickly
+			}
+			socket.connect(new java.net.InetSocketAddress("localhost", port));
+			latency = new long[messages];
+			this.stallMillis = stallMillis;
+			setDaemon(true);
+		}
+
+		public void run() {
+			try {
+				if (stallMillis > 0) {
+					Thread.sleep(stallMillis);
+				}
+				BinaryProtocol.Decoder decoder = new BinaryProtocol.Decoder(socket.getInputStream());
+				while (decoder.next() == BinaryProtocol.CHAT) {
+					long now = System.nanoTime();
+					int i = Integer.parseInt(decoder.username);
+					int space = decoder.message.indexOf(' ');
+					latency[i] = now - Long.parseLong(space < 0 ? decoder.message : decoder.message.substring(0, space));
+					received++;
+				}
+			} catch (Exception e) {
+				// disconnected
+			}
+		}
+	}
+
+	/** Something that sends a frame to all subscribers */
+	interface Sender {
+		void send(byte[] frame) throws IOException;
+	}
+
+	// the old ServerThread: accept into a list, write to every socket in a loop
+	static class OldServer extends Thread implements Sender {
+		final ServerSocket serverSocket;
+		final List<Socket> sockets = new ArrayList<Socket>();
+
+		OldServer(int port) throws IOException {
+			serverSocket = new ServerSocket(port);
+			setDaemon(true);
+		}
+
+		public void run() {
+			try {
+				while (true) {
+					Socket s = serverSocket.accept();
+					synchronized (sockets) {
+						sockets.add(s);
+					}
+				}
+			} catch (IOException e) {
+				// closed
+			}
+		}
+
+		int size() {
+			synchronized (sockets) {
+				return sockets.size();
+			}
+		}
+
+		public void send(byte[] frame) throws IOException {
+			synchronized (sockets) {
+				for (Socket s : sockets) {
+					OutputStream out = s.getOutputStream();
+					out.write(frame);
+				}
+			}
+		}
+
+		void close() throws IOException {
+			serverSocket.close();
+			synchronized (sockets) {
+				for (Socket s : sockets) {
+					s.close();
+				}
+			}
+		}
+	}
+
+	private static long percentile(long[] sorted, double p) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+		return sorted[Math.min(sorted.length, Math.max(1, rank)) - 1];
+	}
+
+	private static List<Client> connect(int port, int subscribers, int messages, boolean withStalled) throws IOException {
+		List<Client> clients = new ArrayList<Client>();
+		for (int i = 0; i < subscribers; i++) {
+			clients.add(new Client(port, messages, withStalled && i == 0 ? STALL_MILLIS : 0));
+		}
+		for (Client c : clients) {
+			c.start();
+		}
+		return clients;
+	}
+
+	private static void waitFor(List<Client> clients, int messages, long timeoutMillis) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeoutMillis;
+		for (Client c : clients) {
+			while (c.received < messages && System.currentTimeMillis() < end) {
+				Thread.sleep(5);
+			}
+		}
+	}
+
+	// sends paced messages and prints the latency per delivery and per complete fan-out
+	private static void fanOut(String label, Sender sender, List<Client> clients, int messages) throws Exception {
+		BinaryProtocol.Encoder encoder = new BinaryProtocol.Encoder();
+		for (int i = 0; i < messages; i++) {
+			sender.send(encoder.chat(Integer.toString(i), Long.toString(System.nanoTime())).toByteArray());
+			Thread.sleep(20); // one after the other, we want the latency, not the throughput
+		}
+		waitFor(clients, messages, 10000);
+		long[] deliveries = new long[clients.size() * messages];
+		long[] complete = new long[messages];
+		int n = 0;
+		for (int i = 0; i < messages; i++) {
+			for (Client c : clients) {
+				if (c.latency[i] > 0) {
+					deliveries[n++] = c.latency[i];
+					complete[i] = Math.max(complete[i], c.latency[i]);
+				}
+			}
+		}
+		deliveries = Arrays.copyOf(deliveries, n);
+		Arrays.sort(deliveries);
+		Arrays.sort(complete);
+		System.out.printf("%-12s %d subscribers: delivery p50=%6d us p99=%6d us | all subscribers have it p50=%6d us p99=%6d us (%d of %d delivered)%n",
+			label, clients.size(), percentile(deliveries, 50) / 1000, percentile(deliveries, 99) / 1000,
+			percentile(complete, 50) / 1000, percentile(complete, 99) / 1000, n, clients.size() * messages);
+	}
+
+	// one stalled subscriber, messages of 4 KB at a rate the others can keep up with
+	private static void slowConsumer(String label, Sender sender, List<Client> clients, int messages) throws Exception {
+		BinaryProtocol.Encoder encoder = new BinaryProtocol.Encoder();
+		char[] padding = new char[4000];
+		Arrays.fill(padding, 'x');
+		String pad = " " + new String(padding);
+		long start = System.nanoTime();
+		for (int i = 0; i < messages; i++) {
+			sender.send(encoder.chat(Integer.toString(i), System.nanoTime() + pad).toByteArray());
+			if (i % 2 == 1) {
+				Thread.sleep(1);
+			}
+		}
+		long sendMillis = (System.nanoTime() - start) / 1000000;
+		waitFor(clients.subList(1, clients.size()), messages, 10000);
+		long worst = 0;
+		for (Client c : clients.subList(1, clients.size())) {
+			for (long l : c.latency) {
+				worst = Math.max(worst, l);
+			}
+		}
+		Thread.sleep(STALL_MILLIS + 500); // let the stalled one read what it still gets
+		System.out.printf("%-12s sending %d messages took %5d ms, the others waited up to %5d ms, the stalled one got %d%n",
+			label, messages, sendMillis, worst / 1000000, clients.get(0).received);
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length != 3) {
+			System.out.println("Expected: <subscribers(int)> <messages(int)> <port(int)>");
+			System.exit(0);
+		}
+		int subscribers = Integer.parseInt(args[0]);
+		int messages = Integer.parseInt(args[1]);
+		int port = Integer.parseInt(args[2]);
+
+		OldServer old = new OldServer(port);
+		old.start();
+		List<Client> clients = connect(port, subscribers, messages, false);
+		while (old.size() < subscribers) {
+			Thread.sleep(10);
+		}
+		fanOut("old loop", old, clients, messages);
+		old.close();
+
+		ServerThread server = new ServerThread(Integer.toString(port + 1));
+		server.setDaemon(true);
+		server.start();
+		clients = connect(port + 1, subscribers, messages, false);
+		while (server.getBroadcaster().size() < subscribers) {
+			Thread.sleep(10);
+		}
+		Broadcaster b = server.getBroadcaster();
+		fanOut("Broadcaster", frame -> b.broadcast(frame), clients, messages);
+
+		// a stalled subscriber and 20 others, 2000 messages of 4 KB
+		int fast = 20;
+		int burst = 2000;
+		old = new OldServer(port + 2);
+		old.start();
+		clients = connect(port + 2, fast + 1, burst, true);
+		while (old.size() < fast + 1) {
+			Thread.sleep(10);
+		}
+		slowConsumer("old loop", old, clients, burst);
+		old.close();
+		int p = port + 3;
+		for (Broadcaster.SlowPolicy policy : Broadcaster.SlowPolicy.values()) {
+			ServerThread s = new ServerThread(Integer.toString(p), policy);
+			s.setDaemon(true);
+			s.start();
+			clients = connect(p, fast + 1, burst, true);
+			while (s.getBroadcaster().size() < fast + 1) {
+				Thread.sleep(10);
+			}
+			Broadcaster broadcaster = s.getBroadcaster();
+			slowConsumer(policy.toString(), frame -> broadcaster.broadcast(frame), clients, burst);
+			System.out.println("             " + broadcaster.stats());
+			p++;
+		}
+		System.exit(0);
+	}
+}
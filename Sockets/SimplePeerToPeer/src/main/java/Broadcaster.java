@@ -0,0 +1,276 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends every message to all subscribers (the peers listening to us) without
+ * waiting for any of them.
+ *
+ * broadcast() only puts the message into a small ring buffer per subscriber, one
+ * thread with a NIO Selector does all the writing: the sockets are non blocking, so
+ * it writes to every subscriber as much as its socket takes right now and comes back
+ * when there is room again. A stalled subscriber only fills its own ring buffer.
+ * What happens when that is full is the SlowPolicy:
+ *  - DROP_OLDEST: the oldest message in its buffer is dropped, it misses some messages
+ *  - DISCONNECT: it is disconnected, it has to connect again
+ *  - BLOCK: broadcast() waits until there is room, so the slowest subscriber sets the
+ *    pace for everyone (no message is lost)
+ * Subscribers that closed their socket or whose socket fails are removed.
+ */
+public class Broadcaster extends Thread {
+	public enum SlowPolicy { DROP_OLDEST, DISCONNECT, BLOCK }
+
+	static final int QUEUE_SIZE = 1024; // messages per subscriber
+	static final int BATCH = 64; // frames written with one gathering write
+
+	private final Selector selector;
+	private final SlowPolicy policy;
+	private final int queueSize;
+	private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+	private final Queue<Subscriber> added = new ConcurrentLinkedQueue<Subscriber>(); // to register with the selector
+	private final Queue<Subscriber> ready = new ConcurrentLinkedQueue<Subscriber>(); // have messages, need OP_WRITE
+
+	final AtomicLong sent = new AtomicLong();
+	final AtomicLong dropped = new AtomicLong();
+	final AtomicLong disconnected = new AtomicLong(); // by the DISCONNECT policy
+	final AtomicLong gone = new AtomicLong(); // closed or broken sockets
+
+	// for BroadcasterTest: runs on the selector thread after the added subscribers are
+	// registered and before the ready ones are handled, so a test can add and
+	// broadcast exactly in between
+	volatile Runnable afterAdded = null;
+
+	/** One listening peer, its ring buffer is guarded by the lock of the Subscriber */
+	private class Subscriber {
+		final SocketChannel channel;
+		SelectionKey key; // only used by the selector thread
+		final byte[][] ring;
+		int head = 0;
+		int count = 0;
+		boolean scheduled = false; // waiting in ready or registered for OP_WRITE
+		volatile boolean closed = false;
+		// only used by the selector thread
+		final ByteBuffer[] batch = new ByteBuffer[BATCH];
+		int batchStart = 0;
+		int batchEnd = 0;
+
+		Subscriber(SocketChannel channel) {
+			this.channel = channel;
+			this.ring = new byte[queueSize][];
+		}
+
+		// false if the subscriber has to be disconnected
+		synchronized boolean offer(byte[] frame) throws InterruptedException {
+			while (count == ring.length && !closed) {
+				if (policy == SlowPolicy.DROP_OLDEST) {
+					ring[head] = null;
+					head = (head + 1) % ring.length;
+					count--;
+					dropped.incrementAndGet();
+				} else if (policy == SlowPolicy.DISCONNECT) {
+					return false;
+				} else {
+					selector.wakeup(); // make sure it is being written while we wait
+					wait(100);
+				}
+			}
+			if (closed) {
+				return true; // nothing to do, it is gone already
+			}
+			ring[(head + count) % ring.length] = frame;
+			count++;
+			return true;
+		}
+
+		// true if the selector thread has to be told about it
+		synchronized boolean schedule() {
+			if (scheduled || closed) {
+				return false;
+			}
+			scheduled = true;
+			return true;
+		}
+
+		synchronized boolean isScheduled() {
+			return scheduled;
+		}
+
+		synchronized byte[] poll() {
+			if (count == 0) {
+				return null;
+			}
+			byte[] frame = ring[head];
+			ring[head] = null;
+			head = (head + 1) % ring.length;
+			count--;
+			notifyAll(); // a broadcast() might be waiting for room (BLOCK)
+			return frame;
+		}
+
+		// called by the selector thread when it wrote everything, false if new messages came in meanwhile
+		synchronized boolean idle() {
+			if (count > 0) {
+				return false;
+			}
+			scheduled = false;
+			return true;
+		}
+	}
+
+	public Broadcaster(SlowPolicy policy, int queueSize) throws IOException {
+		super("broadcaster");
+		setDaemon(true);
+		this.selector = Selector.open();
+		this.policy = policy;
+		this.queueSize = queueSize;
+	}
+
+	/** A new listening peer, the channel is switched to non blocking */
+	public void add(SocketChannel channel) throws IOException {
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Subscriber s = new Subscriber(channel);
+		added.add(s); // before anyone can broadcast to it, so it is registered first
+		subscribers.add(s);
+		selector.wakeup();
+	}
+
+	public int size() {
+		return subscribers.size();
+	}
+
+	/** Queues the frame for every subscriber, only waits with the BLOCK policy */
+	public void broadcast(byte[] frame) {
+		boolean wake = false;
+		for (Subscriber s : subscribers) {
+			try {
+				if (!s.offer(frame)) {
+					close(s, disconnected);
+					continue;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			if (s.schedule()) {
+				ready.add(s);
+				wake = true;
+			}
+		}
+		if (wake) {
+			selector.wakeup();
+		}
+	}
+
+	// counter says why, it only counts if it really was removed now
+	private void close(Subscriber s, AtomicLong counter) {
+		if (!subscribers.remove(s)) {
+			return;
+		}
+		counter.incrementAndGet();
+		s.closed = true;
+		try {
+			s.channel.close(); // also cancels its key
+		} catch (IOException e) {
+			// closing anyway
+		}
+		synchronized (s) {
+			s.notifyAll();
+		}
+	}
+
+	public void run() {
+		ByteBuffer readBuffer = ByteBuffer.allocate(256);
+		while (true) {
+			try {
+				selector.select();
+				Subscriber s;
+				while ((s = added.poll()) != null) {
+					if (!s.closed) {
+						// we read only to notice when the other side closes. A broadcast can
+						// come between add() and here, then its turn in ready was taken
+						// already while it had no key, so we ask for OP_WRITE now
+						int ops = SelectionKey.OP_READ | (s.isScheduled() ? SelectionKey.OP_WRITE : 0);
+						s.key = s.channel.register(selector, ops, s);
+					}
+				}
+				Runnable hook = afterAdded;
+				if (hook != null) {
+					hook.run();
+				}
+				while ((s = ready.poll()) != null) {
+					// no key yet: it is still in added, which sees that it is scheduled
+					if (s.key != null && s.key.isValid()) {
+						s.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+					}
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					s = (Subscriber) key.attachment();
+					try {
+						if (key.isValid() && key.isReadable()) {
+							readBuffer.clear();
+							if (s.channel.read(readBuffer) < 0) {
+								close(s, gone);
+								continue;
+							}
+						}
+						if (key.isValid() && key.isWritable()) {
+							write(s);
+						}
+					} catch (IOException e) {
+						close(s, gone);
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+	}
+
+	// writes as much as the socket takes, up to BATCH frames with one call
+	private void write(Subscriber s) throws IOException {
+		while (true) {
+			if (s.batchStart == s.batchEnd) {
+				s.batchStart = 0;
+				s.batchEnd = 0;
+				byte[] frame;
+				while (s.batchEnd < BATCH && (frame = s.poll()) != null) {
+					s.batch[s.batchEnd++] = ByteBuffer.wrap(frame);
+				}
+				if (s.batchEnd == 0) {
+					if (s.idle()) {
+						s.key.interestOps(SelectionKey.OP_READ); // nothing left, wait for the next broadcast
+						return;
+					}
+					continue;
+				}
+			}
+			s.channel.write(s.batch, s.batchStart, s.batchEnd - s.batchStart);
+			while (s.batchStart < s.batchEnd && !s.batch[s.batchStart].hasRemaining()) {
+				s.batch[s.batchStart++] = null;
+				sent.incrementAndGet();
+			}
+			if (s.batchStart < s.batchEnd) {
+				return; // the socket is full, OP_WRITE tells us when there is room
+			}
+		}
+	}
+
+	/** e.g. "1000 subscribers, 100000 sent, 0 dropped, 0 disconnected, 0 gone" */
+	public String stats() {
+		return subscribers.size() + " subscribers, " + sent.get() + " sent, " + dropped.get() + " dropped, "
+			+ disconnected.get() + " disconnected, " + gone.get() + " gone";
+	}
+}
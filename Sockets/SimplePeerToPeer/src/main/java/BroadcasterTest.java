@@ -0,0 +1,108 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A listener that joins and gets a message right away must get it, and all later
+ * ones too.
+ *
+ * The dangerous moment is when the selector thread has just registered the new
+ * listeners and not yet looked at the ready ones: a listener added and sent to right
+ * then is scheduled before it has a key. Every round the test stops the selector
+ * thread exactly there (Broadcaster.afterAdded), adds a new listener, broadcasts a
+ * message to it and lets the thread go on. Then a second message follows. Both have
+ * to arrive within a second. The listener disconnects afterwards, so every round has
+ * exactly one new listener.
+ */
+class BroadcasterTest {
+	public static void main(String[] args) throws Exception {
+		if (args.length != 2) {
+			System.out.println("Expected: <rounds(int)> <port(int)>");
+			System.exit(0);
+		}
+		int rounds = Integer.parseInt(args[0]);
+		int port = Integer.parseInt(args[1]);
+
+		Broadcaster broadcaster = new Broadcaster(Broadcaster.SlowPolicy.DROP_OLDEST, Broadcaster.QUEUE_SIZE);
+		broadcaster.start();
+		ServerSocketChannel server = ServerSocketChannel.open();
+		server.bind(new InetSocketAddress("localhost", port));
+		BinaryProtocol.Encoder encoder = new BinaryProtocol.Encoder();
+		// a subscriber that keeps sending to us: the selector thread wakes up for it all
+		// the time and goes round its loop, so it comes to afterAdded again soon
+		Socket busy = new Socket("localhost", port);
+		broadcaster.add(server.accept());
+		Thread background = new Thread(() -> {
+			byte[] noise = new byte[64];
+			try {
+				while (true) {
+					busy.getOutputStream().write(noise);
+				}
+			} catch (IOException e) {
+				// the test is over
+			}
+		});
+		background.setDaemon(true);
+		background.start();
+
+		// the selector thread waits in afterAdded while the test adds and broadcasts
+		AtomicBoolean armed = new AtomicBoolean(false);
+		Semaphore inWindow = new Semaphore(0);
+		Semaphore done = new Semaphore(0);
+		broadcaster.afterAdded = () -> {
+			if (armed.compareAndSet(true, false)) {
+				inWindow.release();
+				done.acquireUninterruptibly();
+			}
+		};
+
+		int lostFirst = 0;
+		int lostLater = 0;
+		for (int i = 0; i < rounds; i++) {
+			try (Socket listener = new Socket("localhost", port)) {
+				listener.setSoTimeout(1000);
+				SocketChannel channel = server.accept();
+				armed.set(true);
+				if (!inWindow.tryAcquire(5, TimeUnit.SECONDS)) {
+					System.out.println("The Broadcaster thread did not come round in 5 s");
+					System.exit(1);
+				}
+				broadcaster.add(channel);
+				broadcaster.broadcast(encoder.chat("first", Integer.toString(i)).toByteArray());
+				done.release();
+				BinaryProtocol.Decoder decoder = new BinaryProtocol.Decoder(listener.getInputStream());
+				if (!receive(decoder, "first", i)) {
+					lostFirst++;
+				}
+				broadcaster.broadcast(encoder.chat("later", Integer.toString(i)).toByteArray());
+				if (!receive(decoder, "later", i)) {
+					lostLater++;
+				}
+			}
+		}
+		System.out.printf("%d listeners added and sent to right away: %d missed the first message, %d missed a later one%n",
+			rounds, lostFirst, lostLater);
+		System.out.println(broadcaster.stats());
+		System.exit(lostFirst + lostLater == 0 ? 0 : 1);
+	}
+
+	// true if the message of this round arrived
+	private static boolean receive(BinaryProtocol.Decoder decoder, String username, int round) throws Exception {
+		try {
+			while (decoder.next() == BinaryProtocol.CHAT) {
+				if (decoder.username.equals(username) && decoder.message.equals(Integer.toString(round))) {
+					return true;
+				}
+			}
+		} catch (SocketTimeoutException e) {
+			// did not come
+		}
+		return false;
+	}
+}
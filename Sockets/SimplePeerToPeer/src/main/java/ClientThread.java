@@ -1,10 +1,6 @@
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.Socket;
 
-import org.json.*;
-
 /**
  * Client 
  * This is the Client thread class, there is a client thread for each peer we are listening to.
@@ -12,16 +8,21 @@ import org.json.*;
  */
 
 public class ClientThread extends Thread {
-	private BufferedReader bufferedReader;
+	private BinaryProtocol.Decoder decoder; // reads the chat frames, see BinaryProtocol
 	
 	public ClientThread(Socket socket) throws IOException {
-		bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+		decoder = new BinaryProtocol.Decoder(socket.getInputStream());
 	}
 	public void run() {
 		while (true) {
 			try {
-			    JSONObject json = new JSONObject(bufferedReader.readLine());
-			    System.out.println("[" + json.getString("username")+"]: " + json.getString("message"));
+			    int type = decoder.next();
+			    if (type < 0) {
+			    	break; // the other peer is gone
+			    }
+			    if (type == BinaryProtocol.CHAT) {
+			    	System.out.println("[" + decoder.username + "]: " + decoder.message);
+			    }
 			} catch (Exception e) {
 				interrupt();
 				break;
@@ -26,6 +26,7 @@ public class Peer {
 	 *
 	 * @param args[0] username
 	 * @param args[1] port for server
+	 * @param args[2] optional, what to do with a slow listener: drop-oldest (default), disconnect or block
 	 */
 	public static void main (String[] args) throws Exception {
 
@@ -34,7 +35,11 @@ public class Peer {
 		System.out.println("Hello " + username + " and welcome! Your port will be " + args[1]);
 
 		// starting the Server Thread, which waits for other peers to want to connect
-		ServerThread serverThread = new ServerThread(args[1]);
+		Broadcaster.SlowPolicy policy = Broadcaster.SlowPolicy.DROP_OLDEST;
+		if (args.length > 2) {
+			policy = Broadcaster.SlowPolicy.valueOf(args[2].toUpperCase().replace('-', '_'));
+		}
+		ServerThread serverThread = new ServerThread(args[1], policy);
 		serverThread.start();
 		Peer peer = new Peer(bufferedReader, args[0], serverThread);
 		peer.updateListenToPeers();
@@ -86,7 +91,7 @@ public class Peer {
 					break;
 				} else {
 					// we are sending the message to our server thread. this one is then responsible for sending it to listening peers
-					serverThread.sendMessage("{'username': '"+ username +"','message':'" + message + "'}");
+					serverThread.sendMessage(username, message);
 				}	
 			}
 			System.exit(0);
@@ -1,50 +1,59 @@
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.HashSet;
-import java.util.Set;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 
 /**
  * SERVER
  * This is the ServerThread class that has a socket where we accept clients contacting us.
- * We save the clients ports connecting to the server into a List in this class. 
- * When we wand to send a message we send it to all the listening ports
+ * We give the sockets of the clients connecting to the server to the Broadcaster.
+ * When we want to send a message the Broadcaster sends it to all the listening peers,
+ * without waiting for slow ones (see Broadcaster).
  */
 
 public class ServerThread extends Thread{
-	private ServerSocket serverSocket;
-	private Set<Socket> listeningSockets = new HashSet<Socket>();
-	
+	private ServerSocketChannel serverChannel;
+	private Broadcaster broadcaster;
+	private BinaryProtocol.Encoder encoder = new BinaryProtocol.Encoder();
+
 	public ServerThread(String portNum) throws IOException {
-		serverSocket = new ServerSocket(Integer.valueOf(portNum));
+		this(portNum, Broadcaster.SlowPolicy.DROP_OLDEST);
 	}
-	
+
 	/**
-	 * Starting the thread, we are waiting for clients wanting to talk to us, then save the socket in a list
+	 * @param policy what to do with a listening peer that does not keep up
+	 */
+	public ServerThread(String portNum, Broadcaster.SlowPolicy policy) throws IOException {
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(Integer.valueOf(portNum)));
+		broadcaster = new Broadcaster(policy, Broadcaster.QUEUE_SIZE);
+		broadcaster.start();
+	}
+
+	public Broadcaster getBroadcaster() {
+		return broadcaster;
+	}
+
+	/**
+	 * Starting the thread, we are waiting for clients wanting to talk to us, then hand the socket to the broadcaster
 	 */
 	public void run() {
 		try {
 			while (true) {
-				Socket sock = serverSocket.accept();
-				listeningSockets.add(sock);
+				SocketChannel channel = serverChannel.accept();
+				broadcaster.add(channel);
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 	}
-	
+
 	/**
-	 * Sending the message to the OutputStream for each socket that we saved
+	 * Sending the message to all listening peers.
+	 * The message is encoded once as a binary frame (see BinaryProtocol) and the
+	 * same bytes go to every peer, the Broadcaster writes them in its own thread.
 	 */
-	void sendMessage(String message) {
-		try {
-			for (Socket s : listeningSockets) {
-				PrintWriter out = new PrintWriter(s.getOutputStream(), true);
-				out.println(message);
-		     }
-		} catch(Exception e) {
-			e.printStackTrace();
-		}
-	}	
+	void sendMessage(String username, String message) {
+		broadcaster.broadcast(encoder.chat(username, message).toByteArray());
+	}
 }